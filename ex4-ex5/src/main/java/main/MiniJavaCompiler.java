@@ -7,6 +7,8 @@ import frontend.SyntaxError;
 //import languageserver.MinijavaLanguageserver;
 import minijava.ast.MJProgram;
 import minillvm.ast.Prog;
+import minillvm.passes.OptimizationLevel;
+import minillvm.passes.PassManager;
 import translation.Translator;
 
 import java.io.*;
@@ -23,6 +25,8 @@ public class MiniJavaCompiler {
     private Prog llvmProg;
     private Analysis analysis;
     private MJFrontend frontend;
+    private OptimizationLevel optimizationLevel = OptimizationLevel.O2;
+    private PassManager passManager;
 
     public static void main(String[] args) throws Exception {
         List<String> argList = Arrays.asList(args);
@@ -30,14 +34,22 @@ public class MiniJavaCompiler {
          * if (argList.contains("-languageServer")) { MinijavaLanguageserver.start();
          * return; }
          */
-        String fileName;
-        if (args.length > 0) {
-            fileName = args[0];
-        } else {
+        String fileName = null;
+        boolean printStatistics = false;
+        MiniJavaCompiler compiler = new MiniJavaCompiler();
+        for (String arg : argList) {
+            if (arg.startsWith("-O")) {
+                compiler.setOptimizationLevel(OptimizationLevel.fromFlag(arg));
+            } else if (arg.equals("-stats")) {
+                printStatistics = true;
+            } else if (fileName == null) {
+                fileName = arg;
+            }
+        }
+        if (fileName == null) {
             System.out.println("Enter a filename: ");
             fileName = new Scanner(System.in).nextLine();
         }
-        MiniJavaCompiler compiler = new MiniJavaCompiler();
         File inputFile = new File(fileName);
         compiler.compileFile(inputFile);
 
@@ -46,6 +58,9 @@ public class MiniJavaCompiler {
             compiler.getTypeErrors().forEach(System.out::println);
             System.exit(7);
         }
+        if (printStatistics) {
+            compiler.printStatistics();
+        }
 
         compiler.compileLLVMCode(inputFile.getName());
 
@@ -81,10 +96,21 @@ public class MiniJavaCompiler {
         llvmProg = translator.translate();
 
         // optimize
-        // new SSATransformation().transformProg(llvmProg);
-        // new ConstantPropagation().optimizeProgram(llvmProg);
-        // new DeadCodeElimination().optimizeProgram(llvmProg);
+        passManager = PassManager.forLevel(optimizationLevel);
+        passManager.run(llvmProg);
+
+    }
+
+    /**
+     * Prints how often each pass changed the program and how often each peephole rule was applied.
+     */
+    public void printStatistics() {
+        passManager.getChanges().forEach((pass, n) -> System.out.println("pass " + pass + ": " + n));
+        passManager.getPeepholeHits().forEach((rule, n) -> System.out.println("peephole rule " + rule + ": " + n));
+    }
 
+    public void setOptimizationLevel(OptimizationLevel optimizationLevel) {
+        this.optimizationLevel = optimizationLevel;
     }
 
     public MJProgram getJavaProgram() {
@@ -95,6 +121,13 @@ public class MiniJavaCompiler {
         return llvmProg;
     }
 
+    /**
+     * @return the optimization pipeline run by the last compilation
+     */
+    public PassManager getPassManager() {
+        return passManager;
+    }
+
     public List<SyntaxError> getSyntaxErrors() {
         return frontend.getSyntaxErrors();
     }
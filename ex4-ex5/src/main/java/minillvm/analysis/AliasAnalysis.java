@@ -0,0 +1,549 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Answers whether a store or a call may change the memory read through an address.
+ *
+ * Memory is only ever accessed with the type it was allocated with,
+ * so accesses through pointers to different types never alias.
+ * Memory which is only written once right after its allocation
+ * (like the vtable pointer of an object), array lengths and constant globals never change.
+ *
+ * Fields are distinguished by their index, fields of struct types which are never cast
+ * into each other do not alias and neither do fields and array elements.
+ * Elements at different constant offsets from the same pointer are different as well.
+ * A call may only change the memory its callees (transitively) store to,
+ * apart from memory they allocated themselves.
+ */
+public class AliasAnalysis {
+
+	/** types of memory which is only written when it is allocated */
+	private final List<Type> immutableTypes = new ArrayList<>();
+	/** immutable pointer types which always point to constant globals */
+	private final List<Type> constantPointerTypes = new ArrayList<>();
+	/** struct types cast into each other share a representative */
+	private final Map<TypeStruct, TypeStruct> structClasses = new IdentityHashMap<>();
+	/** representatives of struct types whose memory may also be accessed through other types */
+	private final Set<TypeStruct> untypedStructs = Collections.newSetFromMap(new IdentityHashMap<>());
+	/** the procedures in the constant structs (vtables) at every index */
+	private final Map<Integer, Set<Proc>> constantStructProcs = new HashMap<>();
+	/** the memory every procedure may change, null if it is not known */
+	private final Map<Proc, List<Location>> writtenLocations = new IdentityHashMap<>();
+
+	/** what is known about the memory an address refers to, independent of the procedure */
+	private static final class Location {
+		final Type type;
+		/** the representative of the struct type for fields, otherwise null */
+		final TypeStruct struct;
+		final int field;
+		/** whether the address is computed from a pointer to a struct */
+		final boolean structBase;
+
+		Location(Type type, TypeStruct struct, int field, boolean structBase) {
+			this.type = type;
+			this.struct = struct;
+			this.field = field;
+			this.structBase = structBase;
+		}
+	}
+
+	public AliasAnalysis(Prog prog) {
+		List<Type> storedTypes = new ArrayList<>();
+		List<Type> mutableTypes = new ArrayList<>();
+		List<Type> nonConstantValueTypes = new ArrayList<>();
+		for (Proc proc : prog.getProcedures()) {
+			for (BasicBlock block : proc.getBasicBlocks()) {
+				for (Instruction instr : block) {
+					if (instr instanceof Store) {
+						Store store = (Store) instr;
+						Type type = accessedType(store.getAddress());
+						addType(storedTypes, type);
+						if (!isInitialization(store, block)) {
+							addType(mutableTypes, type);
+						}
+						if (!isConstantGlobal(store.getValue()) && !isOverwritten(store, block)) {
+							addType(nonConstantValueTypes, type);
+						}
+					}
+				}
+			}
+		}
+		for (Type type : storedTypes) {
+			if (!containsType(mutableTypes, type)) {
+				immutableTypes.add(type);
+				if (!containsType(nonConstantValueTypes, type)) {
+					constantPointerTypes.add(type);
+				}
+			}
+		}
+		computeStructClasses(prog);
+		computeConstantStructProcs(prog);
+		computeWrittenLocations(prog);
+	}
+
+	private void computeStructClasses(Prog prog) {
+		List<TypeStruct> untyped = new ArrayList<>();
+		// the struct types the memory of every allocation is cast to
+		Map<Assign, TypeStruct> allocationTypes = new IdentityHashMap<>();
+		for (Proc proc : prog.getProcedures()) {
+			for (BasicBlock block : proc.getBasicBlocks()) {
+				for (Instruction instr : block) {
+					if (!(instr instanceof Bitcast)) {
+						continue;
+					}
+					Bitcast bitcast = (Bitcast) instr;
+					TypeStruct from = pointedStruct(bitcast.getExpr().calculateType());
+					TypeStruct to = pointedStruct(bitcast.getType());
+					if (from != null && to != null) {
+						union(from, to);
+					} else if (from == null && to == null || bitcast.getExpr() instanceof Nullpointer) {
+						continue;
+					} else if (isAllocated(bitcast.getExpr())) {
+						// allocated memory is cast from and to bytes
+						TypeStruct struct = from != null ? from : to;
+						TypeStruct previous = allocationTypes.putIfAbsent(definition(getBasePointer(bitcast.getExpr())), struct);
+						if (previous != null) {
+							union(previous, struct);
+						}
+					} else {
+						untyped.add(from != null ? from : to);
+					}
+				}
+			}
+		}
+		for (TypeStruct struct : untyped) {
+			untypedStructs.add(representative(struct));
+		}
+	}
+
+	private static TypeStruct pointedStruct(Type type) {
+		if (type instanceof TypePointer && ((TypePointer) type).getTo() instanceof TypeStruct) {
+			return (TypeStruct) ((TypePointer) type).getTo();
+		}
+		return null;
+	}
+
+	private static boolean isAllocated(Operand pointer) {
+		Assign def = definition(getBasePointer(pointer));
+		return def instanceof Alloc || def instanceof AllocZeroed || def instanceof Alloca;
+	}
+
+	private TypeStruct representative(TypeStruct struct) {
+		TypeStruct parent = structClasses.get(struct);
+		if (parent == null || parent == struct) {
+			return struct;
+		}
+		TypeStruct result = representative(parent);
+		structClasses.put(struct, result);
+		return result;
+	}
+
+	/**
+	 * merges the classes of two struct types, the structs fields at the same index point to
+	 * (like the vtables of a class and its superclass) are merged as well
+	 */
+	private void union(TypeStruct a, TypeStruct b) {
+		TypeStruct ra = representative(a);
+		TypeStruct rb = representative(b);
+		if (ra == rb) {
+			return;
+		}
+		structClasses.put(rb, ra);
+		int fields = Math.min(a.getFields().size(), b.getFields().size());
+		for (int i = 0; i < fields; i++) {
+			TypeStruct fa = pointedStruct(a.getFields().get(i).getType());
+			TypeStruct fb = pointedStruct(b.getFields().get(i).getType());
+			if (fa != null && fb != null) {
+				union(fa, fb);
+			}
+		}
+	}
+
+	private void computeConstantStructProcs(Prog prog) {
+		for (Global global : prog.getGlobals()) {
+			if (!(global.getInitialValue() instanceof ConstStruct)) {
+				continue;
+			}
+			ConstList values = ((ConstStruct) global.getInitialValue()).getValues();
+			for (int i = 0; i < values.size(); i++) {
+				if (values.get(i) instanceof ProcedureRef) {
+					constantStructProcs.computeIfAbsent(i, k -> new HashSet<>())
+							.add(((ProcedureRef) values.get(i)).getProcedure());
+				}
+			}
+		}
+	}
+
+	/**
+	 * the procedures a call may invoke or null, if they are not known:
+	 * virtual calls load the procedure from a constant vtable
+	 */
+	private Collection<Proc> callees(Call call) {
+		Operand function = call.getFunction();
+		if (function instanceof ProcedureRef) {
+			return Collections.singletonList(((ProcedureRef) function).getProcedure());
+		}
+		Assign load = definition(function);
+		if (!(load instanceof Load) || !isConstantMemory(((Load) load).getAddress())) {
+			return null;
+		}
+		Assign gep = definition(((Load) load).getAddress());
+		if (!(gep instanceof GetElementPtr) || fieldIndex((GetElementPtr) gep) < 0) {
+			return null;
+		}
+		return constantStructProcs.getOrDefault(fieldIndex((GetElementPtr) gep), Collections.emptySet());
+	}
+
+	private void computeWrittenLocations(Prog prog) {
+		Map<Proc, List<Call>> calls = new IdentityHashMap<>();
+		for (Proc proc : prog.getProcedures()) {
+			List<Location> written = new ArrayList<>();
+			List<Call> procCalls = new ArrayList<>();
+			for (BasicBlock block : proc.getBasicBlocks()) {
+				for (Instruction instr : block) {
+					if (instr instanceof Store && !isAllocated(((Store) instr).getAddress())) {
+						addLocation(written, location(((Store) instr).getAddress()));
+					} else if (instr instanceof Call) {
+						procCalls.add((Call) instr);
+					}
+				}
+			}
+			calls.put(proc, procCalls);
+			writtenLocations.put(proc, proc.getBasicBlocks().isEmpty() ? null : written);
+		}
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Proc proc : prog.getProcedures()) {
+				List<Location> written = writtenLocations.get(proc);
+				if (written == null) {
+					continue;
+				}
+				for (Call call : calls.get(proc)) {
+					Collection<Proc> callees = callees(call);
+					if (callees == null) {
+						written = null;
+						break;
+					}
+					for (Proc callee : callees) {
+						List<Location> calleeWritten = writtenLocations.get(callee);
+						if (calleeWritten == null) {
+							written = null;
+							break;
+						}
+						for (Location location : calleeWritten) {
+							changed |= addLocation(written, location);
+						}
+					}
+					if (written == null) {
+						break;
+					}
+				}
+				if (written == null) {
+					writtenLocations.put(proc, null);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/** adds the location, unless the list already contains one which aliases exactly the same memory */
+	private static boolean addLocation(List<Location> locations, Location location) {
+		for (Location l : locations) {
+			if (l.type.equalsType(location.type) && l.struct == location.struct
+					&& l.field == location.field && l.structBase == location.structBase) {
+				return false;
+			}
+		}
+		locations.add(location);
+		return true;
+	}
+
+	private static void addType(List<Type> types, Type type) {
+		if (!containsType(types, type)) {
+			types.add(type);
+		}
+	}
+
+	private static boolean containsType(List<Type> types, Type type) {
+		for (Type t : types) {
+			if (t.equalsType(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** the type of the value read or written through the address */
+	public static Type accessedType(Operand address) {
+		return ((TypePointer) address.calculateType()).getTo();
+	}
+
+	/**
+	 * the operand an address is computed from by bitcasts and getelementptr instructions
+	 */
+	public static Operand getBasePointer(Operand address) {
+		while (address instanceof VarRef && ((VarRef) address).getVariable() instanceof TemporaryVar) {
+			Element def = ((VarRef) address).getVariable().getParent();
+			if (def instanceof Bitcast) {
+				address = ((Bitcast) def).getExpr();
+			} else if (def instanceof GetElementPtr) {
+				address = ((GetElementPtr) def).getBaseAddress();
+			} else {
+				break;
+			}
+		}
+		return address;
+	}
+
+	/** the instruction defining the variable of the operand, or null */
+	public static Assign definition(Operand op) {
+		if (op instanceof VarRef && ((VarRef) op).getVariable() instanceof TemporaryVar) {
+			Element parent = ((VarRef) op).getVariable().getParent();
+			if (parent instanceof Assign) {
+				return (Assign) parent;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Arrays store their length in the first word, which is never written after allocation.
+	 * Accesses directly through the (cast) array pointer read the length,
+	 * all other memory accesses go through a getelementptr.
+	 *
+	 * @return the array, if the address is the one of an array length
+	 */
+	public static Variable arrayOfLength(Operand address) {
+		address = withoutBitcasts(address);
+		if (!(address instanceof VarRef) || !isArrayStart(((VarRef) address).getVariable(), new HashSet<>())) {
+			return null;
+		}
+		return ((VarRef) address).getVariable();
+	}
+
+	/**
+	 * checks whether the variable points to the start of an array and not into it,
+	 * like the phi nodes of element pointers created by strength reduction
+	 */
+	private static boolean isArrayStart(Variable v, Set<Variable> visited) {
+		if (v instanceof Parameter || !visited.add(v)) {
+			return true;
+		}
+		Element def = v.getParent();
+		if (def instanceof Alloc || def instanceof AllocZeroed || def instanceof Call) {
+			return true;
+		} else if (def instanceof Alloca) {
+			// arrays moved to the stack by the escape analysis, other stack slots hold fields
+			return ((Alloca) def).getType() instanceof TypeArray;
+		} else if (def instanceof Load) {
+			return ((Load) def).getVar().calculateType() instanceof TypePointer;
+		} else if (def instanceof PhiNode) {
+			for (PhiNodeChoice choice : ((PhiNode) def).getChoices()) {
+				Operand value = withoutBitcasts(choice.getValue());
+				if (!(value instanceof Nullpointer)
+						&& !(value instanceof VarRef && isArrayStart(((VarRef) value).getVariable(), visited))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static Operand withoutBitcasts(Operand op) {
+		while (definition(op) instanceof Bitcast) {
+			op = ((Bitcast) definition(op)).getExpr();
+		}
+		return op;
+	}
+
+	/**
+	 * a store initializes fresh memory, if it writes to memory allocated in the same block,
+	 * no call comes in between and the same type of memory is not read in the block
+	 */
+	private static boolean isInitialization(Store store, BasicBlock block) {
+		Assign alloc = definition(getBasePointer(store.getAddress()));
+		if (!(alloc instanceof Alloc || alloc instanceof AllocZeroed) || alloc.getParent() != block) {
+			return false;
+		}
+		Type type = accessedType(store.getAddress());
+		boolean allocated = false;
+		for (Instruction instr : block) {
+			if (instr == alloc) {
+				allocated = true;
+			} else if (instr == store) {
+				allocated = false;
+			} else if (allocated && instr instanceof Call) {
+				return false;
+			}
+			if (instr instanceof Load && accessedType(((Load) instr).getAddress()).equalsType(type)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * checks whether a later store in the same block writes to the same address,
+	 * without a read of the same type in between
+	 */
+	private static boolean isOverwritten(Store store, BasicBlock block) {
+		Type type = accessedType(store.getAddress());
+		boolean after = false;
+		for (Instruction instr : block) {
+			if (instr == store) {
+				after = true;
+			} else if (!after) {
+				continue;
+			} else if (instr instanceof Load && accessedType(((Load) instr).getAddress()).equalsType(type)) {
+				return false;
+			} else if (instr instanceof Call) {
+				return false;
+			} else if (instr instanceof Store && sameVariable(((Store) instr).getAddress(), store.getAddress())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean sameVariable(Operand a, Operand b) {
+		return a instanceof VarRef && b instanceof VarRef
+				&& ((VarRef) a).getVariable() == ((VarRef) b).getVariable();
+	}
+
+	private static boolean isConstantGlobal(Operand op) {
+		return op instanceof GlobalRef && ((GlobalRef) op).getGlobal().getIsConstant();
+	}
+
+	/** checks whether the memory at the address can never change */
+	public boolean isConstantMemory(Operand address) {
+		if (containsType(immutableTypes, accessedType(address))) {
+			return true;
+		} else if (accessedType(address) instanceof TypeInt && arrayOfLength(address) != null) {
+			return true;
+		}
+		Operand base = getBasePointer(address);
+		if (isConstantGlobal(base)) {
+			return true;
+		}
+		Assign def = definition(base);
+		return def instanceof Load && containsType(constantPointerTypes, accessedType(((Load) def).getAddress()));
+	}
+
+	/** checks whether the value loaded from the address always points to a constant global */
+	public boolean loadsConstantPointer(Operand address) {
+		return containsType(constantPointerTypes, accessedType(address));
+	}
+
+	/** checks whether the instruction may change the memory read through the address */
+	public boolean mayWrite(Instruction instr, Operand address) {
+		if (instr instanceof Store) {
+			return !isConstantMemory(address) && mayAlias(((Store) instr).getAddress(), address);
+		} else if (instr instanceof Call) {
+			if (isConstantMemory(address)) {
+				return false;
+			}
+			Collection<Proc> callees = callees((Call) instr);
+			if (callees == null) {
+				return true;
+			}
+			Location location = location(address);
+			for (Proc callee : callees) {
+				List<Location> written = writtenLocations.get(callee);
+				if (written == null) {
+					return true;
+				}
+				for (Location l : written) {
+					if (mayAlias(l, location)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/** checks whether two addresses may refer to the same memory */
+	public boolean mayAlias(Operand a, Operand b) {
+		Operand baseA = offsetBase(a);
+		Operand baseB = offsetBase(b);
+		if (baseA instanceof VarRef && baseB instanceof VarRef
+				&& ((VarRef) baseA).getVariable() == ((VarRef) baseB).getVariable()) {
+			Integer offsetA = constantOffset(a);
+			Integer offsetB = constantOffset(b);
+			if (offsetA != null && offsetB != null && !offsetA.equals(offsetB)) {
+				return false;
+			}
+		}
+		return mayAlias(location(a), location(b));
+	}
+
+	private boolean mayAlias(Location a, Location b) {
+		if (!a.type.equalsType(b.type)) {
+			return false;
+		} else if (a.struct != null && untypedStructs.contains(a.struct)
+				|| b.struct != null && untypedStructs.contains(b.struct)) {
+			return true;
+		} else if (a.struct != null && b.struct != null) {
+			return a.struct == b.struct && a.field == b.field;
+		} else if (a.struct != null) {
+			return b.structBase;
+		} else if (b.struct != null) {
+			return a.structBase;
+		}
+		return true;
+	}
+
+	private Location location(Operand address) {
+		Type type = accessedType(address);
+		boolean structBase = pointedStruct(getBasePointer(address).calculateType()) != null;
+		Assign def = definition(address);
+		if (def instanceof GetElementPtr && fieldIndex((GetElementPtr) def) >= 0) {
+			GetElementPtr gep = (GetElementPtr) def;
+			TypeStruct struct = pointedStruct(gep.getBaseAddress().calculateType());
+			return new Location(type, representative(struct), fieldIndex(gep), structBase);
+		}
+		return new Location(type, null, -1, structBase);
+	}
+
+	/** the index of the field, if the getelementptr computes the address of a field, otherwise -1 */
+	private static int fieldIndex(GetElementPtr gep) {
+		OperandList indices = gep.getIndices();
+		if (pointedStruct(gep.getBaseAddress().calculateType()) == null || indices.size() != 2
+				|| !(indices.get(0) instanceof ConstInt) || ((ConstInt) indices.get(0)).getIntVal() != 0
+				|| !(indices.get(1) instanceof ConstInt)) {
+			return -1;
+		}
+		return ((ConstInt) indices.get(1)).getIntVal();
+	}
+
+	/** the pointer an address is computed from by getelementptr instructions with a single index */
+	private static Operand offsetBase(Operand address) {
+		Assign def = definition(address);
+		while (def instanceof GetElementPtr && ((GetElementPtr) def).getIndices().size() == 1) {
+			address = ((GetElementPtr) def).getBaseAddress();
+			def = definition(address);
+		}
+		return address;
+	}
+
+	/** the offset of the address from its {@link #offsetBase}, or null if it is not constant */
+	private static Integer constantOffset(Operand address) {
+		int offset = 0;
+		Assign def = definition(address);
+		while (def instanceof GetElementPtr && ((GetElementPtr) def).getIndices().size() == 1) {
+			Operand index = ((GetElementPtr) def).getIndices().get(0);
+			if (!(index instanceof ConstInt)) {
+				return null;
+			}
+			offset += ((ConstInt) index).getIntVal();
+			def = definition(((GetElementPtr) def).getBaseAddress());
+		}
+		return offset;
+	}
+}
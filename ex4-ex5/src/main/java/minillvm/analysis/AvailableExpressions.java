@@ -0,0 +1,133 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Available expressions: the computations and loads which were executed on every path
+ * to a point and would give the same result there.
+ *
+ * Expressions are numbered by their operator and operands, so the same computation
+ * in different blocks is one fact. Temporary variables are only assigned once, so only loads
+ * are killed: by stores which may write the same memory and by calls.
+ */
+public class AvailableExpressions extends Dataflow {
+
+	private final AliasAnalysis aliasAnalysis;
+	private final Map<List<Object>, Integer> numbers = new HashMap<>();
+	/** for every expression one of its instructions */
+	private final List<Assign> expressions = new ArrayList<>();
+	private final List<Integer> loads = new ArrayList<>();
+
+	public AvailableExpressions(Proc proc, AliasAnalysis aliasAnalysis) {
+		this(proc, new Dominators(proc), aliasAnalysis);
+	}
+
+	public AvailableExpressions(Proc proc, Dominators dominators, AliasAnalysis aliasAnalysis) {
+		super(dominators, Direction.FORWARD, Meet.INTERSECTION);
+		this.aliasAnalysis = aliasAnalysis;
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				List<Object> key = key(instr);
+				if (key != null && !numbers.containsKey(key)) {
+					numbers.put(key, expressions.size());
+					if (instr instanceof Load) {
+						loads.add(expressions.size());
+					}
+					expressions.add((Assign) instr);
+				}
+			}
+		}
+		solve();
+	}
+
+	@Override
+	protected int size() {
+		return expressions.size();
+	}
+
+	@Override
+	protected void initialize(BasicBlock block, BitVector gen, BitVector kill) {
+		for (Instruction instr : block) {
+			if (instr instanceof Store || instr instanceof Call) {
+				for (int e : loads) {
+					if (aliasAnalysis.mayWrite(instr, ((Load) expressions.get(e)).getAddress())) {
+						gen.clear(e);
+						kill.set(e);
+					}
+				}
+			}
+			List<Object> key = key(instr);
+			if (key != null) {
+				gen.set(numbers.get(key));
+			}
+		}
+	}
+
+	/** checks whether the value computed by the instruction is available at the start of the block */
+	public boolean isAvailable(BasicBlock block, Assign instr) {
+		List<Object> key = key(instr);
+		BitVector in = getIn(block);
+		return key != null && in != null && numbers.containsKey(key) && in.get(numbers.get(key));
+	}
+
+	/** the instructions computing the expressions available at the start of the block, one per expression */
+	public List<Assign> getAvailable(BasicBlock block) {
+		List<Assign> result = new ArrayList<>();
+		BitVector in = getIn(block);
+		if (in != null) {
+			for (int i = in.nextSetBit(0); i >= 0; i = in.nextSetBit(i + 1)) {
+				result.add(expressions.get(i));
+			}
+		}
+		return result;
+	}
+
+	/** a key identifying the computed value, or null for instructions which are not expressions */
+	private static List<Object> key(Instruction instr) {
+		List<Object> key = new ArrayList<>();
+		key.add(instr.getClass());
+		if (instr instanceof BinaryOperation) {
+			BinaryOperation op = (BinaryOperation) instr;
+			key.add(op.getOperator().getClass());
+			key.add(operandKey(op.getLeft()));
+			key.add(operandKey(op.getRight()));
+		} else if (instr instanceof GetElementPtr) {
+			GetElementPtr gep = (GetElementPtr) instr;
+			key.add(operandKey(gep.getBaseAddress()));
+			for (Operand index : gep.getIndices()) {
+				key.add(operandKey(index));
+			}
+		} else if (instr instanceof Bitcast) {
+			key.add(((Bitcast) instr).getType().toString());
+			key.add(operandKey(((Bitcast) instr).getExpr()));
+		} else if (instr instanceof Select) {
+			Select select = (Select) instr;
+			key.add(operandKey(select.getCondition()));
+			key.add(operandKey(select.getIfTrue()));
+			key.add(operandKey(select.getIfFalse()));
+		} else if (instr instanceof Load) {
+			key.add(operandKey(((Load) instr).getAddress()));
+		} else {
+			return null;
+		}
+		return key;
+	}
+
+	private static Object operandKey(Operand operand) {
+		if (operand instanceof VarRef) {
+			return ((VarRef) operand).getVariable();
+		} else if (operand instanceof ConstInt) {
+			return ((ConstInt) operand).getIntVal();
+		} else if (operand instanceof ConstBool) {
+			return ((ConstBool) operand).getBoolVal();
+		} else if (operand instanceof GlobalRef) {
+			return ((GlobalRef) operand).getGlobal();
+		} else if (operand instanceof ProcedureRef) {
+			return ((ProcedureRef) operand).getProcedure();
+		}
+		// constants like null are compared by their printed form
+		return operand.toString();
+	}
+}
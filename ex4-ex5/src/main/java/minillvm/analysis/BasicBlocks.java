@@ -3,7 +3,10 @@ package minillvm.analysis;
 import minillvm.ast.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class BasicBlocks {
@@ -35,4 +38,41 @@ public class BasicBlocks {
 		}
 		return Optional.empty();
 	}
+
+	public static List<BasicBlock> getSuccessors(BasicBlock block) {
+		Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+		if (!t.isPresent()) {
+			return Collections.emptyList();
+		}
+		if (t.get() instanceof Jump) {
+			return Collections.singletonList(((Jump) t.get()).getLabel());
+		} else if (t.get() instanceof Branch) {
+			Branch branch = (Branch) t.get();
+			List<BasicBlock> result = new ArrayList<>();
+			result.add(branch.getIfTrueLabel());
+			result.add(branch.getIfFalseLabel());
+			return result;
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * maps every block of the list to the blocks jumping to it
+	 * (a block branching twice to the same target is listed twice)
+	 */
+	public static Map<BasicBlock, List<BasicBlock>> getPredecessors(List<BasicBlock> blocks) {
+		Map<BasicBlock, List<BasicBlock>> result = new HashMap<>();
+		for (BasicBlock block : blocks) {
+			result.put(block, new ArrayList<>());
+		}
+		for (BasicBlock block : blocks) {
+			for (BasicBlock succ : block.getSuccessors()) {
+				List<BasicBlock> preds = result.get(succ);
+				if (preds != null) {
+					preds.add(block);
+				}
+			}
+		}
+		return result;
+	}
 }
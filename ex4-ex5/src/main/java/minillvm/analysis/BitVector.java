@@ -0,0 +1,162 @@
+package minillvm.analysis;
+
+import java.util.Arrays;
+
+/**
+ * A set of the numbers 0 to size - 1, stored as bits in an array of longs.
+ *
+ * The operations combining two vectors require both to have the same size
+ * and report whether this vector was changed.
+ */
+public final class BitVector {
+
+	private final int size;
+	private final long[] words;
+
+	public BitVector(int size) {
+		this.size = size;
+		this.words = new long[(size + 63) >>> 6];
+	}
+
+	public BitVector(BitVector other) {
+		this.size = other.size;
+		this.words = other.words.clone();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean get(int i) {
+		return (words[i >>> 6] & (1L << i)) != 0;
+	}
+
+	public void set(int i) {
+		words[i >>> 6] |= 1L << i;
+	}
+
+	public void clear(int i) {
+		words[i >>> 6] &= ~(1L << i);
+	}
+
+	/** adds all numbers below the size */
+	public void setAll() {
+		Arrays.fill(words, -1L);
+		int rest = size & 63;
+		if (rest != 0) {
+			words[words.length - 1] = (1L << rest) - 1;
+		}
+	}
+
+	public void clearAll() {
+		Arrays.fill(words, 0L);
+	}
+
+	public boolean isEmpty() {
+		for (long w : words) {
+			if (w != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int cardinality() {
+		int count = 0;
+		for (long w : words) {
+			count += Long.bitCount(w);
+		}
+		return count;
+	}
+
+	/** the smallest number in the set which is at least from, or -1 */
+	public int nextSetBit(int from) {
+		if (from >= size) {
+			return -1;
+		}
+		int index = from >>> 6;
+		long word = words[index] & (-1L << from);
+		while (true) {
+			if (word != 0) {
+				return (index << 6) + Long.numberOfTrailingZeros(word);
+			}
+			if (++index == words.length) {
+				return -1;
+			}
+			word = words[index];
+		}
+	}
+
+	/** this = this | other */
+	public boolean or(BitVector other) {
+		boolean changed = false;
+		for (int i = 0; i < words.length; i++) {
+			long w = words[i] | other.words[i];
+			changed |= w != words[i];
+			words[i] = w;
+		}
+		return changed;
+	}
+
+	/** this = this & other */
+	public boolean and(BitVector other) {
+		boolean changed = false;
+		for (int i = 0; i < words.length; i++) {
+			long w = words[i] & other.words[i];
+			changed |= w != words[i];
+			words[i] = w;
+		}
+		return changed;
+	}
+
+	/** this = this & ~other */
+	public boolean andNot(BitVector other) {
+		boolean changed = false;
+		for (int i = 0; i < words.length; i++) {
+			long w = words[i] & ~other.words[i];
+			changed |= w != words[i];
+			words[i] = w;
+		}
+		return changed;
+	}
+
+	/** this = gen | (in & ~kill), the transfer function of a block */
+	public boolean assignTransfer(BitVector gen, BitVector in, BitVector kill) {
+		boolean changed = false;
+		for (int i = 0; i < words.length; i++) {
+			long w = gen.words[i] | (in.words[i] & ~kill.words[i]);
+			changed |= w != words[i];
+			words[i] = w;
+		}
+		return changed;
+	}
+
+	/** this = other */
+	public boolean assign(BitVector other) {
+		boolean changed = !Arrays.equals(words, other.words);
+		System.arraycopy(other.words, 0, words, 0, words.length);
+		return changed;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof BitVector && ((BitVector) o).size == size && Arrays.equals(((BitVector) o).words, words);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(words);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(i);
+		}
+		return sb.append("}").toString();
+	}
+}
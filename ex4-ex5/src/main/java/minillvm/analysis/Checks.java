@@ -36,6 +36,17 @@ public class Checks {
 		for (BasicBlock block : proc.getBasicBlocks()) {
 			checkBlock(block);
 		}
+		checkAssignedBeforeUse(proc);
+	}
+
+	/** temporary variables live at the start of the procedure are not assigned on some path to a use */
+	private void checkAssignedBeforeUse(Proc proc) {
+		Liveness liveness = new Liveness(proc);
+		for (Variable v : liveness.getLiveIn(proc.getBasicBlocks().get(0))) {
+			if (v instanceof TemporaryVar) {
+				error(v, "Variable " + v.getName() + " might be used before it is assigned.");
+			}
+		}
 	}
 
 	private Map<BasicBlock, List<BasicBlock>> buildPredecessors(BasicBlockList basicBlocks) {
@@ -178,6 +189,11 @@ public class Checks {
 				// nothing to check
 			}
 
+			@Override
+			public void case_AllocZeroed(AllocZeroed alloc) {
+				// nothing to check
+			}
+
 			@Override
 			public void case_Call(Call call) {
 				Type funcType = getType(call.getFunction());
@@ -266,6 +282,16 @@ public class Checks {
 			public void case_Alloca(Alloca alloca) {
 				// nothing to check
 			}
+
+			@Override
+			public void case_Select(Select select) {
+				expectType(select.getCondition(), Ast.TypeBool());
+				Type trueType = getType(select.getIfTrue());
+				Type falseType = getType(select.getIfFalse());
+				if (!trueType.equalsType(falseType)) {
+					error(select, "Both values of select must be of same type, got " + trueType + " and " + falseType);
+				}
+			}
 		});
 	}
 
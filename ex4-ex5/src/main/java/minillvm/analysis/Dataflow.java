@@ -0,0 +1,189 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Worklist solver for bit vector dataflow problems over the reachable blocks of a procedure.
+ *
+ * A problem defines the numbered facts, the gen and kill set of every block
+ * and how the values of the neighbours are combined (union or intersection).
+ * The result for a block is the value at its start (in) and at its end (out),
+ * also for backward problems.
+ *
+ * Subclasses compute their numbering and then call {@link #solve()}.
+ */
+public abstract class Dataflow {
+
+	public enum Direction {
+		FORWARD, BACKWARD
+	}
+
+	public enum Meet {
+		UNION, INTERSECTION
+	}
+
+	protected final Dominators dominators;
+	private final Direction direction;
+	private final Meet meet;
+	private BitVector[] in;
+	private BitVector[] out;
+
+	protected Dataflow(Dominators dominators, Direction direction, Meet meet) {
+		this.dominators = dominators;
+		this.direction = direction;
+		this.meet = meet;
+	}
+
+	/** the number of facts */
+	protected abstract int size();
+
+	/** fills the gen and kill sets of a reachable block */
+	protected abstract void initialize(BasicBlock block, BitVector gen, BitVector kill);
+
+	/** the value at the start of the entry block (forward) or the end of exit blocks (backward) */
+	protected void boundary(BasicBlock block, BitVector value) {
+	}
+
+	/**
+	 * changes the value flowing along the edge from one block to another,
+	 * before it is combined with the values from the other edges
+	 */
+	protected void transferEdge(BasicBlock from, BasicBlock to, BitVector value) {
+	}
+
+	protected final void solve() {
+		int n = dominators.size();
+		int size = size();
+		BitVector[] gen = new BitVector[n];
+		BitVector[] kill = new BitVector[n];
+		in = new BitVector[n];
+		out = new BitVector[n];
+		int[][] successors = new int[n][];
+		for (BasicBlock block : dominators.getReversePostorder()) {
+			int b = dominators.getNumber(block);
+			gen[b] = new BitVector(size);
+			kill[b] = new BitVector(size);
+			initialize(block, gen[b], kill[b]);
+			in[b] = new BitVector(size);
+			out[b] = new BitVector(size);
+			if (meet == Meet.INTERSECTION) {
+				// start with the top element, except for the boundary
+				(direction == Direction.FORWARD ? out[b] : in[b]).setAll();
+			}
+			List<BasicBlock> succs = block.getSuccessors();
+			successors[b] = new int[succs.size()];
+			for (int i = 0; i < succs.size(); i++) {
+				successors[b][i] = dominators.getNumber(succs.get(i));
+			}
+		}
+
+		// reverse postorder for forward problems, postorder for backward problems
+		List<BasicBlock> rpo = dominators.getReversePostorder();
+		int[] order = new int[rpo.size()];
+		for (int i = 0; i < order.length; i++) {
+			int j = direction == Direction.FORWARD ? i : order.length - 1 - i;
+			order[i] = dominators.getNumber(rpo.get(j));
+		}
+		int[] position = new int[n];
+		for (int i = 0; i < order.length; i++) {
+			position[order[i]] = i;
+		}
+
+		// the worklist is processed in order, blocks added again are visited in the next round
+		boolean[] queued = new boolean[n];
+		for (int b : order) {
+			queued[b] = true;
+		}
+		BitVector edgeValue = new BitVector(size);
+		BitVector joined = new BitVector(size);
+		boolean pending = true;
+		while (pending) {
+			pending = false;
+			for (int b : order) {
+				if (!queued[b]) {
+					continue;
+				}
+				queued[b] = false;
+				BasicBlock block = dominators.getBlock(b);
+				boolean first = true;
+				if (direction == Direction.FORWARD) {
+					for (BasicBlock predBlock : dominators.getPredecessors(block)) {
+						int p = dominators.getNumber(predBlock);
+						if (out[p] == null) {
+							continue;
+						}
+						first = join(joined, out[p], predBlock, block, edgeValue, first);
+					}
+				} else {
+					for (int s : successors[b]) {
+						if (in[s] == null) {
+							continue;
+						}
+						first = join(joined, in[s], block, dominators.getBlock(s), edgeValue, first);
+					}
+				}
+				if (first) {
+					joined.clearAll();
+					boundary(block, joined);
+				}
+				boolean changed;
+				if (direction == Direction.FORWARD) {
+					in[b].assign(joined);
+					changed = out[b].assignTransfer(gen[b], in[b], kill[b]);
+				} else {
+					out[b].assign(joined);
+					changed = in[b].assignTransfer(gen[b], out[b], kill[b]);
+				}
+				if (!changed) {
+					continue;
+				}
+				if (direction == Direction.FORWARD) {
+					for (int s : successors[b]) {
+						pending |= enqueue(s, b, queued, position);
+					}
+				} else {
+					for (BasicBlock predBlock : dominators.getPredecessors(block)) {
+						int p = dominators.getNumber(predBlock);
+						if (in[p] != null) {
+							pending |= enqueue(p, b, queued, position);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private boolean join(BitVector joined, BitVector value, BasicBlock from, BasicBlock to,
+			BitVector edgeValue, boolean first) {
+		edgeValue.assign(value);
+		transferEdge(from, to, edgeValue);
+		if (first) {
+			joined.assign(edgeValue);
+		} else if (meet == Meet.UNION) {
+			joined.or(edgeValue);
+		} else {
+			joined.and(edgeValue);
+		}
+		return false;
+	}
+
+	/**
+	 * @return true, if the block comes before the current one and needs another round
+	 */
+	private static boolean enqueue(int block, int current, boolean[] queued, int[] position) {
+		queued[block] = true;
+		return position[block] <= position[current];
+	}
+
+	/** the value at the start of the block (do not modify), null for unreachable blocks */
+	public BitVector getIn(BasicBlock block) {
+		return in[dominators.getNumber(block)];
+	}
+
+	/** the value at the end of the block (do not modify), null for unreachable blocks */
+	public BitVector getOut(BasicBlock block) {
+		return out[dominators.getNumber(block)];
+	}
+}
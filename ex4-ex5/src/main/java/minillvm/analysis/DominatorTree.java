@@ -0,0 +1,246 @@
+package minillvm.analysis;
+
+import java.util.*;
+
+/**
+ * Dominator tree of a graph with densely numbered nodes,
+ * computed with the iterative algorithm by Cooper, Harvey and Kennedy on int arrays.
+ *
+ * Used for the dominators of the control flow graph and, on the reversed graph,
+ * for the post-dominators.
+ */
+final class DominatorTree {
+
+	private final int[][] predecessors;
+	/** the reachable nodes in reverse postorder */
+	private final int[] order;
+	/** the position of every node in the reverse postorder or -1, if it is not reachable */
+	private final int[] rpoNumber;
+	/** the immediate dominator of every node, -1 for the entry and unreachable nodes */
+	private final int[] idom;
+	private final int[][] children;
+	/** preorder and postorder numbers in the tree, so dominance can be checked in constant time */
+	private final int[] treeIn;
+	private final int[] treeOut;
+	private int[][] frontiers;
+
+	/**
+	 * @param successors the successors of every node
+	 */
+	DominatorTree(int[][] successors, int entry) {
+		int n = successors.length;
+		predecessors = invert(successors);
+		order = reversePostorder(successors, entry);
+		rpoNumber = new int[n];
+		Arrays.fill(rpoNumber, -1);
+		for (int i = 0; i < order.length; i++) {
+			rpoNumber[order[i]] = i;
+		}
+
+		// the dominators as positions in the reverse postorder
+		int[] doms = new int[order.length];
+		Arrays.fill(doms, -1);
+		doms[0] = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 1; i < order.length; i++) {
+				int newIdom = -1;
+				for (int p : predecessors[order[i]]) {
+					int pi = rpoNumber[p];
+					if (pi < 0 || doms[pi] < 0) {
+						// unreachable or not processed yet
+						continue;
+					}
+					newIdom = newIdom < 0 ? pi : intersect(doms, pi, newIdom);
+				}
+				if (newIdom != doms[i]) {
+					doms[i] = newIdom;
+					changed = true;
+				}
+			}
+		}
+
+		idom = new int[n];
+		Arrays.fill(idom, -1);
+		int[] childCount = new int[n];
+		for (int i = 1; i < order.length; i++) {
+			idom[order[i]] = order[doms[i]];
+			childCount[idom[order[i]]]++;
+		}
+		children = new int[n][];
+		for (int v = 0; v < n; v++) {
+			children[v] = new int[childCount[v]];
+			childCount[v] = 0;
+		}
+		for (int i = 1; i < order.length; i++) {
+			int parent = idom[order[i]];
+			children[parent][childCount[parent]++] = order[i];
+		}
+
+		treeIn = new int[n];
+		treeOut = new int[n];
+		Arrays.fill(treeIn, -1);
+		if (order.length > 0) {
+			numberTree(entry);
+		}
+	}
+
+	private static int intersect(int[] doms, int a, int b) {
+		while (a != b) {
+			while (a > b) {
+				a = doms[a];
+			}
+			while (b > a) {
+				b = doms[b];
+			}
+		}
+		return a;
+	}
+
+	private static int[][] invert(int[][] successors) {
+		int n = successors.length;
+		int[] counts = new int[n];
+		for (int[] succs : successors) {
+			for (int s : succs) {
+				counts[s]++;
+			}
+		}
+		int[][] result = new int[n][];
+		for (int v = 0; v < n; v++) {
+			result[v] = new int[counts[v]];
+			counts[v] = 0;
+		}
+		for (int v = 0; v < n; v++) {
+			for (int s : successors[v]) {
+				result[s][counts[s]++] = v;
+			}
+		}
+		return result;
+	}
+
+	private static int[] reversePostorder(int[][] successors, int entry) {
+		// iterative depth first search, to not overflow the stack on large procedures
+		int n = successors.length;
+		if (entry < 0 || entry >= n) {
+			return new int[0];
+		}
+		boolean[] visited = new boolean[n];
+		int[] postorder = new int[n];
+		int count = 0;
+		int[] stack = new int[n];
+		int[] nextSucc = new int[n];
+		int top = 0;
+		stack[0] = entry;
+		visited[entry] = true;
+		while (top >= 0) {
+			int v = stack[top];
+			if (nextSucc[v] < successors[v].length) {
+				int s = successors[v][nextSucc[v]++];
+				if (!visited[s]) {
+					visited[s] = true;
+					stack[++top] = s;
+				}
+			} else {
+				postorder[count++] = v;
+				top--;
+			}
+		}
+		int[] result = new int[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = postorder[count - 1 - i];
+		}
+		return result;
+	}
+
+	private void numberTree(int root) {
+		int n = idom.length;
+		int[] stack = new int[n];
+		int[] nextChild = new int[n];
+		int top = 0;
+		int counter = 0;
+		stack[0] = root;
+		treeIn[root] = counter++;
+		while (top >= 0) {
+			int v = stack[top];
+			if (nextChild[v] < children[v].length) {
+				int c = children[v][nextChild[v]++];
+				treeIn[c] = counter++;
+				stack[++top] = c;
+			} else {
+				treeOut[v] = counter++;
+				top--;
+			}
+		}
+	}
+
+	int[] getOrder() {
+		return order;
+	}
+
+	int[] getPredecessors(int v) {
+		return predecessors[v];
+	}
+
+	boolean isReachable(int v) {
+		return rpoNumber[v] >= 0;
+	}
+
+	int getRpoNumber(int v) {
+		return rpoNumber[v];
+	}
+
+	int getIdom(int v) {
+		return idom[v];
+	}
+
+	int[] getChildren(int v) {
+		return children[v];
+	}
+
+	/** checks whether a dominates b (every node dominates itself) */
+	boolean dominates(int a, int b) {
+		return treeIn[a] >= 0 && treeIn[b] >= 0 && treeIn[a] <= treeIn[b] && treeOut[b] <= treeOut[a];
+	}
+
+	int[] getFrontier(int v) {
+		if (frontiers == null) {
+			computeFrontiers();
+		}
+		return frontiers[v];
+	}
+
+	private void computeFrontiers() {
+		int n = idom.length;
+		// nodes are added in reverse postorder, a marker per node avoids duplicates
+		int[] lastAdded = new int[n];
+		Arrays.fill(lastAdded, -1);
+		List<List<Integer>> result = new ArrayList<>(n);
+		for (int v = 0; v < n; v++) {
+			result.add(new ArrayList<>());
+		}
+		for (int b : order) {
+			if (predecessors[b].length < 2) {
+				continue;
+			}
+			for (int p : predecessors[b]) {
+				int runner = p;
+				while (runner >= 0 && isReachable(runner) && runner != idom[b]) {
+					if (lastAdded[runner] != b) {
+						lastAdded[runner] = b;
+						result.get(runner).add(b);
+					}
+					runner = idom[runner];
+				}
+			}
+		}
+		frontiers = new int[n][];
+		for (int v = 0; v < n; v++) {
+			List<Integer> f = result.get(v);
+			frontiers[v] = new int[f.size()];
+			for (int i = 0; i < f.size(); i++) {
+				frontiers[v][i] = f.get(i);
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Dominator tree and dominance frontiers of a procedure,
+ * computed with the iterative algorithm by Cooper, Harvey and Kennedy.
+ *
+ * The blocks are numbered by their position in the list, so the analysis runs on int arrays.
+ * The first block of the list is the entry block.
+ * Blocks not reachable from the entry block are not part of the tree.
+ */
+public class Dominators {
+
+	private final List<BasicBlock> blocks;
+	private final Map<BasicBlock, Integer> numbers = new IdentityHashMap<>();
+	private final List<List<BasicBlock>> predecessors = new ArrayList<>();
+	private final DominatorTree tree;
+	private final List<BasicBlock> reversePostorder = new ArrayList<>();
+
+	public Dominators(Proc proc) {
+		this(proc.getBasicBlocks());
+	}
+
+	public Dominators(List<BasicBlock> blocks) {
+		this.blocks = new ArrayList<>(blocks);
+		for (int i = 0; i < blocks.size(); i++) {
+			numbers.put(blocks.get(i), i);
+			predecessors.add(new ArrayList<>());
+		}
+		int[][] successors = new int[blocks.size()][];
+		for (int i = 0; i < blocks.size(); i++) {
+			List<BasicBlock> succs = blocks.get(i).getSuccessors();
+			int[] s = new int[succs.size()];
+			int count = 0;
+			for (BasicBlock succ : succs) {
+				Integer n = numbers.get(succ);
+				if (n != null) {
+					s[count++] = n;
+					predecessors.get(n).add(blocks.get(i));
+				}
+			}
+			successors[i] = Arrays.copyOf(s, count);
+		}
+		tree = new DominatorTree(successors, blocks.isEmpty() ? -1 : 0);
+		for (int v : tree.getOrder()) {
+			reversePostorder.add(blocks.get(v));
+		}
+	}
+
+	/** the number of a block of the procedure, its position in the list of blocks */
+	public int getNumber(BasicBlock b) {
+		Integer n = numbers.get(b);
+		if (n == null) {
+			throw new IllegalArgumentException("block " + b.getName() + " is not part of the procedure");
+		}
+		return n;
+	}
+
+	public BasicBlock getBlock(int number) {
+		return blocks.get(number);
+	}
+
+	/** the number of blocks, including unreachable ones */
+	public int size() {
+		return blocks.size();
+	}
+
+	/** the reachable blocks in reverse postorder, starting with the entry block */
+	public List<BasicBlock> getReversePostorder() {
+		return Collections.unmodifiableList(reversePostorder);
+	}
+
+	public boolean isReachable(BasicBlock b) {
+		Integer n = numbers.get(b);
+		return n != null && tree.isReachable(n);
+	}
+
+	/** the position of a reachable block in the reverse postorder */
+	public int getRpoNumber(BasicBlock b) {
+		return tree.getRpoNumber(getNumber(b));
+	}
+
+	public List<BasicBlock> getPredecessors(BasicBlock b) {
+		Integer n = numbers.get(b);
+		return n == null ? Collections.emptyList() : Collections.unmodifiableList(predecessors.get(n));
+	}
+
+	/** the immediate dominator of a block, or null for the entry block and unreachable blocks */
+	public BasicBlock getIdom(BasicBlock b) {
+		Integer n = numbers.get(b);
+		if (n == null || tree.getIdom(n) < 0) {
+			return null;
+		}
+		return blocks.get(tree.getIdom(n));
+	}
+
+	/** the blocks immediately dominated by the given block */
+	public List<BasicBlock> getChildren(BasicBlock b) {
+		Integer n = numbers.get(b);
+		return n == null ? Collections.emptyList() : toBlocks(tree.getChildren(n));
+	}
+
+	/** checks whether a dominates b (every block dominates itself) */
+	public boolean dominates(BasicBlock a, BasicBlock b) {
+		Integer na = numbers.get(a);
+		Integer nb = numbers.get(b);
+		return na != null && nb != null && tree.dominates(na, nb);
+	}
+
+	public Set<BasicBlock> getDominanceFrontier(BasicBlock b) {
+		Integer n = numbers.get(b);
+		if (n == null) {
+			return Collections.emptySet();
+		}
+		return new LinkedHashSet<>(toBlocks(tree.getFrontier(n)));
+	}
+
+	private List<BasicBlock> toBlocks(int[] numbers) {
+		List<BasicBlock> result = new ArrayList<>(numbers.length);
+		for (int n : numbers) {
+			result.add(blocks.get(n));
+		}
+		return result;
+	}
+}
@@ -116,6 +116,11 @@ public class ExpectedType {
 					return Ast.TypeInt();
 				}
 
+				@Override
+				public Type case_AllocZeroed(AllocZeroed alloc) {
+					return Ast.TypeInt();
+				}
+
 				@Override
 				public Type case_GetElementPtr(GetElementPtr gep) {
 					// unknown
@@ -137,6 +142,20 @@ public class ExpectedType {
 					// unknown
 					return Ast.TypePointer(Ast.TypeByte());
 				}
+
+				@Override
+				public Type case_Select(Select select) {
+					if (operand == select.getCondition()) {
+						return Ast.TypeBool();
+					}
+					// same type as the other value
+					Type t = operand == select.getIfTrue() ? select.getIfFalse().calculateType()
+							: select.getIfTrue().calculateType();
+					if (t instanceof TypeNullpointer) {
+						return Ast.TypePointer(Ast.TypeByte());
+					}
+					return t;
+				}
 			});
 		}
 		throw new RuntimeException("Unhandled case: " + parent.getClass().getSimpleName());
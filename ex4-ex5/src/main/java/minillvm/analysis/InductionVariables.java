@@ -0,0 +1,383 @@
+package minillvm.analysis;
+
+import minillvm.analysis.Loops.Loop;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Induction variables of a loop with a preheader.
+ *
+ * A basic induction variable is a phi node in the header, which starts with a value
+ * from the preheader and is incremented by the same constant on every back edge.
+ * Derived induction variables are linear functions scale * i + offset of the value
+ * of a basic induction variable i in the current iteration, computed by additions,
+ * subtractions, multiplications and shifts with constants and invariant operands.
+ * All computations wrap around like the 32 bit operations they describe.
+ *
+ * The exit condition is recognized, if a single branch on a comparison of an induction
+ * variable (plus a constant) with an invariant bound decides whether the loop is left
+ * (exits to blocks halting with an error are not counted, as they end the program).
+ * The number of back edges taken is known, if the start and the bound are constants.
+ */
+public class InductionVariables {
+
+	public static final class InductionVariable {
+		private final PhiNode phi;
+		private final Operand start;
+		private final int step;
+
+		InductionVariable(PhiNode phi, Operand start, int step) {
+			this.phi = phi;
+			this.start = start;
+			this.step = step;
+		}
+
+		public PhiNode getPhi() {
+			return phi;
+		}
+
+		/** the value from the preheader */
+		public Operand getStart() {
+			return start;
+		}
+
+		/** the constant added on every back edge */
+		public int getStep() {
+			return step;
+		}
+	}
+
+	/** scale * iv + offset + invariantOffset, where the invariant offset may be null */
+	public static final class LinearFunction {
+		private final InductionVariable iv;
+		private final int scale;
+		private final int offset;
+		private final Operand invariantOffset;
+
+		LinearFunction(InductionVariable iv, int scale, int offset, Operand invariantOffset) {
+			this.iv = iv;
+			this.scale = scale;
+			this.offset = offset;
+			this.invariantOffset = invariantOffset;
+		}
+
+		public InductionVariable getInductionVariable() {
+			return iv;
+		}
+
+		public int getScale() {
+			return scale;
+		}
+
+		public int getOffset() {
+			return offset;
+		}
+
+		public Operand getInvariantOffset() {
+			return invariantOffset;
+		}
+
+		/** checks whether this is just the basic induction variable */
+		public boolean isIdentity() {
+			return scale == 1 && offset == 0 && invariantOffset == null;
+		}
+	}
+
+	private final Loop loop;
+	private final Set<Variable> definedInLoop = new HashSet<>();
+	private final Map<Variable, InductionVariable> basic = new LinkedHashMap<>();
+	private final Map<Variable, LinearFunction> linear = new HashMap<>();
+	private BasicBlock exitingBlock;
+	private BinaryOperation exitComparison;
+	private LinearFunction exitFunction;
+	private Operand exitBound;
+	private Long backedgeTakenCount;
+
+	public InductionVariables(Loop loop, Dominators dominators) {
+		this.loop = loop;
+		for (BasicBlock block : loop.getBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Assign) {
+					definedInLoop.add(((Assign) instr).getVar());
+				}
+			}
+		}
+		if (loop.getPreheader() != null) {
+			for (PhiNode phi : loop.getHeader().getPhiNodes()) {
+				InductionVariable iv = basicInductionVariable(phi);
+				if (iv != null) {
+					basic.put(phi.getVar(), iv);
+				}
+			}
+			computeExitCondition(dominators);
+		}
+	}
+
+	private InductionVariable basicInductionVariable(PhiNode phi) {
+		if (!(phi.getType() instanceof TypeInt)) {
+			return null;
+		}
+		Operand start = null;
+		Integer step = null;
+		for (PhiNodeChoice choice : phi.getChoices()) {
+			if (choice.getLabel() == loop.getPreheader()) {
+				start = choice.getValue();
+				continue;
+			}
+			Integer s = increment(choice.getValue(), phi.getVar());
+			if (s == null || step != null && !step.equals(s)) {
+				return null;
+			}
+			step = s;
+		}
+		if (start == null || step == null || !isInvariant(start)) {
+			return null;
+		}
+		return new InductionVariable(phi, start, step);
+	}
+
+	/** the constant c, if the operand is v + c or v - c, otherwise null */
+	private static Integer increment(Operand op, Variable v) {
+		Assign def = AliasAnalysis.definition(op);
+		if (!(def instanceof BinaryOperation)) {
+			return null;
+		}
+		BinaryOperation bin = (BinaryOperation) def;
+		if (bin.getOperator() instanceof Add) {
+			if (isVariable(bin.getLeft(), v) && bin.getRight() instanceof ConstInt) {
+				return ((ConstInt) bin.getRight()).getIntVal();
+			} else if (isVariable(bin.getRight(), v) && bin.getLeft() instanceof ConstInt) {
+				return ((ConstInt) bin.getLeft()).getIntVal();
+			}
+		} else if (bin.getOperator() instanceof Sub && isVariable(bin.getLeft(), v) && bin.getRight() instanceof ConstInt) {
+			return -((ConstInt) bin.getRight()).getIntVal();
+		}
+		return null;
+	}
+
+	private static boolean isVariable(Operand op, Variable v) {
+		return op instanceof VarRef && ((VarRef) op).getVariable() == v;
+	}
+
+	/** checks whether the operand has the same value in every iteration of the loop */
+	public boolean isInvariant(Operand op) {
+		return op instanceof Const || op instanceof VarRef && !definedInLoop.contains(((VarRef) op).getVariable());
+	}
+
+	public Collection<InductionVariable> getBasicInductionVariables() {
+		return Collections.unmodifiableCollection(basic.values());
+	}
+
+	/** the operand as a linear function of a basic induction variable or null, if it is not one */
+	public LinearFunction getLinearFunction(Operand op) {
+		if (!(op instanceof VarRef)) {
+			return null;
+		}
+		Variable v = ((VarRef) op).getVariable();
+		if (linear.containsKey(v)) {
+			return linear.get(v);
+		}
+		// no cycles without a phi node, so the recursion terminates
+		linear.put(v, null);
+		LinearFunction result = computeLinearFunction(v);
+		linear.put(v, result);
+		return result;
+	}
+
+	private LinearFunction computeLinearFunction(Variable v) {
+		InductionVariable iv = basic.get(v);
+		if (iv != null) {
+			return new LinearFunction(iv, 1, 0, null);
+		}
+		Element def = v.getParent();
+		if (!(def instanceof BinaryOperation) || !definedInLoop.contains(v)) {
+			return null;
+		}
+		BinaryOperation op = (BinaryOperation) def;
+		Operator operator = op.getOperator();
+		LinearFunction left = getLinearFunction(op.getLeft());
+		LinearFunction right = getLinearFunction(op.getRight());
+		if (operator instanceof Add) {
+			if (left == null && right != null) {
+				return add(right, op.getLeft());
+			}
+			return left != null && right == null ? add(left, op.getRight()) : null;
+		} else if (operator instanceof Sub) {
+			if (left != null && op.getRight() instanceof ConstInt) {
+				int c = ((ConstInt) op.getRight()).getIntVal();
+				return new LinearFunction(left.iv, left.scale, left.offset - c, left.invariantOffset);
+			} else if (right != null && right.invariantOffset == null && op.getLeft() instanceof ConstInt) {
+				int c = ((ConstInt) op.getLeft()).getIntVal();
+				return new LinearFunction(right.iv, -right.scale, c - right.offset, null);
+			}
+		} else if (operator instanceof Mul) {
+			if (left != null && op.getRight() instanceof ConstInt) {
+				return multiply(left, ((ConstInt) op.getRight()).getIntVal());
+			} else if (right != null && op.getLeft() instanceof ConstInt) {
+				return multiply(right, ((ConstInt) op.getLeft()).getIntVal());
+			}
+		} else if (operator instanceof Shl && left != null && op.getRight() instanceof ConstInt) {
+			int shift = ((ConstInt) op.getRight()).getIntVal();
+			if (shift >= 0 && shift < 32) {
+				return multiply(left, 1 << shift);
+			}
+		}
+		return null;
+	}
+
+	private LinearFunction add(LinearFunction f, Operand op) {
+		if (op instanceof ConstInt) {
+			return new LinearFunction(f.iv, f.scale, f.offset + ((ConstInt) op).getIntVal(), f.invariantOffset);
+		} else if (f.invariantOffset == null && isInvariant(op)) {
+			return new LinearFunction(f.iv, f.scale, f.offset, op);
+		}
+		return null;
+	}
+
+	private static LinearFunction multiply(LinearFunction f, int c) {
+		if (f.invariantOffset != null) {
+			return null;
+		}
+		return new LinearFunction(f.iv, f.scale * c, f.offset * c, null);
+	}
+
+	private void computeExitCondition(Dominators dominators) {
+		List<BasicBlock> exiting = new ArrayList<>();
+		for (BasicBlock b : loop.getExitingBlocks()) {
+			for (BasicBlock succ : b.getSuccessors()) {
+				if (!loop.contains(succ) && !halts(succ)) {
+					exiting.add(b);
+					break;
+				}
+			}
+		}
+		if (exiting.size() != 1) {
+			return;
+		}
+		BasicBlock block = exiting.get(0);
+		for (BasicBlock latch : loop.getLatches()) {
+			if (!dominators.dominates(block, latch)) {
+				return;
+			}
+		}
+		if (block != loop.getHeader() && loop.getLatches().size() != 1) {
+			return;
+		}
+		Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+		if (!t.isPresent() || !(t.get() instanceof Branch)) {
+			return;
+		}
+		Branch branch = (Branch) t.get();
+		Assign cond = AliasAnalysis.definition(branch.getCondition());
+		if (!(cond instanceof BinaryOperation)) {
+			return;
+		}
+		BinaryOperation cmp = (BinaryOperation) cond;
+		boolean stays = loop.contains(branch.getIfTrueLabel());
+		if (stays == loop.contains(branch.getIfFalseLabel())) {
+			return;
+		}
+		recognizeExitCondition(cmp, stays, block);
+	}
+
+	private static boolean halts(BasicBlock block) {
+		Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+		return t.isPresent() && t.get() instanceof HaltWithError;
+	}
+
+	/**
+	 * recognizes a comparison of an induction variable plus a constant with an invariant bound,
+	 * such that the loop stays while the variable has not passed the bound
+	 */
+	private void recognizeExitCondition(BinaryOperation cmp, boolean stays, BasicBlock block) {
+		boolean lessOrEqual;
+		if (cmp.getOperator() instanceof Slt) {
+			lessOrEqual = false;
+		} else if (cmp.getOperator() instanceof Sle) {
+			lessOrEqual = true;
+		} else {
+			return;
+		}
+		Operand left = cmp.getLeft();
+		Operand right = cmp.getRight();
+		if (!stays) {
+			// !(a < b) is b <= a and !(a <= b) is b < a
+			Operand t = left;
+			left = right;
+			right = t;
+			lessOrEqual = !lessOrEqual;
+		}
+		LinearFunction f = getLinearFunction(left);
+		boolean ivOnLeft = f != null;
+		if (!ivOnLeft) {
+			f = getLinearFunction(right);
+		}
+		Operand bound = ivOnLeft ? right : left;
+		// stays while v < n (v <= n), or while n < v (n <= v) when the induction variable is on the right
+		if (f == null || f.scale != 1 || f.invariantOffset != null || !isInvariant(bound)
+				|| (ivOnLeft ? f.iv.step <= 0 : f.iv.step >= 0)) {
+			return;
+		}
+		exitingBlock = block;
+		exitComparison = cmp;
+		exitFunction = f;
+		exitBound = bound;
+		if (f.iv.start instanceof ConstInt && bound instanceof ConstInt) {
+			backedgeTakenCount = count(((ConstInt) f.iv.start).getIntVal() + (long) f.offset,
+					((ConstInt) bound).getIntVal(), f.iv.step, ivOnLeft, lessOrEqual);
+		}
+	}
+
+	/**
+	 * the number of times the comparison of the values first, first + step, ... with n
+	 * has the value which stays in the loop, before it has the other one for the first time
+	 */
+	private static Long count(long first, long n, long step, boolean ivOnLeft, boolean lessOrEqual) {
+		if (first < Integer.MIN_VALUE || first > Integer.MAX_VALUE) {
+			return null;
+		}
+		long distance;
+		long size = Math.abs(step);
+		if (ivOnLeft) {
+			distance = (lessOrEqual ? n + 1 : n) - first;
+		} else {
+			distance = first - (lessOrEqual ? n - 1 : n);
+		}
+		long count = distance <= 0 ? 0 : (distance + size - 1) / size;
+		// the value leaving the loop must not have wrapped around
+		long last = first + count * step;
+		if (last < Integer.MIN_VALUE || last > Integer.MAX_VALUE) {
+			return null;
+		}
+		return count;
+	}
+
+	/**
+	 * the number of times the back edge is taken, when the loop is entered,
+	 * or null if it is not known
+	 */
+	public Long getBackedgeTakenCount() {
+		return backedgeTakenCount;
+	}
+
+	/** the block with the branch deciding whether the loop is left, null if it is not recognized */
+	public BasicBlock getExitingBlock() {
+		return exitingBlock;
+	}
+
+	/** the comparison the branch of the exiting block depends on */
+	public BinaryOperation getExitComparison() {
+		return exitComparison;
+	}
+
+	/** the compared value, an induction variable plus a constant */
+	public LinearFunction getExitFunction() {
+		return exitFunction;
+	}
+
+	/** the invariant operand the value is compared with */
+	public Operand getExitBound() {
+		return exitBound;
+	}
+}
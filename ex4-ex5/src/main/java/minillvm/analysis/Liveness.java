@@ -0,0 +1,130 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Live variables: a variable is live at a point, if its value may be used later.
+ *
+ * The facts are the parameters and the variables defined by instructions of the procedure.
+ * A phi node uses its value at the end of the predecessor it comes from,
+ * so it is live there but not at the start of the block of the phi node.
+ */
+public class Liveness extends Dataflow {
+
+	private final List<Variable> variables = new ArrayList<>();
+	private final Map<Variable, Integer> numbers = new IdentityHashMap<>();
+	/** for every block the variables used by the phi nodes of its successors, by predecessor */
+	private final Map<BasicBlock, Map<BasicBlock, BitVector>> phiUses = new IdentityHashMap<>();
+
+	public Liveness(Proc proc) {
+		this(proc, new Dominators(proc));
+	}
+
+	public Liveness(Proc proc, Dominators dominators) {
+		super(dominators, Direction.BACKWARD, Meet.UNION);
+		for (Parameter param : proc.getParameters()) {
+			number(param);
+		}
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Assign) {
+					number(((Assign) instr).getVar());
+				}
+			}
+		}
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (PhiNode phi : block.getPhiNodes()) {
+				for (PhiNodeChoice choice : phi.getChoices()) {
+					Integer n = numberOf(choice.getValue());
+					if (n != null) {
+						phiUses.computeIfAbsent(block, b -> new IdentityHashMap<>())
+								.computeIfAbsent(choice.getLabel(), b -> new BitVector(variables.size()))
+								.set(n);
+					}
+				}
+			}
+		}
+		solve();
+	}
+
+	private void number(Variable v) {
+		if (!numbers.containsKey(v)) {
+			numbers.put(v, variables.size());
+			variables.add(v);
+		}
+	}
+
+	private Integer numberOf(Operand operand) {
+		return operand instanceof VarRef ? numbers.get(((VarRef) operand).getVariable()) : null;
+	}
+
+	@Override
+	protected int size() {
+		return variables.size();
+	}
+
+	@Override
+	protected void initialize(BasicBlock block, BitVector gen, BitVector kill) {
+		for (int i = block.size() - 1; i >= 0; i--) {
+			Instruction instr = block.get(i);
+			if (instr instanceof Assign) {
+				int def = numbers.get(((Assign) instr).getVar());
+				gen.clear(def);
+				kill.set(def);
+			}
+			if (!(instr instanceof PhiNode)) {
+				instr.accept(new Element.DefaultVisitor() {
+					@Override
+					public void visit(VarRef varRef) {
+						Integer n = numbers.get(varRef.getVariable());
+						if (n != null) {
+							gen.set(n);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	@Override
+	protected void transferEdge(BasicBlock from, BasicBlock to, BitVector value) {
+		BitVector uses = phiUses.getOrDefault(to, Collections.emptyMap()).get(from);
+		if (uses != null) {
+			value.or(uses);
+		}
+	}
+
+	/** the variables live at the start of the block */
+	public Set<Variable> getLiveIn(BasicBlock block) {
+		return toVariables(getIn(block));
+	}
+
+	/** the variables live at the end of the block, including the values used by phi nodes of successors */
+	public Set<Variable> getLiveOut(BasicBlock block) {
+		return toVariables(getOut(block));
+	}
+
+	public boolean isLiveIn(BasicBlock block, Variable v) {
+		Integer n = numbers.get(v);
+		BitVector in = getIn(block);
+		return n != null && in != null && in.get(n);
+	}
+
+	public boolean isLiveOut(BasicBlock block, Variable v) {
+		Integer n = numbers.get(v);
+		BitVector out = getOut(block);
+		return n != null && out != null && out.get(n);
+	}
+
+	private Set<Variable> toVariables(BitVector bits) {
+		Set<Variable> result = new LinkedHashSet<>();
+		if (bits != null) {
+			for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+				result.add(variables.get(i));
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,218 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Natural loops of a procedure.
+ *
+ * A back edge is an edge to a block dominating its source.
+ * All back edges to the same header form one loop.
+ * Natural loops are either disjoint or nested, so the nesting follows from
+ * processing the headers in reverse postorder.
+ */
+public class Loops {
+
+	public static class Loop {
+		private final BasicBlock header;
+		private final Set<BasicBlock> blocks = new LinkedHashSet<>();
+		private final List<BasicBlock> latches = new ArrayList<>();
+		private final List<Loop> children = new ArrayList<>();
+		private Loop parent;
+		private BasicBlock preheader;
+
+		Loop(BasicBlock header) {
+			this.header = header;
+		}
+
+		public BasicBlock getHeader() {
+			return header;
+		}
+
+		/** the blocks of the loop in reverse postorder, starting with the header */
+		public Set<BasicBlock> getBlocks() {
+			return Collections.unmodifiableSet(blocks);
+		}
+
+		public boolean contains(BasicBlock block) {
+			return blocks.contains(block);
+		}
+
+		/** the blocks jumping back to the header */
+		public List<BasicBlock> getLatches() {
+			return Collections.unmodifiableList(latches);
+		}
+
+		/** the innermost loop containing this loop or null */
+		public Loop getParent() {
+			return parent;
+		}
+
+		public List<Loop> getChildren() {
+			return Collections.unmodifiableList(children);
+		}
+
+		/** 1 for outermost loops */
+		public int getDepth() {
+			int depth = 1;
+			for (Loop l = parent; l != null; l = l.parent) {
+				depth++;
+			}
+			return depth;
+		}
+
+		/**
+		 * the only block outside of the loop jumping to the header,
+		 * if it has no other successors, null otherwise
+		 */
+		public BasicBlock getPreheader() {
+			return preheader;
+		}
+
+		/** blocks inside of the loop with a successor outside */
+		public List<BasicBlock> getExitingBlocks() {
+			List<BasicBlock> result = new ArrayList<>();
+			for (BasicBlock b : blocks) {
+				for (BasicBlock succ : b.getSuccessors()) {
+					if (!blocks.contains(succ)) {
+						result.add(b);
+						break;
+					}
+				}
+			}
+			return result;
+		}
+
+		/** blocks outside of the loop with a predecessor inside */
+		public Set<BasicBlock> getExitBlocks() {
+			Set<BasicBlock> result = new LinkedHashSet<>();
+			for (BasicBlock b : blocks) {
+				for (BasicBlock succ : b.getSuccessors()) {
+					if (!blocks.contains(succ)) {
+						result.add(succ);
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	private final Dominators dominators;
+	private final List<Loop> loops = new ArrayList<>();
+	private final Map<BasicBlock, Loop> innermost = new HashMap<>();
+
+	public Loops(Proc proc) {
+		this(new Dominators(proc));
+	}
+
+	public Loops(Dominators dominators) {
+		this.dominators = dominators;
+		// headers in reverse postorder, so outer loops come before the loops nested in them
+		Map<BasicBlock, Loop> byHeader = new LinkedHashMap<>();
+		for (BasicBlock b : dominators.getReversePostorder()) {
+			for (BasicBlock pred : dominators.getPredecessors(b)) {
+				if (dominators.dominates(b, pred)) {
+					Loop loop = byHeader.computeIfAbsent(b, Loop::new);
+					if (!loop.latches.contains(pred)) {
+						loop.latches.add(pred);
+					}
+				}
+			}
+		}
+
+		int n = dominators.size();
+		int[] rpo = new int[n];
+		for (int i = 0; i < n; i++) {
+			BasicBlock b = dominators.getBlock(i);
+			rpo[i] = dominators.isReachable(b) ? dominators.getRpoNumber(b) : -1;
+		}
+		// the innermost loop found so far for every block
+		Loop[] innermostLoop = new Loop[n];
+		int[] body = new int[n];
+		Arrays.fill(body, -1);
+		for (Loop loop : byHeader.values()) {
+			int header = dominators.getNumber(loop.header);
+			// an enclosing loop has a header earlier in the reverse postorder
+			loop.parent = innermostLoop[header];
+			if (loop.parent != null) {
+				loop.parent.children.add(loop);
+			}
+
+			// body[i] == id marks the blocks of this loop, so the array is shared by all loops
+			int id = loops.size();
+			List<BasicBlock> members = new ArrayList<>();
+			members.add(loop.header);
+			body[header] = id;
+			Deque<Integer> worklist = new ArrayDeque<>();
+			for (BasicBlock latch : loop.latches) {
+				int l = dominators.getNumber(latch);
+				if (body[l] != id) {
+					body[l] = id;
+					members.add(latch);
+					worklist.add(l);
+				}
+			}
+			while (!worklist.isEmpty()) {
+				BasicBlock b = dominators.getBlock(worklist.poll());
+				for (BasicBlock pred : dominators.getPredecessors(b)) {
+					int p = dominators.getNumber(pred);
+					if (rpo[p] >= 0 && body[p] != id) {
+						body[p] = id;
+						members.add(pred);
+						worklist.add(p);
+					}
+				}
+			}
+			members.sort(Comparator.comparingInt(b -> rpo[dominators.getNumber(b)]));
+			loop.blocks.addAll(members);
+			for (BasicBlock b : members) {
+				innermostLoop[dominators.getNumber(b)] = loop;
+			}
+
+			List<BasicBlock> outside = new ArrayList<>();
+			for (BasicBlock pred : dominators.getPredecessors(loop.header)) {
+				if (body[dominators.getNumber(pred)] != id) {
+					outside.add(pred);
+				}
+			}
+			if (outside.size() == 1 && outside.get(0).getSuccessors().size() == 1) {
+				loop.preheader = outside.get(0);
+			}
+			loops.add(loop);
+		}
+		for (int i = 0; i < n; i++) {
+			if (innermostLoop[i] != null) {
+				innermost.put(dominators.getBlock(i), innermostLoop[i]);
+			}
+		}
+	}
+
+	/** the dominators the loops were computed from */
+	public Dominators getDominators() {
+		return dominators;
+	}
+
+	/** all loops, outer loops before the loops nested in them */
+	public List<Loop> getLoops() {
+		return Collections.unmodifiableList(loops);
+	}
+
+	/** the innermost loop containing the block or null */
+	public Loop getLoopFor(BasicBlock block) {
+		return innermost.get(block);
+	}
+
+	/** the number of loops containing the block, 0 outside of loops */
+	public int getLoopDepth(BasicBlock block) {
+		Loop loop = innermost.get(block);
+		return loop == null ? 0 : loop.getDepth();
+	}
+
+	/** all loops, loops nested in other loops first */
+	public List<Loop> getLoopsInnermostFirst() {
+		List<Loop> result = new ArrayList<>(loops);
+		Collections.reverse(result);
+		return result;
+	}
+}
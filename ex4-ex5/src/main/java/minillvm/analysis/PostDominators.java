@@ -0,0 +1,110 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Post-dominator tree of a procedure: the dominator tree of the reversed control flow graph.
+ *
+ * All blocks without successors (returns and errors) are connected to a virtual exit,
+ * which is the root of the tree. Blocks from which no exit can be reached
+ * (infinite loops) are not part of the tree.
+ * The post-dominance frontier of a block are the blocks it is control dependent on.
+ */
+public class PostDominators {
+
+	private final List<BasicBlock> blocks;
+	private final Map<BasicBlock, Integer> numbers = new IdentityHashMap<>();
+	/** the virtual exit has the number after the last block */
+	private final int exit;
+	private final DominatorTree tree;
+
+	public PostDominators(Proc proc) {
+		this(proc.getBasicBlocks());
+	}
+
+	public PostDominators(List<BasicBlock> blocks) {
+		this.blocks = new ArrayList<>(blocks);
+		exit = blocks.size();
+		for (int i = 0; i < blocks.size(); i++) {
+			numbers.put(blocks.get(i), i);
+		}
+		// the successors in the reversed graph are the predecessors
+		List<List<Integer>> reversed = new ArrayList<>();
+		for (int i = 0; i <= blocks.size(); i++) {
+			reversed.add(new ArrayList<>());
+		}
+		for (int i = 0; i < blocks.size(); i++) {
+			List<BasicBlock> succs = blocks.get(i).getSuccessors();
+			if (succs.isEmpty()) {
+				reversed.get(exit).add(i);
+			}
+			for (BasicBlock succ : succs) {
+				Integer n = numbers.get(succ);
+				if (n != null) {
+					reversed.get(n).add(i);
+				}
+			}
+		}
+		int[][] successors = new int[reversed.size()][];
+		for (int i = 0; i < reversed.size(); i++) {
+			List<Integer> r = reversed.get(i);
+			successors[i] = new int[r.size()];
+			for (int j = 0; j < r.size(); j++) {
+				successors[i][j] = r.get(j);
+			}
+		}
+		tree = new DominatorTree(successors, exit);
+	}
+
+	/** checks whether the virtual exit can be reached from the block */
+	public boolean reachesExit(BasicBlock b) {
+		Integer n = numbers.get(b);
+		return n != null && tree.isReachable(n);
+	}
+
+	/**
+	 * the immediate post-dominator of a block, or null if it is the virtual exit
+	 * or the block cannot reach the exit
+	 */
+	public BasicBlock getIpdom(BasicBlock b) {
+		Integer n = numbers.get(b);
+		if (n == null || tree.getIdom(n) < 0 || tree.getIdom(n) == exit) {
+			return null;
+		}
+		return blocks.get(tree.getIdom(n));
+	}
+
+	/** the blocks immediately post-dominated by the given block */
+	public List<BasicBlock> getChildren(BasicBlock b) {
+		Integer n = numbers.get(b);
+		return n == null ? Collections.emptyList() : toBlocks(tree.getChildren(n));
+	}
+
+	/** checks whether every path from b to the exit goes through a (every block post-dominates itself) */
+	public boolean postDominates(BasicBlock a, BasicBlock b) {
+		Integer na = numbers.get(a);
+		Integer nb = numbers.get(b);
+		return na != null && nb != null && tree.dominates(na, nb);
+	}
+
+	/** the blocks with a branch deciding whether the given block is executed */
+	public Set<BasicBlock> getPostDominanceFrontier(BasicBlock b) {
+		Integer n = numbers.get(b);
+		if (n == null) {
+			return Collections.emptySet();
+		}
+		return new LinkedHashSet<>(toBlocks(tree.getFrontier(n)));
+	}
+
+	private List<BasicBlock> toBlocks(int[] numbers) {
+		List<BasicBlock> result = new ArrayList<>(numbers.length);
+		for (int n : numbers) {
+			if (n != exit) {
+				result.add(blocks.get(n));
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,105 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Reaching definitions of local variables: the stores to allocas which may have written
+ * the value read by a load.
+ *
+ * Temporary variables are only assigned once, so only the stores to stack variables
+ * (before the SSA transformation) are definitions. A store kills all other stores to the same alloca.
+ */
+public class ReachingDefinitions extends Dataflow {
+
+	private final List<Store> stores = new ArrayList<>();
+	private final Map<Store, Integer> numbers = new IdentityHashMap<>();
+	/** for every alloca the stores writing to it */
+	private final Map<Variable, BitVector> storesTo = new IdentityHashMap<>();
+
+	public ReachingDefinitions(Proc proc) {
+		this(proc, new Dominators(proc));
+	}
+
+	public ReachingDefinitions(Proc proc, Dominators dominators) {
+		super(dominators, Direction.FORWARD, Meet.UNION);
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Store && allocaOf(((Store) instr).getAddress()) != null) {
+					numbers.put((Store) instr, stores.size());
+					stores.add((Store) instr);
+				}
+			}
+		}
+		for (Store store : stores) {
+			storesTo.computeIfAbsent(allocaOf(store.getAddress()), v -> new BitVector(stores.size()))
+					.set(numbers.get(store));
+		}
+		solve();
+	}
+
+	/** the variable of the alloca the address refers to directly, or null */
+	private static Variable allocaOf(Operand address) {
+		if (address instanceof VarRef && ((VarRef) address).getVariable().getParent() instanceof Alloca) {
+			return ((VarRef) address).getVariable();
+		}
+		return null;
+	}
+
+	@Override
+	protected int size() {
+		return stores.size();
+	}
+
+	@Override
+	protected void initialize(BasicBlock block, BitVector gen, BitVector kill) {
+		for (Instruction instr : block) {
+			Integer n = numbers.get(instr);
+			if (n != null) {
+				BitVector others = storesTo.get(allocaOf(((Store) instr).getAddress()));
+				gen.andNot(others);
+				kill.or(others);
+				gen.set(n);
+			}
+		}
+	}
+
+	/** the stores to stack variables reaching the start of the block */
+	public List<Store> getReachingStores(BasicBlock block) {
+		List<Store> result = new ArrayList<>();
+		BitVector in = getIn(block);
+		if (in != null) {
+			for (int i = in.nextSetBit(0); i >= 0; i = in.nextSetBit(i + 1)) {
+				result.add(stores.get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * the stores which may have written the value read by a load from a stack variable
+	 * (empty, if no store reaches the load)
+	 */
+	public List<Store> getReachingStores(Load load) {
+		Variable alloca = allocaOf(load.getAddress());
+		BasicBlock block = (BasicBlock) load.getParent();
+		if (alloca == null || !storesTo.containsKey(alloca)) {
+			return Collections.emptyList();
+		}
+		// the last store in the block before the load
+		for (int i = block.indexOf(load) - 1; i >= 0; i--) {
+			Instruction instr = block.get(i);
+			if (instr instanceof Store && allocaOf(((Store) instr).getAddress()) == alloca) {
+				return Collections.singletonList((Store) instr);
+			}
+		}
+		List<Store> result = new ArrayList<>();
+		for (Store store : getReachingStores(block)) {
+			if (allocaOf(store.getAddress()) == alloca) {
+				result.add(store);
+			}
+		}
+		return result;
+	}
+}
@@ -60,6 +60,11 @@ public class Typechecker {
 					return Ast.TypePointer(Ast.TypeByte());
 				}
 
+				@Override
+				public Type case_AllocZeroed(AllocZeroed alloc) {
+					return Ast.TypePointer(Ast.TypeByte());
+				}
+
 				@Override
 				public Type case_Call(Call call) {
 					Type funcType = call.getFunction().calculateType();
@@ -125,6 +130,15 @@ public class Typechecker {
 				public Type case_PhiNode(PhiNode phiNode) {
 					return phiNode.getType();
 				}
+
+				@Override
+				public Type case_Select(Select select) {
+					Type t = select.getIfTrue().calculateType();
+					if (t instanceof TypeNullpointer) {
+						return select.getIfFalse().calculateType();
+					}
+					return t;
+				}
 			});
 		}
 		throw new RuntimeException("unhandled case: " + parent.getClass().getSimpleName());
@@ -144,7 +158,10 @@ public class Typechecker {
 
 	public static boolean isComparison(Operator operator) {
 		return operator instanceof Eq
-				|| operator instanceof Slt;
+				|| operator instanceof Slt
+				|| operator instanceof Sle
+				|| operator instanceof Ult
+				|| operator instanceof Ule;
 	}
 
 	public static boolean equalsType(TypeByte t, Type other) {
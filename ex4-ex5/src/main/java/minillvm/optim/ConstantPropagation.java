@@ -0,0 +1,490 @@
+package minillvm.optim;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck).
+ *
+ * Integer and boolean constants are propagated through binary operations, selects and
+ * phi nodes, taking only the executable edges of the control flow graph into account.
+ * Afterwards constant variables are replaced, branches with a constant
+ * condition become jumps and blocks which are no longer reachable are removed.
+ */
+public class ConstantPropagation {
+
+	/** lattice value: unknown (no constant yet), a constant, or overdefined */
+	private static final class LatticeValue {
+		static final LatticeValue UNKNOWN = new LatticeValue(null);
+		static final LatticeValue OVERDEFINED = new LatticeValue(null);
+
+		final Const constant;
+
+		private LatticeValue(Const constant) {
+			this.constant = constant;
+		}
+
+		boolean isConstant() {
+			return constant != null;
+		}
+	}
+
+	private Map<Variable, LatticeValue> values;
+	private Map<Variable, List<Instruction>> uses;
+	private Map<Instruction, BasicBlock> blockOf;
+	private Set<BasicBlock> executableBlocks;
+	private Map<BasicBlock, List<BasicBlock>> executableEdges;
+	private Deque<BasicBlock[]> edgeWorklist;
+	private Deque<Instruction> instructionWorklist;
+
+	public void optimizeProgram(Prog prog) {
+		for (Proc proc : prog.getProcedures()) {
+			optimizeProc(proc);
+		}
+	}
+
+	/**
+	 * @return true, if the procedure was changed
+	 */
+	public boolean optimizeProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		analyze(proc);
+		return rewrite(proc);
+	}
+
+	private void analyze(Proc proc) {
+		values = new HashMap<>();
+		uses = new HashMap<>();
+		blockOf = new HashMap<>();
+		executableBlocks = new HashSet<>();
+		executableEdges = new HashMap<>();
+		edgeWorklist = new ArrayDeque<>();
+		instructionWorklist = new ArrayDeque<>();
+
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				blockOf.put(instr, block);
+				instr.accept(new Element.DefaultVisitor() {
+					@Override
+					public void visit(VarRef varRef) {
+						uses.computeIfAbsent(varRef.getVariable(), v -> new ArrayList<>()).add(instr);
+					}
+				});
+			}
+		}
+
+		edgeWorklist.add(new BasicBlock[]{null, proc.getBasicBlocks().get(0)});
+		while (!edgeWorklist.isEmpty() || !instructionWorklist.isEmpty()) {
+			while (!edgeWorklist.isEmpty()) {
+				BasicBlock[] edge = edgeWorklist.poll();
+				visitEdge(edge[0], edge[1]);
+			}
+			while (!instructionWorklist.isEmpty()) {
+				Instruction instr = instructionWorklist.poll();
+				if (executableBlocks.contains(blockOf.get(instr))) {
+					visitInstruction(instr);
+				}
+			}
+		}
+	}
+
+	private void visitEdge(BasicBlock from, BasicBlock to) {
+		if (from != null) {
+			executableEdges.computeIfAbsent(from, b -> new ArrayList<>()).add(to);
+		}
+		if (executableBlocks.add(to)) {
+			for (Instruction instr : to) {
+				visitInstruction(instr);
+			}
+		} else {
+			// only the phi nodes can change by a new incoming edge
+			for (PhiNode phi : to.getPhiNodes()) {
+				visitInstruction(phi);
+			}
+		}
+	}
+
+	private boolean isExecutable(BasicBlock from, BasicBlock to) {
+		return executableEdges.getOrDefault(from, Collections.emptyList()).contains(to);
+	}
+
+	private void markEdge(BasicBlock from, BasicBlock to) {
+		if (!isExecutable(from, to)) {
+			edgeWorklist.add(new BasicBlock[]{from, to});
+		}
+	}
+
+	private void visitInstruction(Instruction instr) {
+		if (instr instanceof Assign) {
+			Assign assign = (Assign) instr;
+			update(assign.getVar(), evaluate(assign));
+		} else if (instr instanceof Jump) {
+			markEdge(blockOf.get(instr), ((Jump) instr).getLabel());
+		} else if (instr instanceof Branch) {
+			Branch branch = (Branch) instr;
+			BasicBlock block = blockOf.get(instr);
+			LatticeValue condition = valueOf(branch.getCondition());
+			if (condition == LatticeValue.OVERDEFINED) {
+				markEdge(block, branch.getIfTrueLabel());
+				markEdge(block, branch.getIfFalseLabel());
+			} else if (condition.constant instanceof ConstBool) {
+				boolean c = ((ConstBool) condition.constant).getBoolVal();
+				markEdge(block, c ? branch.getIfTrueLabel() : branch.getIfFalseLabel());
+			}
+		}
+	}
+
+	private void update(Variable var, LatticeValue newValue) {
+		LatticeValue old = values.getOrDefault(var, LatticeValue.UNKNOWN);
+		if (old == LatticeValue.OVERDEFINED || newValue == LatticeValue.UNKNOWN) {
+			return;
+		}
+		if (old.isConstant() && newValue.isConstant() && sameConstant(old.constant, newValue.constant)) {
+			return;
+		}
+		if (old.isConstant() && newValue.isConstant()) {
+			// a variable can only move down in the lattice
+			newValue = LatticeValue.OVERDEFINED;
+		}
+		values.put(var, newValue);
+		instructionWorklist.addAll(uses.getOrDefault(var, Collections.emptyList()));
+	}
+
+	private LatticeValue valueOf(Operand op) {
+		if (op instanceof ConstInt || op instanceof ConstBool) {
+			return new LatticeValue((Const) op);
+		} else if (op instanceof VarRef) {
+			Variable v = ((VarRef) op).getVariable();
+			if (v instanceof Parameter) {
+				return LatticeValue.OVERDEFINED;
+			}
+			return values.getOrDefault(v, LatticeValue.UNKNOWN);
+		}
+		return LatticeValue.OVERDEFINED;
+	}
+
+	private LatticeValue evaluate(Assign assign) {
+		if (assign instanceof PhiNode) {
+			PhiNode phi = (PhiNode) assign;
+			BasicBlock block = blockOf.get(phi);
+			LatticeValue result = LatticeValue.UNKNOWN;
+			for (PhiNodeChoice choice : phi.getChoices()) {
+				if (!isExecutable(choice.getLabel(), block)) {
+					continue;
+				}
+				result = meet(result, valueOf(choice.getValue()));
+			}
+			return result;
+		} else if (assign instanceof BinaryOperation) {
+			BinaryOperation op = (BinaryOperation) assign;
+			LatticeValue left = valueOf(op.getLeft());
+			LatticeValue right = valueOf(op.getRight());
+			if (left.isConstant() && right.isConstant()) {
+				Const folded = fold(op.getOperator(), left.constant, right.constant);
+				return folded == null ? LatticeValue.OVERDEFINED : new LatticeValue(folded);
+			}
+			Const absorbed = absorb(op.getOperator(), left);
+			if (absorbed == null) {
+				absorbed = absorb(op.getOperator(), right);
+			}
+			if (absorbed != null) {
+				return new LatticeValue(absorbed);
+			}
+			if (left == LatticeValue.OVERDEFINED || right == LatticeValue.OVERDEFINED) {
+				return LatticeValue.OVERDEFINED;
+			}
+			return LatticeValue.UNKNOWN;
+		} else if (assign instanceof Select) {
+			Select select = (Select) assign;
+			LatticeValue condition = valueOf(select.getCondition());
+			if (condition.constant instanceof ConstBool) {
+				return valueOf(((ConstBool) condition.constant).getBoolVal() ? select.getIfTrue() : select.getIfFalse());
+			} else if (condition == LatticeValue.OVERDEFINED) {
+				LatticeValue result = meet(valueOf(select.getIfTrue()), valueOf(select.getIfFalse()));
+				return result == LatticeValue.UNKNOWN ? LatticeValue.UNKNOWN : result;
+			}
+			return LatticeValue.UNKNOWN;
+		}
+		return LatticeValue.OVERDEFINED;
+	}
+
+	/** the result of the operation if one operand is the absorbing element (false and x, true or x, 0 * x) */
+	private static Const absorb(Operator operator, LatticeValue operand) {
+		if (operand.constant instanceof ConstBool) {
+			boolean b = ((ConstBool) operand.constant).getBoolVal();
+			if (operator instanceof And && !b) {
+				return Ast.ConstBool(false);
+			} else if (operator instanceof Or && b) {
+				return Ast.ConstBool(true);
+			}
+		} else if (operand.constant instanceof ConstInt) {
+			if (operator instanceof Mul && ((ConstInt) operand.constant).getIntVal() == 0) {
+				return Ast.ConstInt(0);
+			}
+		}
+		return null;
+	}
+
+	private LatticeValue meet(LatticeValue a, LatticeValue b) {
+		if (a == LatticeValue.UNKNOWN) {
+			return b;
+		} else if (b == LatticeValue.UNKNOWN) {
+			return a;
+		} else if (a.isConstant() && b.isConstant() && sameConstant(a.constant, b.constant)) {
+			return a;
+		}
+		return LatticeValue.OVERDEFINED;
+	}
+
+	private static boolean sameConstant(Const a, Const b) {
+		if (a instanceof ConstInt && b instanceof ConstInt) {
+			return ((ConstInt) a).getIntVal() == ((ConstInt) b).getIntVal();
+		} else if (a instanceof ConstBool && b instanceof ConstBool) {
+			return ((ConstBool) a).getBoolVal() == ((ConstBool) b).getBoolVal();
+		}
+		return false;
+	}
+
+	/**
+	 * evaluates the operator on constants
+	 *
+	 * @return the result or null, if the operation cannot be evaluated at compile time
+	 */
+	static Const fold(Operator operator, Const left, Const right) {
+		if (left instanceof ConstBool && right instanceof ConstBool) {
+			boolean l = ((ConstBool) left).getBoolVal();
+			boolean r = ((ConstBool) right).getBoolVal();
+			return operator.match(new Operator.Matcher<Const>() {
+				@Override
+				public Const case_And(And and) {
+					return Ast.ConstBool(l && r);
+				}
+
+				@Override
+				public Const case_Or(Or or) {
+					return Ast.ConstBool(l || r);
+				}
+
+				@Override
+				public Const case_Xor(Xor xor) {
+					return Ast.ConstBool(l ^ r);
+				}
+
+				@Override
+				public Const case_Eq(Eq eq) {
+					return Ast.ConstBool(l == r);
+				}
+
+				@Override
+				public Const case_Add(Add add) {
+					return null;
+				}
+
+				@Override
+				public Const case_Sub(Sub sub) {
+					return null;
+				}
+
+				@Override
+				public Const case_Mul(Mul mul) {
+					return null;
+				}
+
+				@Override
+				public Const case_Sdiv(Sdiv sdiv) {
+					return null;
+				}
+
+				@Override
+				public Const case_Srem(Srem srem) {
+					return null;
+				}
+
+				@Override
+				public Const case_Shl(Shl shl) {
+					return null;
+				}
+
+				@Override
+				public Const case_Slt(Slt slt) {
+					return null;
+				}
+
+				@Override
+				public Const case_Sle(Sle sle) {
+					return null;
+				}
+
+				@Override
+				public Const case_Ult(Ult ult) {
+					return null;
+				}
+
+				@Override
+				public Const case_Ule(Ule ule) {
+					return null;
+				}
+			});
+		} else if (left instanceof ConstInt && right instanceof ConstInt) {
+			int l = ((ConstInt) left).getIntVal();
+			int r = ((ConstInt) right).getIntVal();
+			return operator.match(new Operator.Matcher<Const>() {
+				@Override
+				public Const case_Add(Add add) {
+					return Ast.ConstInt(l + r);
+				}
+
+				@Override
+				public Const case_Sub(Sub sub) {
+					return Ast.ConstInt(l - r);
+				}
+
+				@Override
+				public Const case_Mul(Mul mul) {
+					return Ast.ConstInt(l * r);
+				}
+
+				@Override
+				public Const case_Sdiv(Sdiv sdiv) {
+					if (r == 0 || (l == Integer.MIN_VALUE && r == -1)) {
+						// undefined behavior, keep the operation
+						return null;
+					}
+					return Ast.ConstInt(l / r);
+				}
+
+				@Override
+				public Const case_Srem(Srem srem) {
+					if (r == 0 || (l == Integer.MIN_VALUE && r == -1)) {
+						return null;
+					}
+					return Ast.ConstInt(l % r);
+				}
+
+				@Override
+				public Const case_Shl(Shl shl) {
+					if (r < 0 || r > 31) {
+						// the result is undefined
+						return null;
+					}
+					return Ast.ConstInt(l << r);
+				}
+
+				@Override
+				public Const case_And(And and) {
+					return Ast.ConstInt(l & r);
+				}
+
+				@Override
+				public Const case_Or(Or or) {
+					return Ast.ConstInt(l | r);
+				}
+
+				@Override
+				public Const case_Xor(Xor xor) {
+					return Ast.ConstInt(l ^ r);
+				}
+
+				@Override
+				public Const case_Eq(Eq eq) {
+					return Ast.ConstBool(l == r);
+				}
+
+				@Override
+				public Const case_Slt(Slt slt) {
+					return Ast.ConstBool(l < r);
+				}
+
+				@Override
+				public Const case_Sle(Sle sle) {
+					return Ast.ConstBool(l <= r);
+				}
+
+				@Override
+				public Const case_Ult(Ult ult) {
+					return Ast.ConstBool(Integer.compareUnsigned(l, r) < 0);
+				}
+
+				@Override
+				public Const case_Ule(Ule ule) {
+					return Ast.ConstBool(Integer.compareUnsigned(l, r) <= 0);
+				}
+			});
+		}
+		return null;
+	}
+
+	private boolean rewrite(Proc proc) {
+		Map<Variable, Operand> replacements = new HashMap<>();
+		Set<Instruction> toRemove = OptimUtils.identitySet();
+		boolean changed = false;
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			if (!executableBlocks.contains(block)) {
+				continue;
+			}
+			for (Instruction instr : block) {
+				if (instr instanceof BinaryOperation || instr instanceof PhiNode || instr instanceof Select) {
+					Assign assign = (Assign) instr;
+					LatticeValue v = values.getOrDefault(assign.getVar(), LatticeValue.UNKNOWN);
+					if (v.isConstant()) {
+						replacements.put(assign.getVar(), v.constant);
+						toRemove.add(instr);
+					} else if (instr instanceof Select) {
+						// a select with a constant condition is replaced by the selected value
+						Select select = (Select) instr;
+						LatticeValue condition = valueOf(select.getCondition());
+						if (condition.constant instanceof ConstBool) {
+							boolean c = ((ConstBool) condition.constant).getBoolVal();
+							replacements.put(select.getVar(), c ? select.getIfTrue() : select.getIfFalse());
+							toRemove.add(instr);
+						}
+					}
+				}
+			}
+			Optional<TerminatingInstruction> terminator = block.getTerminatingInstruction();
+			if (terminator.isPresent() && terminator.get() instanceof Branch) {
+				Branch branch = (Branch) terminator.get();
+				boolean toTrue = isExecutable(block, branch.getIfTrueLabel());
+				boolean toFalse = isExecutable(block, branch.getIfFalseLabel());
+				if (toTrue != toFalse) {
+					BasicBlock target = toTrue ? branch.getIfTrueLabel() : branch.getIfFalseLabel();
+					BasicBlock other = toTrue ? branch.getIfFalseLabel() : branch.getIfTrueLabel();
+					OptimUtils.removePhiChoice(other, block);
+					branch.replaceBy(Ast.Jump(target));
+					changed = true;
+				}
+			}
+		}
+		changed |= !toRemove.isEmpty();
+		OptimUtils.removeInstructions(proc, toRemove);
+		OptimUtils.replaceVariables(proc, replacements);
+		changed |= OptimUtils.removeUnreachableBlocks(proc);
+		changed |= removeSingleChoicePhiNodes(proc);
+		return changed;
+	}
+
+	/** phi nodes in blocks with only one predecessor left are replaced by their value */
+	private boolean removeSingleChoicePhiNodes(Proc proc) {
+		Map<Variable, Operand> replacements = new HashMap<>();
+		Set<Instruction> toRemove = OptimUtils.identitySet();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (PhiNode phi : block.getPhiNodes()) {
+				if (phi.getChoices().size() != 1) {
+					continue;
+				}
+				Operand value = phi.getChoices().get(0).getValue();
+				if (value instanceof VarRef && ((VarRef) value).getVariable() == phi.getVar()) {
+					continue;
+				}
+				replacements.put(phi.getVar(), value);
+				toRemove.add(phi);
+			}
+		}
+		OptimUtils.removeInstructions(proc, toRemove);
+		OptimUtils.replaceVariables(proc, replacements);
+		return !toRemove.isEmpty();
+	}
+}
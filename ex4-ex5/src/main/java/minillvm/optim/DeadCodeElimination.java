@@ -0,0 +1,120 @@
+package minillvm.optim;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Removes instructions whose results are never used (mark and sweep).
+ *
+ * Instructions with side effects (stores, prints, calls and terminators) are live,
+ * as is every instruction computing a value used by a live instruction.
+ * Stores to allocas which are never read are not considered live,
+ * so such allocas are removed together with their stores.
+ * Comments are removed as well.
+ */
+public class DeadCodeElimination {
+
+	public void optimizeProgram(Prog prog) {
+		for (Proc proc : prog.getProcedures()) {
+			optimizeProc(proc);
+		}
+	}
+
+	/**
+	 * @return true, if some instruction was removed
+	 */
+	public boolean optimizeProc(Proc proc) {
+		// removing a dead load can make its alloca write-only
+		boolean changed = false;
+		while (sweep(proc)) {
+			changed = true;
+		}
+		return changed;
+	}
+
+	private boolean sweep(Proc proc) {
+		Map<Variable, Assign> definitions = new HashMap<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Assign) {
+					definitions.put(((Assign) instr).getVar(), (Assign) instr);
+				}
+			}
+		}
+		Set<Variable> writeOnly = findWriteOnlyAllocas(proc);
+
+		Set<Instruction> live = OptimUtils.identitySet();
+		Deque<Instruction> worklist = new ArrayDeque<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				if (isRoot(instr, writeOnly)) {
+					live.add(instr);
+					worklist.add(instr);
+				}
+			}
+		}
+
+		while (!worklist.isEmpty()) {
+			Instruction instr = worklist.poll();
+			instr.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(VarRef varRef) {
+					Assign def = definitions.get(varRef.getVariable());
+					if (def != null && live.add(def)) {
+						worklist.add(def);
+					}
+				}
+			});
+		}
+
+		Set<Instruction> dead = OptimUtils.identitySet();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				if (!live.contains(instr)) {
+					dead.add(instr);
+				}
+			}
+		}
+		OptimUtils.removeInstructions(proc, dead);
+		return !dead.isEmpty();
+	}
+
+	private static boolean isRoot(Instruction instr, Set<Variable> writeOnly) {
+		if (instr instanceof Store) {
+			Operand address = ((Store) instr).getAddress();
+			return !(address instanceof VarRef && writeOnly.contains(((VarRef) address).getVariable()));
+		}
+		return instr instanceof Print
+				|| instr instanceof Call
+				|| instr instanceof TerminatingInstruction;
+	}
+
+	/** allocas which are only used as the address of stores */
+	private static Set<Variable> findWriteOnlyAllocas(Proc proc) {
+		Set<Variable> result = new HashSet<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Alloca) {
+					result.add(((Alloca) instr).getVar());
+				}
+			}
+		}
+		if (result.isEmpty()) {
+			return result;
+		}
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			block.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(VarRef varRef) {
+					Element parent = varRef.getParent();
+					boolean storeAddress = parent instanceof Store && ((Store) parent).getAddress() == varRef;
+					if (!storeAddress) {
+						result.remove(varRef.getVariable());
+					}
+				}
+			});
+		}
+		return result;
+	}
+}
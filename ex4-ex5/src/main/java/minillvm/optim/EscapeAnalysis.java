@@ -0,0 +1,220 @@
+package minillvm.optim;
+
+import minillvm.analysis.AliasAnalysis;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Moves heap allocations of constant size, which do not escape the procedure, to the stack.
+ *
+ * An allocation escapes, if a pointer into it (the allocated pointer or a bitcast or
+ * getelementptr of it) is stored to memory, passed to a procedure, returned or merged
+ * by a phi node. Without a phi node the pointer can only be used until the allocation
+ * is executed again, so a single stack slot in the entry block suffices even for
+ * allocations inside of loops.
+ *
+ * Zeroed allocations are initialized with a store for every field or word, so
+ * only arrays with a few elements are moved to the stack.
+ *
+ * Objects which are only accessed through their fields are replaced by one
+ * stack variable per field, which the SSA transformation then turns into registers.
+ */
+public class EscapeAnalysis {
+
+	/** the maximum number of words of a zeroed array on the stack */
+	private static final int MAX_ZEROED_WORDS = 64;
+
+	public void optimizeProgram(Prog prog) {
+		for (Proc proc : prog.getProcedures()) {
+			optimizeProc(proc);
+		}
+	}
+
+	/**
+	 * @return true, if some allocation was moved to the stack
+	 */
+	public boolean optimizeProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		Map<Variable, List<VarRef>> uses = collectUses(proc);
+		List<Assign> allocs = new ArrayList<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Alloc || instr instanceof AllocZeroed) {
+					allocs.add((Assign) instr);
+				}
+			}
+		}
+
+		BasicBlock entry = proc.getBasicBlocks().get(0);
+		boolean changed = false;
+		boolean scalarsReplaced = false;
+		for (Assign alloc : allocs) {
+			Type type = allocatedType(alloc);
+			List<Element> derived = new ArrayList<>();
+			if (type == null || escapes(alloc.getVar(), uses, derived)) {
+				continue;
+			}
+			if (alloc instanceof AllocZeroed) {
+				// the stack slot is reused, so it has to be cleared every time the allocation is executed
+				BasicBlock block = (BasicBlock) alloc.getParent();
+				int index = block.indexOf(alloc) + 1;
+				for (Instruction instr : zeroInitialization(alloc.getVar(), type)) {
+					block.add(index++, instr);
+					if (!(instr instanceof Bitcast)) {
+						derived.add(instr);
+					}
+				}
+			}
+			Alloca alloca = Ast.Alloca(Ast.TemporaryVar(alloc.getVar().getName()), type);
+			if (type instanceof TypeStruct && canReplaceFields(derived, (TypeStruct) type, uses)) {
+				replaceFields(proc, entry, derived, (TypeStruct) type);
+				scalarsReplaced = true;
+			}
+			// keep the variable of the allocation, so its uses stay valid
+			TemporaryVar var = alloc.getVar();
+			alloc.setVar(Ast.TemporaryVar(var.getName()));
+			alloc.replaceBy(Ast.Bitcast(var, Ast.TypePointer(Ast.TypeByte()), Ast.VarRef(alloca.getVar())));
+			entry.addFront(alloca);
+			changed = true;
+		}
+		if (scalarsReplaced) {
+			new SSATransformation().transformProc(proc);
+		}
+		return changed;
+	}
+
+	/**
+	 * the type of a stack slot for the allocation or null, if its size is not constant
+	 * or it is too large to be cleared by single stores
+	 */
+	private static Type allocatedType(Assign alloc) {
+		boolean zeroed = alloc instanceof AllocZeroed;
+		Operand size = zeroed ? ((AllocZeroed) alloc).getSizeInBytes() : ((Alloc) alloc).getSizeInBytes();
+		if (size instanceof Sizeof) {
+			return ((Sizeof) size).getStructType();
+		} else if (size instanceof ConstInt && ((ConstInt) size).getIntVal() >= 0) {
+			int words = (((ConstInt) size).getIntVal() + 3) / 4;
+			return zeroed && words > MAX_ZEROED_WORDS ? null : Ast.TypeArray(Ast.TypeInt(), words);
+		}
+		return null;
+	}
+
+	/** stores the default value to every field of a struct or every word of an array */
+	private static List<Instruction> zeroInitialization(TemporaryVar pointer, Type type) {
+		List<Instruction> result = new ArrayList<>();
+		TemporaryVar typed = Ast.TemporaryVar(pointer.getName());
+		result.add(Ast.Bitcast(typed, Ast.TypePointer(type), Ast.VarRef(pointer)));
+		int count = type instanceof TypeStruct ? ((TypeStruct) type).getFields().size() : ((TypeArray) type).getSize();
+		for (int i = 0; i < count; i++) {
+			Type elementType = type instanceof TypeStruct ? ((TypeStruct) type).getFields().get(i).getType()
+					: ((TypeArray) type).getOf();
+			TemporaryVar element = Ast.TemporaryVar("zeroed");
+			result.add(Ast.GetElementPtr(element, Ast.VarRef(typed), Ast.OperandList(Ast.ConstInt(0), Ast.ConstInt(i))));
+			result.add(Ast.Store(Ast.VarRef(element), OptimUtils.defaultValue(elementType)));
+		}
+		return result;
+	}
+
+	private static Map<Variable, List<VarRef>> collectUses(Proc proc) {
+		Map<Variable, List<VarRef>> uses = new HashMap<>();
+		proc.accept(new Element.DefaultVisitor() {
+			@Override
+			public void visit(VarRef varRef) {
+				uses.computeIfAbsent(varRef.getVariable(), v -> new ArrayList<>()).add(varRef);
+			}
+		});
+		return uses;
+	}
+
+	/**
+	 * checks whether a pointer derived from the variable escapes
+	 *
+	 * @param derived collects the bitcasts, getelementptrs, loads and stores using the pointers
+	 */
+	private static boolean escapes(Variable pointer, Map<Variable, List<VarRef>> uses, List<Element> derived) {
+		for (VarRef use : uses.getOrDefault(pointer, Collections.emptyList())) {
+			Element parent = use.getParent();
+			if (parent instanceof Bitcast || (parent instanceof GetElementPtr
+					&& ((GetElementPtr) parent).getBaseAddress() == use)) {
+				derived.add(parent);
+				if (escapes(((Assign) parent).getVar(), uses, derived)) {
+					return true;
+				}
+			} else if (parent instanceof Load) {
+				derived.add(parent);
+			} else if (parent instanceof Store && ((Store) parent).getAddress() == use) {
+				derived.add(parent);
+			} else if (!(parent instanceof BinaryOperation)) {
+				// stored, passed, returned or merged
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * checks whether all memory accesses go through getelementptrs selecting a field
+	 * of the allocated struct
+	 */
+	private static boolean canReplaceFields(List<Element> derived, TypeStruct type,
+			Map<Variable, List<VarRef>> uses) {
+		for (Element e : derived) {
+			if (e instanceof Load || e instanceof Store) {
+				Operand address = e instanceof Load ? ((Load) e).getAddress() : ((Store) e).getAddress();
+				if (!(AliasAnalysis.definition(address) instanceof GetElementPtr)) {
+					return false;
+				}
+			} else if (e instanceof GetElementPtr) {
+				GetElementPtr gep = (GetElementPtr) e;
+				if (fieldIndex(gep, type) < 0) {
+					return false;
+				}
+				for (VarRef use : uses.getOrDefault(gep.getVar(), Collections.emptyList())) {
+					Element parent = use.getParent();
+					if (!(parent instanceof Load) && !(parent instanceof Store)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/** the field selected by a getelementptr or -1 */
+	private static int fieldIndex(GetElementPtr gep, TypeStruct type) {
+		Type base = ((TypePointer) gep.getBaseAddress().calculateType()).getTo();
+		OperandList indices = gep.getIndices();
+		if (!base.equalsType(type) || indices.size() != 2 || !(indices.get(0) instanceof ConstInt)
+				|| ((ConstInt) indices.get(0)).getIntVal() != 0 || !(indices.get(1) instanceof ConstInt)) {
+			return -1;
+		}
+		return ((ConstInt) indices.get(1)).getIntVal();
+	}
+
+	/** replaces every field of the object with a separate stack variable */
+	private static void replaceFields(Proc proc, BasicBlock entry, List<Element> derived, TypeStruct type) {
+		Map<Integer, Alloca> fields = new HashMap<>();
+		Map<Variable, Operand> replacements = new HashMap<>();
+		Set<Instruction> removed = OptimUtils.identitySet();
+		for (Element e : derived) {
+			if (e instanceof GetElementPtr) {
+				GetElementPtr gep = (GetElementPtr) e;
+				int index = fieldIndex(gep, type);
+				Alloca field = fields.get(index);
+				if (field == null) {
+					StructField f = type.getFields().get(index);
+					field = Ast.Alloca(Ast.TemporaryVar(f.getName()), f.getType());
+					fields.put(index, field);
+					entry.addFront(field);
+				}
+				replacements.put(gep.getVar(), Ast.VarRef(field.getVar()));
+				removed.add(gep);
+			}
+		}
+		OptimUtils.replaceVariables(proc, replacements);
+		OptimUtils.removeInstructions(proc, removed);
+	}
+}
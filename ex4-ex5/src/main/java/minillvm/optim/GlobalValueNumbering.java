@@ -0,0 +1,181 @@
+package minillvm.optim;
+
+import minillvm.analysis.Dominators;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Dominator based global value numbering.
+ *
+ * Pure binary operations, getelementptr and bitcast instructions which compute
+ * the same value as an instruction in a dominating position are removed and
+ * their uses replaced with the earlier result.
+ * Bitcasts to the type the operand already has are removed as well.
+ * Array lengths never change, so repeated loads of the length of the same array
+ * are numbered like pure instructions.
+ */
+public class GlobalValueNumbering {
+
+	private Map<Variable, Operand> replacements;
+	private Map<List<Object>, Deque<Assign>> available;
+
+	public void optimizeProgram(Prog prog) {
+		for (Proc proc : prog.getProcedures()) {
+			optimizeProc(proc);
+		}
+	}
+
+	public boolean optimizeProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		return optimizeProc(proc, new Dominators(proc));
+	}
+
+	/**
+	 * @param dominators the dominators of the procedure, which are not changed by this pass
+	 * @return true, if the procedure was changed
+	 */
+	public boolean optimizeProc(Proc proc, Dominators dominators) {
+		replacements = new HashMap<>();
+		available = new HashMap<>();
+		Set<Instruction> toRemove = OptimUtils.identitySet();
+
+		// each entry of the stack is a block to visit or, when null, the marker to leave the block on top of it
+		Deque<BasicBlock> stack = new LinkedList<>();
+		Deque<List<List<Object>>> added = new ArrayDeque<>();
+		stack.push(proc.getBasicBlocks().get(0));
+		while (!stack.isEmpty()) {
+			BasicBlock block = stack.pop();
+			if (block == null) {
+				for (List<Object> key : added.pop()) {
+					available.get(key).pop();
+				}
+				continue;
+			}
+			List<List<Object>> addedHere = new ArrayList<>();
+			for (Instruction instr : block) {
+				if (instr instanceof Bitcast && isNoop((Bitcast) instr)) {
+					replacements.put(((Bitcast) instr).getVar(), ((Bitcast) instr).getExpr());
+					toRemove.add(instr);
+					continue;
+				}
+				if (!(instr instanceof BinaryOperation || instr instanceof GetElementPtr
+						|| instr instanceof Bitcast || instr instanceof Select
+						|| instr instanceof Load && RangeCheckElimination.arrayOfLength((Load) instr) != null)) {
+					continue;
+				}
+				Assign assign = (Assign) instr;
+				List<Object> key = key(assign);
+				Assign existing = lookup(key, assign);
+				if (existing != null) {
+					replacements.put(assign.getVar(), Ast.VarRef(existing.getVar()));
+					toRemove.add(instr);
+				} else {
+					available.computeIfAbsent(key, k -> new ArrayDeque<>()).push(assign);
+					addedHere.add(key);
+				}
+			}
+			stack.push(null);
+			added.push(addedHere);
+			List<BasicBlock> children = dominators.getChildren(block);
+			for (int i = children.size() - 1; i >= 0; i--) {
+				stack.push(children.get(i));
+			}
+		}
+
+		OptimUtils.removeInstructions(proc, toRemove);
+		OptimUtils.replaceVariables(proc, replacements);
+		return !toRemove.isEmpty();
+	}
+
+	private static boolean isNoop(Bitcast bitcast) {
+		// null has to keep the type of the bitcast
+		return !(bitcast.getExpr() instanceof Nullpointer)
+				&& bitcast.getType().equalsType(bitcast.getExpr().calculateType());
+	}
+
+	private Assign lookup(List<Object> key, Assign assign) {
+		Deque<Assign> candidates = available.get(key);
+		if (candidates == null) {
+			return null;
+		}
+		for (Assign candidate : candidates) {
+			if (!(assign instanceof Bitcast)
+					|| ((Bitcast) assign).getType().equalsType(((Bitcast) candidate).getType())) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/** a key identifying the computed value, types of bitcasts are compared separately */
+	private List<Object> key(Assign assign) {
+		List<Object> key = new ArrayList<>();
+		key.add(assign.getClass());
+		if (assign instanceof BinaryOperation) {
+			BinaryOperation op = (BinaryOperation) assign;
+			Object left = operandKey(op.getLeft());
+			Object right = operandKey(op.getRight());
+			key.add(op.getOperator().getClass());
+			if (isCommutative(op.getOperator()) && left.hashCode() > right.hashCode()) {
+				Object t = left;
+				left = right;
+				right = t;
+			}
+			key.add(left);
+			key.add(right);
+		} else if (assign instanceof GetElementPtr) {
+			GetElementPtr gep = (GetElementPtr) assign;
+			key.add(operandKey(gep.getBaseAddress()));
+			for (Operand index : gep.getIndices()) {
+				key.add(operandKey(index));
+			}
+		} else if (assign instanceof Bitcast) {
+			key.add(operandKey(((Bitcast) assign).getExpr()));
+		} else if (assign instanceof Select) {
+			Select select = (Select) assign;
+			key.add(operandKey(select.getCondition()));
+			key.add(operandKey(select.getIfTrue()));
+			key.add(operandKey(select.getIfFalse()));
+		} else if (assign instanceof Load) {
+			key.add(RangeCheckElimination.arrayOfLength((Load) assign));
+		}
+		return key;
+	}
+
+	private static boolean isCommutative(Operator operator) {
+		return operator instanceof Add
+				|| operator instanceof Mul
+				|| operator instanceof And
+				|| operator instanceof Or
+				|| operator instanceof Xor
+				|| operator instanceof Eq;
+	}
+
+	private Object operandKey(Operand operand) {
+		if (operand instanceof VarRef) {
+			Variable v = ((VarRef) operand).getVariable();
+			Operand replacement = replacements.get(v);
+			if (replacement != null) {
+				return operandKey(replacement);
+			}
+			return v;
+		} else if (operand instanceof ConstInt) {
+			return ((ConstInt) operand).getIntVal();
+		} else if (operand instanceof ConstBool) {
+			return ((ConstBool) operand).getBoolVal();
+		} else if (operand instanceof Nullpointer) {
+			return Nullpointer.class;
+		} else if (operand instanceof GlobalRef) {
+			return ((GlobalRef) operand).getGlobal();
+		} else if (operand instanceof ProcedureRef) {
+			return ((ProcedureRef) operand).getProcedure();
+		} else if (operand instanceof Sizeof) {
+			return Arrays.asList(Sizeof.class, ((Sizeof) operand).getStructType());
+		}
+		// not worth comparing, use a key which is never equal to another one
+		return new Object();
+	}
+}
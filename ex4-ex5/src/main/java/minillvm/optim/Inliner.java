@@ -0,0 +1,305 @@
+package minillvm.optim;
+
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Replaces direct calls of small procedures by a copy of the procedure body.
+ *
+ * Procedures are processed bottom-up in the call graph, so the calls inside of a callee
+ * are already inlined when the callee itself is inlined.
+ * A call is inlined, if the size of the callee minus the benefit of the call
+ * (the call itself and its constant arguments, which can be propagated)
+ * stays below a threshold, or if it is the only call of the procedure.
+ * Procedures which are no longer referenced afterwards are removed.
+ */
+public class Inliner {
+
+	public static final int DEFAULT_THRESHOLD = 20;
+	public static final int DEFAULT_MAX_PROC_SIZE = 3000;
+
+	private static final int CALL_BENEFIT = 5;
+	private static final int CONSTANT_ARGUMENT_BENEFIT = 5;
+
+	/** the maximum cost of an inlined procedure */
+	private final int threshold;
+	/** procedures are not grown beyond this number of instructions by inlining */
+	private final int maxProcSize;
+
+	private Map<Proc, Integer> callCounts;
+
+	public Inliner() {
+		this(DEFAULT_THRESHOLD, DEFAULT_MAX_PROC_SIZE);
+	}
+
+	public Inliner(int threshold, int maxProcSize) {
+		this.threshold = threshold;
+		this.maxProcSize = maxProcSize;
+	}
+
+	/**
+	 * @return true, if some call was inlined or some procedure was removed
+	 */
+	public boolean optimizeProgram(Prog prog) {
+		callCounts = new HashMap<>();
+		for (Proc proc : prog.getProcedures()) {
+			for (Proc callee : calledProcs(proc)) {
+				callCounts.merge(callee, 1, Integer::sum);
+			}
+		}
+		boolean changed = false;
+		for (Proc proc : bottomUp(prog)) {
+			changed |= optimizeProc(proc);
+		}
+		changed |= removeUnusedProcs(prog);
+		return changed;
+	}
+
+	private boolean optimizeProc(Proc proc) {
+		boolean inlined = false;
+		int size = size(proc);
+		for (int b = 0; b < proc.getBasicBlocks().size(); b++) {
+			BasicBlock block = proc.getBasicBlocks().get(b);
+			for (int i = 0; i < block.size(); i++) {
+				if (!(block.get(i) instanceof Call)) {
+					continue;
+				}
+				Call call = (Call) block.get(i);
+				Proc callee = calledProc(call);
+				if (callee == null || !shouldInline(call, callee, size)) {
+					continue;
+				}
+				size += size(callee);
+				callCounts.merge(callee, -1, Integer::sum);
+				inline(proc, block, i, callee);
+				inlined = true;
+				// continue with the first inlined block
+				break;
+			}
+		}
+		return OptimUtils.removeUnreachableBlocks(proc) || inlined;
+	}
+
+	private boolean shouldInline(Call call, Proc callee, int callerSize) {
+		if (callee.getBasicBlocks().isEmpty() || !callee.getBasicBlocks().get(0).getPhiNodes().isEmpty()) {
+			return false;
+		}
+		int calleeSize = size(callee);
+		if (callerSize + calleeSize > maxProcSize) {
+			return false;
+		}
+		if (isRecursive(callee)) {
+			return false;
+		}
+		if (callCounts.getOrDefault(callee, 0) == 1) {
+			// the callee can be removed afterwards
+			return true;
+		}
+		int cost = calleeSize - CALL_BENEFIT;
+		for (Operand arg : call.getArguments()) {
+			if (arg instanceof Const) {
+				cost -= CONSTANT_ARGUMENT_BENEFIT;
+			}
+		}
+		return cost <= threshold;
+	}
+
+	/**
+	 * replaces the call at the given index of the block with the body of the callee
+	 */
+	private void inline(Proc proc, BasicBlock block, int index, Proc callee) {
+		Call call = (Call) block.get(index);
+
+		// split the block after the call
+		BasicBlock continuation = Ast.BasicBlock();
+		continuation.setName("afterCall");
+		while (block.size() > index + 1) {
+			Instruction instr = block.get(index + 1);
+			block.remove(index + 1);
+			continuation.add(instr);
+		}
+		block.remove(index);
+		for (BasicBlock succ : continuation.getSuccessors()) {
+			OptimUtils.replacePhiLabel(succ, block, continuation);
+		}
+
+		// copy the body
+		Map<BasicBlock, BasicBlock> blocks = new HashMap<>();
+		Map<Variable, Variable> vars = new HashMap<>();
+		List<BasicBlock> copies = new ArrayList<>();
+		for (BasicBlock original : callee.getBasicBlocks()) {
+			BasicBlock copy = original.copy();
+			copy.setName(original.getName());
+			for (int i = 0; i < original.size(); i++) {
+				if (original.get(i) instanceof Assign) {
+					vars.put(((Assign) original.get(i)).getVar(), ((Assign) copy.get(i)).getVar());
+				}
+			}
+			blocks.put(original, copy);
+			copies.add(copy);
+		}
+		Map<Variable, Operand> arguments = new HashMap<>();
+		for (int i = 0; i < callee.getParameters().size(); i++) {
+			arguments.put(callee.getParameters().get(i), call.getArguments().get(i));
+		}
+
+		List<VarRef> parameterUses = new ArrayList<>();
+		List<PhiNodeChoice> returns = new ArrayList<>();
+		for (BasicBlock copy : copies) {
+			copy.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(VarRef varRef) {
+					Variable v = varRef.getVariable();
+					if (vars.containsKey(v)) {
+						varRef.setVariable(vars.get(v));
+					} else if (arguments.containsKey(v)) {
+						parameterUses.add(varRef);
+					}
+				}
+
+				@Override
+				public void visit(PhiNodeChoice choice) {
+					super.visit(choice);
+					choice.setLabel(blocks.get(choice.getLabel()));
+				}
+			});
+		}
+		for (VarRef use : parameterUses) {
+			use.replaceBy(arguments.get(use.getVariable()).copy());
+		}
+		for (BasicBlock copy : copies) {
+			TerminatingInstruction t = copy.getTerminatingInstruction().get();
+			if (t instanceof Jump) {
+				((Jump) t).setLabel(blocks.get(((Jump) t).getLabel()));
+			} else if (t instanceof Branch) {
+				Branch branch = (Branch) t;
+				branch.setIfTrueLabel(blocks.get(branch.getIfTrueLabel()));
+				branch.setIfFalseLabel(blocks.get(branch.getIfFalseLabel()));
+			} else if (t instanceof ReturnExpr) {
+				Operand value = ((ReturnExpr) t).getReturnValue();
+				returns.add(Ast.PhiNodeChoice(copy, value.copy()));
+				t.replaceBy(Ast.Jump(continuation));
+			} else if (t instanceof ReturnVoid) {
+				t.replaceBy(Ast.Jump(continuation));
+			}
+		}
+
+		block.add(Ast.Jump(blocks.get(callee.getBasicBlocks().get(0))));
+		int position = proc.getBasicBlocks().indexOf(block) + 1;
+		for (BasicBlock copy : copies) {
+			proc.getBasicBlocks().add(position++, copy);
+		}
+		proc.getBasicBlocks().add(position, continuation);
+
+		// the returned value replaces the result of the call
+		Operand result;
+		if (returns.isEmpty()) {
+			result = OptimUtils.defaultValue(call.getVar().calculateType());
+		} else if (returns.size() == 1) {
+			result = returns.get(0).getValue();
+		} else {
+			PhiNodeChoiceList choices = Ast.PhiNodeChoiceList();
+			choices.addAll(returns);
+			TemporaryVar var = Ast.TemporaryVar(call.getVar().getName());
+			continuation.addFront(Ast.PhiNode(var, callee.getReturnType().copy(), choices));
+			result = Ast.VarRef(var);
+		}
+		OptimUtils.replaceVariables(proc, Collections.singletonMap(call.getVar(), result));
+	}
+
+	private static Proc calledProc(Call call) {
+		if (call.getFunction() instanceof ProcedureRef) {
+			return ((ProcedureRef) call.getFunction()).getProcedure();
+		}
+		return null;
+	}
+
+	/** the procedures called directly by the procedure, once for every call */
+	private static List<Proc> calledProcs(Proc proc) {
+		List<Proc> result = new ArrayList<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Call && calledProc((Call) instr) != null) {
+					result.add(calledProc((Call) instr));
+				}
+			}
+		}
+		return result;
+	}
+
+	/** checks whether the procedure can call itself directly or indirectly */
+	private static boolean isRecursive(Proc proc) {
+		Set<Proc> visited = new HashSet<>();
+		Deque<Proc> worklist = new ArrayDeque<>(calledProcs(proc));
+		while (!worklist.isEmpty()) {
+			Proc p = worklist.poll();
+			if (p == proc) {
+				return true;
+			} else if (visited.add(p)) {
+				worklist.addAll(calledProcs(p));
+			}
+		}
+		return false;
+	}
+
+	/** all procedures, callees before their callers (except for recursive calls) */
+	private static List<Proc> bottomUp(Prog prog) {
+		List<Proc> result = new ArrayList<>();
+		Set<Proc> visited = new HashSet<>();
+		for (Proc proc : prog.getProcedures()) {
+			postorder(proc, visited, result);
+		}
+		return result;
+	}
+
+	private static void postorder(Proc proc, Set<Proc> visited, List<Proc> result) {
+		if (!visited.add(proc)) {
+			return;
+		}
+		for (Proc callee : calledProcs(proc)) {
+			postorder(callee, visited, result);
+		}
+		result.add(proc);
+	}
+
+	/** the number of instructions, not counting comments */
+	private static int size(Proc proc) {
+		int size = 0;
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				if (!(instr instanceof CommentInstr)) {
+					size++;
+				}
+			}
+		}
+		return size;
+	}
+
+	/** removes procedures which are neither called nor referenced by a vtable */
+	private static boolean removeUnusedProcs(Prog prog) {
+		boolean removed = false;
+		boolean changed = true;
+		while (changed) {
+			Set<Proc> used = new HashSet<>();
+			Element.DefaultVisitor collector = new Element.DefaultVisitor() {
+				@Override
+				public void visit(ProcedureRef ref) {
+					used.add(ref.getProcedure());
+				}
+			};
+			prog.getGlobals().accept(collector);
+			prog.getProcedures().accept(collector);
+			changed = false;
+			for (int i = prog.getProcedures().size() - 1; i >= 0; i--) {
+				Proc proc = prog.getProcedures().get(i);
+				if (!used.contains(proc) && !proc.getName().equals("main")) {
+					prog.getProcedures().remove(i);
+					changed = true;
+					removed = true;
+				}
+			}
+		}
+		return removed;
+	}
+}
@@ -0,0 +1,398 @@
+package minillvm.optim;
+
+import minillvm.analysis.AliasAnalysis;
+import minillvm.analysis.Dominators;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Lets predecessors of a block jump directly to one of its successors, when the branch
+ * at the end of the block is already decided on the edge from them (jump threading).
+ *
+ * The condition is known on an edge, if it is a phi node of the block with a constant
+ * for the predecessor, or if the predecessor is only reached through one side of a branch
+ * on the same condition, like a null check repeated after an if in a.b.c[i].
+ * When all predecessors decide the same way, the branch becomes a jump. Otherwise the block
+ * is copied for the predecessors deciding the same way and the copy jumps to the known successor.
+ * Values of the block used after it are passed through stack slots, which the SSA transformation
+ * turns into phi nodes again. Loop headers are not copied, so the loops stay reducible.
+ */
+public class JumpThreading {
+
+	public static final int DEFAULT_MAX_SIZE = 6;
+	/** an upper bound for the number of blocks threaded in one procedure */
+	private static final int MAX_THREADED = 100;
+
+	/** the maximum number of instructions in a copied block, not counting phi nodes and the branch */
+	private final int maxSize;
+
+	public JumpThreading() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public JumpThreading(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return true, if the procedure was changed
+	 */
+	public boolean optimizeProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		return optimizeProc(proc, new Dominators(proc));
+	}
+
+	/**
+	 * @param dominators the dominators of the procedure as it is
+	 * @return true, if the procedure was changed
+	 */
+	public boolean optimizeProc(Proc proc, Dominators dominators) {
+		boolean changed = OptimUtils.removeUnreachableBlocks(proc, dominators);
+		// one block at a time, since every copy changes the dominators
+		for (int i = 0; i < MAX_THREADED; i++) {
+			if (changed) {
+				dominators = new Dominators(proc);
+			}
+			boolean threaded = false;
+			for (BasicBlock block : dominators.getReversePostorder()) {
+				Boolean usesSlots = thread(proc, block, dominators);
+				if (usesSlots != null) {
+					if (usesSlots) {
+						// the loads from the slots would count as instructions of the next blocks
+						new SSATransformation().transformProc(proc);
+						removeRedundantPhis(proc);
+					}
+					threaded = true;
+					break;
+				}
+			}
+			if (!threaded) {
+				break;
+			}
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * @return null, if nothing was changed, false if the branch was decided and true,
+	 * if the block was copied and stack slots were added
+	 */
+	private Boolean thread(Proc proc, BasicBlock block, Dominators dominators) {
+		Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+		if (block == proc.getBasicBlocks().get(0) || !t.isPresent() || !(t.get() instanceof Branch)) {
+			return null;
+		}
+		Branch branch = (Branch) t.get();
+		if (branch.getIfTrueLabel() == branch.getIfFalseLabel() || !(branch.getCondition() instanceof VarRef)) {
+			return null;
+		}
+		List<BasicBlock> preds = dominators.getPredecessors(block);
+		Map<BasicBlock, Boolean> known = new LinkedHashMap<>();
+		for (BasicBlock pred : preds) {
+			if (dominators.dominates(block, pred)) {
+				// a loop header
+				return null;
+			}
+			if (Collections.frequency(preds, pred) == 1) {
+				known.put(pred, knownValue((VarRef) branch.getCondition(), pred, block, dominators));
+			}
+		}
+		Set<Boolean> values = new HashSet<>(known.values());
+		if (known.size() == preds.size() && values.size() == 1 && !values.contains(null)) {
+			branch.setCondition(Ast.ConstBool(known.values().iterator().next()));
+			return false;
+		}
+
+		Boolean value = values.contains(true) ? Boolean.TRUE : values.contains(false) ? Boolean.FALSE : null;
+		if (value == null || !canCopy(block)) {
+			return null;
+		}
+		List<BasicBlock> group = new ArrayList<>();
+		for (Map.Entry<BasicBlock, Boolean> e : known.entrySet()) {
+			if (value.equals(e.getValue())) {
+				group.add(e.getKey());
+			}
+		}
+		BasicBlock target = value ? branch.getIfTrueLabel() : branch.getIfFalseLabel();
+
+		// uses of the values of the block after it, except on the edges to its successors
+		Set<Variable> defined = new HashSet<>();
+		for (Instruction instr : block) {
+			if (instr instanceof Assign) {
+				defined.add(((Assign) instr).getVar());
+			}
+		}
+		List<VarRef> usesAfter = new ArrayList<>();
+		Map<VarRef, BasicBlock> loadBlocks = new IdentityHashMap<>();
+		for (BasicBlock other : proc.getBasicBlocks()) {
+			if (other == block) {
+				continue;
+			}
+			other.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(PhiNodeChoice choice) {
+					Operand v = choice.getValue();
+					if (v instanceof VarRef && defined.contains(((VarRef) v).getVariable()) && choice.getLabel() != block) {
+						usesAfter.add((VarRef) v);
+						loadBlocks.put((VarRef) v, choice.getLabel());
+					}
+				}
+
+				@Override
+				public void visit(VarRef varRef) {
+					if (defined.contains(varRef.getVariable())) {
+						usesAfter.add(varRef);
+					}
+				}
+			});
+		}
+		for (VarRef use : usesAfter) {
+			if (!isScalar(use.getVariable().calculateType())) {
+				return null;
+			}
+		}
+
+		BasicBlock copy = Ast.BasicBlock();
+		copy.setName("threaded");
+		Map<Variable, Operand> mapped = new HashMap<>();
+		for (PhiNode phi : block.getPhiNodes()) {
+			if (group.size() == 1) {
+				mapped.put(phi.getVar(), valueFrom(phi, group.get(0)).copy());
+				continue;
+			}
+			TemporaryVar var = Ast.TemporaryVar(phi.getVar().getName());
+			PhiNodeChoiceList choices = Ast.PhiNodeChoiceList();
+			for (BasicBlock pred : group) {
+				choices.add(Ast.PhiNodeChoice(pred, valueFrom(phi, pred).copy()));
+			}
+			copy.add(Ast.PhiNode(var, phi.getType(), choices));
+			mapped.put(phi.getVar(), Ast.VarRef(var));
+		}
+		for (Instruction instr : block) {
+			if (instr instanceof PhiNode || instr instanceof TerminatingInstruction) {
+				continue;
+			}
+			Instruction c = instr.copy();
+			List<VarRef> refs = new ArrayList<>();
+			c.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(VarRef varRef) {
+					if (mapped.containsKey(varRef.getVariable())) {
+						refs.add(varRef);
+					}
+				}
+			});
+			for (VarRef ref : refs) {
+				ref.replaceBy(mapped.get(ref.getVariable()).copy());
+			}
+			if (c instanceof Assign) {
+				mapped.put(((Assign) instr).getVar(), Ast.VarRef(((Assign) c).getVar()));
+			}
+			copy.add(c);
+		}
+		copy.add(Ast.Jump(target));
+		for (PhiNode phi : target.getPhiNodes()) {
+			phi.getChoices().add(Ast.PhiNodeChoice(copy, map(valueFrom(phi, block), mapped)));
+		}
+		for (BasicBlock pred : group) {
+			LoopSimplify.redirect(pred, block, copy);
+			OptimUtils.removePhiChoice(block, pred);
+		}
+
+		// the values reach the uses after the block from the block or its copy
+		Map<Variable, TemporaryVar> slots = new HashMap<>();
+		for (VarRef use : usesAfter) {
+			Variable v = use.getVariable();
+			TemporaryVar slot = slots.get(v);
+			if (slot == null) {
+				slot = Ast.TemporaryVar(v.getName());
+				proc.getBasicBlocks().get(0).addFront(Ast.Alloca(slot, v.calculateType()));
+				OptimUtils.insertBeforeTerminator(block, Ast.Store(Ast.VarRef(slot), Ast.VarRef(v)));
+				OptimUtils.insertBeforeTerminator(copy, Ast.Store(Ast.VarRef(slot), map(Ast.VarRef(v), mapped)));
+				slots.put(v, slot);
+			}
+			TemporaryVar loaded = Ast.TemporaryVar(v.getName());
+			Load load = Ast.Load(loaded, Ast.VarRef(slot));
+			if (loadBlocks.containsKey(use)) {
+				OptimUtils.insertBeforeTerminator(loadBlocks.get(use), load);
+			} else {
+				Instruction user = instructionOf(use);
+				BasicBlock userBlock = (BasicBlock) user.getParent();
+				userBlock.add(userBlock.indexOf(user), load);
+			}
+			use.setVariable(loaded);
+		}
+		proc.getBasicBlocks().add(proc.getBasicBlocks().indexOf(block) + 1, copy);
+		return !slots.isEmpty();
+	}
+
+	/**
+	 * removes the phi nodes with the same value from every predecessor, which the SSA transformation
+	 * creates for the slots in blocks no longer reached from the copy
+	 */
+	private static void removeRedundantPhis(Proc proc) {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock block : proc.getBasicBlocks()) {
+				for (PhiNode phi : block.getPhiNodes()) {
+					Operand value = sameValue(phi);
+					if (value == null) {
+						continue;
+					}
+					List<VarRef> uses = new ArrayList<>();
+					proc.accept(new Element.DefaultVisitor() {
+						@Override
+						public void visit(VarRef varRef) {
+							if (varRef.getVariable() == phi.getVar()) {
+								uses.add(varRef);
+							}
+						}
+					});
+					for (VarRef use : uses) {
+						use.replaceBy(value.copy());
+					}
+					block.remove(phi);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/** the value of all choices of the phi node apart from references to itself, or null */
+	private static Operand sameValue(PhiNode phi) {
+		Operand value = null;
+		for (PhiNodeChoice choice : phi.getChoices()) {
+			Operand v = choice.getValue();
+			if (v instanceof VarRef && ((VarRef) v).getVariable() == phi.getVar()) {
+				continue;
+			}
+			if (value == null) {
+				value = v;
+			} else if (!(v instanceof VarRef && value instanceof VarRef
+					&& ((VarRef) v).getVariable() == ((VarRef) value).getVariable()
+					|| v instanceof Const && v.structuralEquals(value))) {
+				return null;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * the value of the condition on the edge from pred to block
+	 *
+	 * @return null if unknown
+	 */
+	private static Boolean knownValue(VarRef condition, BasicBlock pred, BasicBlock block, Dominators dominators) {
+		Operand value = condition;
+		Assign def = AliasAnalysis.definition(condition);
+		if (def instanceof PhiNode && def.getParent() == block) {
+			value = valueFrom((PhiNode) def, pred);
+		}
+		Boolean known = knownOnEdge(value, pred, block, dominators);
+		if (known != null || !(value instanceof VarRef)) {
+			return known;
+		}
+		// a phi node of the predecessor, which is known on all edges to it, like b after
+		// a copy of the block computing b = x && y for the case that x is false
+		Assign predDef = AliasAnalysis.definition((VarRef) value);
+		if (!(predDef instanceof PhiNode) || predDef.getParent() != pred) {
+			return null;
+		}
+		for (BasicBlock p : dominators.getPredecessors(pred)) {
+			if (!dominators.isReachable(p)) {
+				continue;
+			}
+			Boolean k = knownOnEdge(valueFrom((PhiNode) predDef, p), p, pred, dominators);
+			if (k == null || known != null && !known.equals(k)) {
+				return null;
+			}
+			known = k;
+		}
+		return known;
+	}
+
+	/** the value on the edge from pred to block, if it is a constant or decided by a branch */
+	private static Boolean knownOnEdge(Operand value, BasicBlock pred, BasicBlock block, Dominators dominators) {
+		if (value instanceof ConstBool) {
+			return ((ConstBool) value).getBoolVal();
+		} else if (!(value instanceof VarRef)) {
+			return null;
+		}
+		Variable var = ((VarRef) value).getVariable();
+		Boolean onEdge = decidedBy(pred, var, block, dominators);
+		if (onEdge != null) {
+			return onEdge;
+		}
+		for (BasicBlock b = pred; dominators.getIdom(b) != null; b = dominators.getIdom(b)) {
+			BasicBlock idom = dominators.getIdom(b);
+			for (BasicBlock side : idom.getSuccessors()) {
+				Boolean decided = decidedBy(idom, var, side, dominators);
+				if (decided != null && dominators.getPredecessors(side).size() == 1 && dominators.dominates(side, pred)) {
+					return decided;
+				}
+			}
+		}
+		return null;
+	}
+
+	/** the value of the variable, if the block branches on it and goes to the given successor */
+	private static Boolean decidedBy(BasicBlock block, Variable var, BasicBlock successor, Dominators dominators) {
+		Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+		if (!t.isPresent() || !(t.get() instanceof Branch)) {
+			return null;
+		}
+		Branch branch = (Branch) t.get();
+		if (branch.getIfTrueLabel() == branch.getIfFalseLabel() || !(branch.getCondition() instanceof VarRef)
+				|| ((VarRef) branch.getCondition()).getVariable() != var) {
+			return null;
+		}
+		return branch.getIfTrueLabel() == successor ? Boolean.TRUE
+				: branch.getIfFalseLabel() == successor ? Boolean.FALSE : null;
+	}
+
+	private boolean canCopy(BasicBlock block) {
+		int size = 0;
+		for (Instruction instr : block) {
+			if (instr instanceof Alloca) {
+				return false;
+			} else if (!(instr instanceof PhiNode || instr instanceof TerminatingInstruction
+					|| instr instanceof CommentInstr)) {
+				size++;
+			}
+		}
+		return size <= maxSize;
+	}
+
+	private static boolean isScalar(Type type) {
+		return type instanceof TypeInt || type instanceof TypeBool || type instanceof TypeByte
+				|| type instanceof TypePointer;
+	}
+
+	private static Instruction instructionOf(Element e) {
+		while (!(e instanceof Instruction)) {
+			e = e.getParent();
+		}
+		return (Instruction) e;
+	}
+
+	private static Operand valueFrom(PhiNode phi, BasicBlock pred) {
+		for (PhiNodeChoice choice : phi.getChoices()) {
+			if (choice.getLabel() == pred) {
+				return choice.getValue();
+			}
+		}
+		throw new IllegalStateException("no value for " + pred.getName() + " in phi " + phi.getVar().getName());
+	}
+
+	private static Operand map(Operand op, Map<Variable, Operand> values) {
+		if (op instanceof VarRef && values.containsKey(((VarRef) op).getVariable())) {
+			return values.get(((VarRef) op).getVariable()).copy();
+		}
+		return op.copy();
+	}
+}
@@ -0,0 +1,236 @@
+package minillvm.optim;
+
+import minillvm.analysis.AliasAnalysis;
+import minillvm.analysis.Dominators;
+import minillvm.analysis.Loops;
+import minillvm.analysis.Loops.Loop;
+import minillvm.ast.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Moves computations which yield the same value in every iteration
+ * of a loop into the preheader of the loop.
+ *
+ * Pure instructions are always hoisted, divisions only by constants other than 0 and -1.
+ * Loads are hoisted, if no store or call in the loop may change the loaded memory
+ * and the address can be accessed in the preheader: either the load is executed
+ * in every iteration, or the address is a field of an object known to be not null.
+ */
+public class LoopInvariantCodeMotion {
+
+	private AliasAnalysis aliasAnalysis;
+
+	/**
+	 * @return true, if some procedure was changed
+	 */
+	public boolean optimizeProgram(Prog prog) {
+		boolean changed = false;
+		for (Proc proc : prog.getProcedures()) {
+			changed |= new LoopSimplify().insertPreheaders(proc);
+		}
+		return optimizeProgram(prog, Loops::new) || changed;
+	}
+
+	/**
+	 * Only changes instructions, loops without a preheader are skipped.
+	 *
+	 * @param loops the loops of a procedure as it is
+	 * @return true, if some procedure was changed
+	 */
+	public boolean optimizeProgram(Prog prog, Function<Proc, Loops> loops) {
+		aliasAnalysis = new AliasAnalysis(prog);
+		boolean changed = false;
+		for (Proc proc : prog.getProcedures()) {
+			if (!proc.getBasicBlocks().isEmpty()) {
+				changed |= optimizeProc(loops.apply(proc));
+			}
+		}
+		return changed;
+	}
+
+	private boolean optimizeProc(Loops loops) {
+		boolean changed = false;
+		for (Loop loop : loops.getLoopsInnermostFirst()) {
+			if (loop.getPreheader() != null) {
+				changed |= hoist(loop, loops.getDominators());
+			}
+		}
+		return changed;
+	}
+
+	private boolean hoist(Loop loop, Dominators dominators) {
+		BasicBlock preheader = loop.getPreheader();
+		Set<Variable> definedInLoop = new HashSet<>();
+		List<Instruction> memoryWriters = new ArrayList<>();
+		for (BasicBlock block : loop.getBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Assign) {
+					definedInLoop.add(((Assign) instr).getVar());
+				}
+				if (instr instanceof Store || instr instanceof Call) {
+					memoryWriters.add(instr);
+				}
+			}
+		}
+		Set<Variable> nonNull = nonNullAt(preheader, dominators);
+
+		boolean hoisted = false;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock block : loop.getBlocks()) {
+				boolean executedEveryIteration = isExecutedEveryIteration(block, loop, dominators);
+				for (int i = 0; i < block.size(); i++) {
+					Instruction instr = block.get(i);
+					if (!isInvariant(instr, definedInLoop)
+							|| !canHoist(instr, memoryWriters, nonNull, executedEveryIteration)) {
+						continue;
+					}
+					block.remove(i);
+					i--;
+					OptimUtils.insertBeforeTerminator(preheader, instr);
+					definedInLoop.remove(((Assign) instr).getVar());
+					changed = true;
+				}
+			}
+			hoisted |= changed;
+		}
+		return hoisted;
+	}
+
+	/** checks whether the block is executed before the loop is left or the next iteration starts */
+	static boolean isExecutedEveryIteration(BasicBlock block, Loop loop, Dominators dominators) {
+		for (BasicBlock b : loop.getExitingBlocks()) {
+			if (!dominators.dominates(block, b)) {
+				return false;
+			}
+		}
+		for (BasicBlock b : loop.getLatches()) {
+			if (!dominators.dominates(block, b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isInvariant(Instruction instr, Set<Variable> definedInLoop) {
+		if (!(instr instanceof BinaryOperation || instr instanceof GetElementPtr
+				|| instr instanceof Bitcast || instr instanceof Load || instr instanceof Select)) {
+			return false;
+		}
+		boolean[] result = {true};
+		instr.accept(new Element.DefaultVisitor() {
+			@Override
+			public void visit(VarRef varRef) {
+				if (definedInLoop.contains(varRef.getVariable())) {
+					result[0] = false;
+				}
+			}
+		});
+		return result[0];
+	}
+
+	private boolean canHoist(Instruction instr, List<Instruction> memoryWriters, Set<Variable> nonNull,
+			boolean executedEveryIteration) {
+		if (instr instanceof BinaryOperation) {
+			BinaryOperation op = (BinaryOperation) instr;
+			if (op.getOperator() instanceof Sdiv || op.getOperator() instanceof Srem) {
+				// hoisting must not introduce a division by zero or an overflow
+				if (!(op.getRight() instanceof ConstInt)) {
+					return false;
+				}
+				int divisor = ((ConstInt) op.getRight()).getIntVal();
+				return divisor != 0 && divisor != -1;
+			}
+			return true;
+		} else if (instr instanceof Load) {
+			Operand address = ((Load) instr).getAddress();
+			for (Instruction writer : memoryWriters) {
+				if (aliasAnalysis.mayWrite(writer, address)) {
+					return false;
+				}
+			}
+			return executedEveryIteration || isDereferenceable(address, nonNull, aliasAnalysis);
+		}
+		return true;
+	}
+
+	/**
+	 * checks whether the address is the start of an object or array, or a field
+	 * of an object which is not null
+	 */
+	static boolean isDereferenceable(Operand address, Set<Variable> nonNull, AliasAnalysis aliasAnalysis) {
+		while (true) {
+			if (address instanceof VarRef && nonNull.contains(((VarRef) address).getVariable())) {
+				return true;
+			}
+			Assign def = AliasAnalysis.definition(address);
+			if (def instanceof Bitcast) {
+				address = ((Bitcast) def).getExpr();
+			} else if (def instanceof GetElementPtr && isFieldAccess((GetElementPtr) def)) {
+				address = ((GetElementPtr) def).getBaseAddress();
+			} else {
+				break;
+			}
+		}
+		if (address instanceof GlobalRef) {
+			return true;
+		} else if (!(address instanceof VarRef)) {
+			return false;
+		}
+		Variable v = ((VarRef) address).getVariable();
+		if (v instanceof Parameter) {
+			// methods are only called on objects which are not null
+			return v.getName().equals("this");
+		}
+		Assign def = AliasAnalysis.definition(address);
+		if (def instanceof Alloc || def instanceof AllocZeroed) {
+			return true;
+		} else if (def instanceof Load && aliasAnalysis.loadsConstantPointer(((Load) def).getAddress())) {
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean isFieldAccess(GetElementPtr gep) {
+		Type type = ((TypePointer) gep.getBaseAddress().calculateType()).getTo();
+		if (!(type instanceof TypeStruct) || gep.getIndices().size() != 2) {
+			return false;
+		}
+		Operand first = gep.getIndices().get(0);
+		return first instanceof ConstInt && ((ConstInt) first).getIntVal() == 0
+				&& gep.getIndices().get(1) instanceof ConstInt;
+	}
+
+	/**
+	 * variables known to be not null at the end of the block,
+	 * because a dominating branch compared them to null
+	 */
+	static Set<Variable> nonNullAt(BasicBlock block, Dominators dominators) {
+		Set<Variable> result = new HashSet<>();
+		for (BasicBlock b = block; b != null; b = dominators.getIdom(b)) {
+			BasicBlock idom = dominators.getIdom(b);
+			if (idom == null || dominators.getPredecessors(b).size() != 1) {
+				continue;
+			}
+			Optional<TerminatingInstruction> t = idom.getTerminatingInstruction();
+			if (!t.isPresent() || !(t.get() instanceof Branch)) {
+				continue;
+			}
+			Branch branch = (Branch) t.get();
+			Assign cond = AliasAnalysis.definition(branch.getCondition());
+			if (!(cond instanceof BinaryOperation) || !(((BinaryOperation) cond).getOperator() instanceof Eq)) {
+				continue;
+			}
+			BinaryOperation eq = (BinaryOperation) cond;
+			Operand compared = eq.getRight() instanceof Nullpointer ? eq.getLeft()
+					: eq.getLeft() instanceof Nullpointer ? eq.getRight() : null;
+			if (compared instanceof VarRef && branch.getIfFalseLabel() == b && branch.getIfTrueLabel() != b) {
+				result.add(((VarRef) compared).getVariable());
+			}
+		}
+		return result;
+	}
+}
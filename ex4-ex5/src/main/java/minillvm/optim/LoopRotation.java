@@ -0,0 +1,280 @@
+package minillvm.optim;
+
+import minillvm.analysis.Dominators;
+import minillvm.analysis.Loops;
+import minillvm.analysis.Loops.Loop;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Turns loops testing their condition at the top into guarded loops testing it at the bottom.
+ *
+ * The header of a while loop decides whether the loop is left and the latch jumps back to it,
+ * so every iteration needs a jump and a branch. The instructions of a small header are copied
+ * into the preheader, which now branches to the body or the exit (the guard), and into the
+ * latch, which branches back to the body or to a new exit block. The first block of the body
+ * becomes the header and gets phi nodes for the values computed by the old header.
+ */
+public class LoopRotation {
+
+	public static final int DEFAULT_MAX_HEADER_SIZE = 8;
+
+	/** the maximum number of instructions copied, not counting phi nodes and the branch */
+	private final int maxHeaderSize;
+
+	public LoopRotation() {
+		this(DEFAULT_MAX_HEADER_SIZE);
+	}
+
+	public LoopRotation(int maxHeaderSize) {
+		this.maxHeaderSize = maxHeaderSize;
+	}
+
+	/**
+	 * @return true, if the procedure was changed
+	 */
+	public boolean optimizeProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		return optimizeProc(proc, new Loops(proc));
+	}
+
+	/**
+	 * @param loops the loops of the procedure as it is
+	 * @return true, if the procedure was changed
+	 */
+	public boolean optimizeProc(Proc proc, Loops loops) {
+		boolean changed = new LoopSimplify().insertPreheaders(proc, loops);
+		if (changed) {
+			loops = new Loops(proc);
+		}
+		// a rotated loop ends with a branch instead of a jump, so it is not rotated again
+		boolean rotated = true;
+		while (rotated) {
+			rotated = false;
+			for (Loop loop : loops.getLoops()) {
+				if (rotate(proc, loop, loops.getDominators())) {
+					changed = rotated = true;
+					break;
+				}
+			}
+			if (rotated) {
+				loops = new Loops(proc);
+			}
+		}
+		return changed;
+	}
+
+	private boolean rotate(Proc proc, Loop loop, Dominators dominators) {
+		BasicBlock header = loop.getHeader();
+		BasicBlock preheader = loop.getPreheader();
+		if (preheader == null || loop.getLatches().size() != 1) {
+			return false;
+		}
+		BasicBlock latch = loop.getLatches().get(0);
+		if (latch == header || !(latch.getTerminatingInstruction().get() instanceof Jump)
+				|| !(header.getTerminatingInstruction().get() instanceof Branch)) {
+			return false;
+		}
+		Branch branch = (Branch) header.getTerminatingInstruction().get();
+		boolean staysOnTrue = loop.contains(branch.getIfTrueLabel());
+		if (staysOnTrue == loop.contains(branch.getIfFalseLabel())) {
+			return false;
+		}
+		BasicBlock body = staysOnTrue ? branch.getIfTrueLabel() : branch.getIfFalseLabel();
+		BasicBlock exit = staysOnTrue ? branch.getIfFalseLabel() : branch.getIfTrueLabel();
+		if (dominators.getPredecessors(body).size() != 1 || !body.getPhiNodes().isEmpty()) {
+			return false;
+		}
+		int size = 0;
+		for (Instruction instr : header) {
+			if (instr instanceof Alloca) {
+				return false;
+			} else if (!(instr instanceof PhiNode || instr instanceof TerminatingInstruction
+					|| instr instanceof CommentInstr)) {
+				size++;
+			}
+		}
+		if (size > maxHeaderSize) {
+			return false;
+		}
+
+		// the values of the header, which become phi nodes in the body
+		Map<Variable, TemporaryVar> inBody = new LinkedHashMap<>();
+		for (Instruction instr : header) {
+			if (instr instanceof Assign) {
+				Variable v = ((Assign) instr).getVar();
+				inBody.put(v, Ast.TemporaryVar(v.getName()));
+			}
+		}
+
+		// uses in the loop (and on edges leaving it from the body) take the phi nodes,
+		// uses after the exit need phi nodes in the exit block
+		List<VarRef> loopUses = new ArrayList<>();
+		List<VarRef> exitUses = new ArrayList<>();
+		Map<VarRef, BasicBlock> useBlocks = new IdentityHashMap<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			if (block == header) {
+				continue;
+			}
+			block.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(PhiNodeChoice choice) {
+					Operand value = choice.getValue();
+					if (!(value instanceof VarRef) || !inBody.containsKey(((VarRef) value).getVariable())
+							|| choice.getLabel() == header) {
+						return;
+					}
+					if (loop.contains(choice.getLabel())) {
+						loopUses.add((VarRef) value);
+					} else {
+						exitUses.add((VarRef) value);
+						useBlocks.put((VarRef) value, choice.getLabel());
+					}
+				}
+
+				@Override
+				public void visit(VarRef varRef) {
+					if (!inBody.containsKey(varRef.getVariable())) {
+						return;
+					}
+					if (loop.contains(block)) {
+						loopUses.add(varRef);
+					} else {
+						exitUses.add(varRef);
+						useBlocks.put(varRef, block);
+					}
+				}
+			});
+		}
+		// other blocks of the loop may leave it to the same exit, like the right side of &&
+		List<BasicBlock> otherExiting = new ArrayList<>(dominators.getPredecessors(exit));
+		otherExiting.remove(header);
+		if (!exitUses.isEmpty()) {
+			for (BasicBlock pred : otherExiting) {
+				if (!loop.contains(pred)) {
+					return false;
+				}
+			}
+			for (VarRef use : exitUses) {
+				if (!dominators.dominates(exit, useBlocks.get(use))) {
+					return false;
+				}
+			}
+		}
+
+		// copy the header into the preheader (the guard) and the latch
+		Map<Variable, Operand> guardStart = new HashMap<>();
+		Map<Variable, Operand> latchStart = new HashMap<>();
+		for (PhiNode phi : header.getPhiNodes()) {
+			for (PhiNodeChoice choice : phi.getChoices()) {
+				if (choice.getLabel() == preheader) {
+					guardStart.put(phi.getVar(), choice.getValue().copy());
+				} else {
+					latchStart.put(phi.getVar(), inBodyValue(choice.getValue(), inBody));
+				}
+			}
+		}
+		BasicBlock newExit = Ast.BasicBlock();
+		newExit.setName("loopExit");
+		newExit.add(Ast.Jump(exit));
+		Map<Variable, Operand> guard = copyHeader(header, preheader, guardStart, staysOnTrue, body, exit);
+		Map<Variable, Operand> bottom = copyHeader(header, latch, latchStart, staysOnTrue, body, newExit);
+
+		for (Map.Entry<Variable, TemporaryVar> e : inBody.entrySet()) {
+			PhiNodeChoiceList choices = Ast.PhiNodeChoiceList();
+			choices.add(Ast.PhiNodeChoice(preheader, guard.get(e.getKey()).copy()));
+			choices.add(Ast.PhiNodeChoice(latch, bottom.get(e.getKey()).copy()));
+			body.addFront(Ast.PhiNode(e.getValue(), e.getKey().calculateType(), choices));
+		}
+		for (VarRef use : loopUses) {
+			use.setVariable(inBody.get(use.getVariable()));
+		}
+		for (PhiNode phi : exit.getPhiNodes()) {
+			PhiNodeChoiceList choices = phi.getChoices();
+			for (int i = 0; i < choices.size(); i++) {
+				if (choices.get(i).getLabel() == header) {
+					Operand value = choices.get(i).getValue();
+					choices.remove(i);
+					choices.add(Ast.PhiNodeChoice(preheader, map(value, guard)));
+					choices.add(Ast.PhiNodeChoice(newExit, map(value, bottom)));
+					break;
+				}
+			}
+		}
+		Map<Variable, TemporaryVar> inExit = new HashMap<>();
+		for (VarRef use : exitUses) {
+			Variable v = use.getVariable();
+			if (!inExit.containsKey(v)) {
+				TemporaryVar var = Ast.TemporaryVar(v.getName());
+				PhiNodeChoiceList choices = Ast.PhiNodeChoiceList();
+				choices.add(Ast.PhiNodeChoice(preheader, guard.get(v).copy()));
+				choices.add(Ast.PhiNodeChoice(newExit, bottom.get(v).copy()));
+				for (BasicBlock pred : otherExiting) {
+					choices.add(Ast.PhiNodeChoice(pred, Ast.VarRef(inBody.get(v))));
+				}
+				exit.addFront(Ast.PhiNode(var, v.calculateType(), choices));
+				inExit.put(v, var);
+			}
+			use.setVariable(inExit.get(v));
+		}
+
+		proc.getBasicBlocks().add(proc.getBasicBlocks().indexOf(latch) + 1, newExit);
+		proc.getBasicBlocks().remove(header);
+		return true;
+	}
+
+	/** the operand with references to values of the header replaced by their phi nodes in the body */
+	private static Operand inBodyValue(Operand op, Map<Variable, TemporaryVar> inBody) {
+		if (op instanceof VarRef && inBody.containsKey(((VarRef) op).getVariable())) {
+			return Ast.VarRef(inBody.get(((VarRef) op).getVariable()));
+		}
+		return op.copy();
+	}
+
+	private static Operand map(Operand op, Map<Variable, Operand> values) {
+		if (op instanceof VarRef && values.containsKey(((VarRef) op).getVariable())) {
+			return values.get(((VarRef) op).getVariable()).copy();
+		}
+		return op.copy();
+	}
+
+	/**
+	 * replaces the jump at the end of the block by a copy of the header, starting with the given
+	 * values of its phi nodes, and a branch to the body or the given exit
+	 *
+	 * @return the values of all variables of the header at the end of the block
+	 */
+	private static Map<Variable, Operand> copyHeader(BasicBlock header, BasicBlock block, Map<Variable, Operand> start,
+			boolean staysOnTrue, BasicBlock body, BasicBlock exit) {
+		Map<Variable, Operand> values = new HashMap<>(start);
+		block.remove(block.size() - 1);
+		for (Instruction instr : header) {
+			if (instr instanceof PhiNode || instr instanceof TerminatingInstruction) {
+				continue;
+			}
+			Instruction copy = instr.copy();
+			List<VarRef> uses = new ArrayList<>();
+			copy.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(VarRef varRef) {
+					if (values.containsKey(varRef.getVariable())) {
+						uses.add(varRef);
+					}
+				}
+			});
+			for (VarRef use : uses) {
+				use.replaceBy(values.get(use.getVariable()).copy());
+			}
+			if (copy instanceof Assign) {
+				values.put(((Assign) instr).getVar(), Ast.VarRef(((Assign) copy).getVar()));
+			}
+			block.add(copy);
+		}
+		Operand condition = map(((Branch) header.getTerminatingInstruction().get()).getCondition(), values);
+		block.add(staysOnTrue ? Ast.Branch(condition, body, exit) : Ast.Branch(condition, exit, body));
+		return values;
+	}
+}
@@ -0,0 +1,124 @@
+package minillvm.optim;
+
+import minillvm.analysis.Loops;
+import minillvm.analysis.Loops.Loop;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Gives every loop a preheader: a single block outside of the loop
+ * which jumps to the loop header and has no other successors.
+ */
+public class LoopSimplify {
+
+	/**
+	 * @return true, if a preheader was inserted (dominators and loops have to be recomputed then)
+	 */
+	public boolean insertPreheaders(Proc proc) {
+		return insertPreheaders(proc, new Loops(proc));
+	}
+
+	/**
+	 * @param loops the loops of the procedure as it is
+	 */
+	public boolean insertPreheaders(Proc proc, Loops loops) {
+		boolean changed = false;
+		for (Loop loop : loops.getLoops()) {
+			if (loop.getPreheader() == null) {
+				changed |= insertPreheader(proc, loop);
+			}
+		}
+		return changed;
+	}
+
+	private boolean insertPreheader(Proc proc, Loop loop) {
+		BasicBlock header = loop.getHeader();
+		List<BasicBlock> outside = new ArrayList<>();
+		for (BasicBlock b : proc.getBasicBlocks()) {
+			if (loop.contains(b)) {
+				continue;
+			}
+			for (BasicBlock succ : b.getSuccessors()) {
+				if (succ == header) {
+					outside.add(b);
+				}
+			}
+		}
+		if (outside.isEmpty()) {
+			return false;
+		}
+
+		BasicBlock preheader = Ast.BasicBlock();
+		preheader.setName("preheader");
+		for (PhiNode phi : header.getPhiNodes()) {
+			List<PhiNodeChoice> incoming = new ArrayList<>();
+			for (PhiNodeChoice choice : phi.getChoices()) {
+				if (outside.contains(choice.getLabel())) {
+					incoming.add(choice);
+				}
+			}
+			Operand value;
+			if (allSame(incoming)) {
+				value = incoming.get(0).getValue().copy();
+			} else {
+				PhiNodeChoiceList choices = Ast.PhiNodeChoiceList();
+				for (PhiNodeChoice choice : incoming) {
+					choices.add(Ast.PhiNodeChoice(choice.getLabel(), choice.getValue().copy()));
+				}
+				TemporaryVar var = Ast.TemporaryVar(phi.getVar().getName());
+				preheader.add(Ast.PhiNode(var, phi.getType(), choices));
+				value = Ast.VarRef(var);
+			}
+			for (int i = phi.getChoices().size() - 1; i >= 0; i--) {
+				if (outside.contains(phi.getChoices().get(i).getLabel())) {
+					phi.getChoices().remove(i);
+				}
+			}
+			phi.getChoices().add(Ast.PhiNodeChoice(preheader, value));
+		}
+		preheader.add(Ast.Jump(header));
+
+		for (BasicBlock pred : new LinkedHashSet<>(outside)) {
+			redirect(pred, header, preheader);
+		}
+		proc.getBasicBlocks().add(proc.getBasicBlocks().indexOf(header), preheader);
+		return true;
+	}
+
+	private static boolean allSame(List<PhiNodeChoice> choices) {
+		Operand first = choices.get(0).getValue();
+		for (PhiNodeChoice choice : choices) {
+			if (!sameOperand(first, choice.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean sameOperand(Operand a, Operand b) {
+		if (a instanceof VarRef && b instanceof VarRef) {
+			return ((VarRef) a).getVariable() == ((VarRef) b).getVariable();
+		}
+		return a instanceof Const && a.structuralEquals(b);
+	}
+
+	/** lets the terminator of block jump to newTarget instead of oldTarget */
+	static void redirect(BasicBlock block, BasicBlock oldTarget, BasicBlock newTarget) {
+		TerminatingInstruction t = block.getTerminatingInstruction().get();
+		if (t instanceof Jump) {
+			Jump jump = (Jump) t;
+			if (jump.getLabel() == oldTarget) {
+				jump.setLabel(newTarget);
+			}
+		} else if (t instanceof Branch) {
+			Branch branch = (Branch) t;
+			if (branch.getIfTrueLabel() == oldTarget) {
+				branch.setIfTrueLabel(newTarget);
+			}
+			if (branch.getIfFalseLabel() == oldTarget) {
+				branch.setIfFalseLabel(newTarget);
+			}
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package minillvm.optim;
+
+import minillvm.analysis.Dominators;
+import minillvm.analysis.InductionVariables;
+import minillvm.analysis.InductionVariables.InductionVariable;
+import minillvm.analysis.InductionVariables.LinearFunction;
+import minillvm.analysis.Loops;
+import minillvm.analysis.Loops.Loop;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Replaces computations on induction variables in loops by values
+ * which are incremented on every back edge.
+ *
+ * An address computed from an invariant pointer and an index derived from an induction
+ * variable (like a[2 * i + 1]) becomes a pointer which starts at the first address and
+ * is incremented by a constant, so the index computation is no longer needed.
+ * Multiplications of induction variables by constants which are not powers of two
+ * (those are shifted by the peephole pass) become additions in the same way.
+ * Only values which are not used after the loop are replaced.
+ */
+public class LoopStrengthReduction {
+
+	/**
+	 * @return true, if the procedure was changed
+	 */
+	public boolean optimizeProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		boolean changed = new LoopSimplify().insertPreheaders(proc);
+		return optimizeProc(proc, new Loops(proc)) || changed;
+	}
+
+	/**
+	 * Only changes instructions, loops without a preheader are skipped.
+	 *
+	 * @param loops the loops of the procedure as it is
+	 * @return true, if the procedure was changed
+	 */
+	public boolean optimizeProc(Proc proc, Loops loops) {
+		Dominators dominators = loops.getDominators();
+		boolean changed = false;
+		for (Loop loop : loops.getLoopsInnermostFirst()) {
+			if (loop.getPreheader() != null) {
+				changed |= reduce(proc, loop, dominators, new InductionVariables(loop, dominators));
+			}
+		}
+		return changed;
+	}
+
+	private boolean reduce(Proc proc, Loop loop, Dominators dominators, InductionVariables ivs) {
+		if (ivs.getBasicInductionVariables().isEmpty()) {
+			return false;
+		}
+		Map<Variable, Operand> replacements = new HashMap<>();
+		Set<Instruction> toRemove = OptimUtils.identitySet();
+		Set<Variable> usedOutside = usedOutside(proc, loop);
+		Map<Variable, Integer> useCounts = useCounts(proc);
+
+		// addresses first, so the index computations they use become dead
+		for (Instruction instr : instructions(loop)) {
+			if (!(instr instanceof GetElementPtr)) {
+				continue;
+			}
+			GetElementPtr gep = (GetElementPtr) instr;
+			// only worth it, if the index is computed just for this address
+			if (gep.getIndices().size() != 1 || !ivs.isInvariant(gep.getBaseAddress())
+					|| usedOutside.contains(gep.getVar()) || !isUsedOnce(gep.getIndices().get(0), useCounts)
+					|| !isExecutedEveryIteration(gep, loop, dominators)) {
+				continue;
+			}
+			LinearFunction f = ivs.getLinearFunction(gep.getIndices().get(0));
+			if (f == null || f.isIdentity()) {
+				continue;
+			}
+			TemporaryVar first = Ast.TemporaryVar(gep.getVar().getName());
+			OptimUtils.insertBeforeTerminator(loop.getPreheader(), Ast.GetElementPtr(first,
+					gep.getBaseAddress().copy(), Ast.OperandList(linearValue(loop.getPreheader(), f))));
+			TemporaryVar pointer = addRecurrence(loop, gep.getVar(), Ast.VarRef(first), stepOf(f), true);
+			replacements.put(gep.getVar(), Ast.VarRef(pointer));
+			toRemove.add(gep);
+		}
+		OptimUtils.removeInstructions(proc, toRemove);
+		OptimUtils.replaceVariables(proc, replacements);
+		boolean changed = !toRemove.isEmpty();
+
+		replacements.clear();
+		toRemove.clear();
+		useCounts = useCounts(proc);
+		for (Instruction instr : instructions(loop)) {
+			if (!(instr instanceof BinaryOperation) || !(((BinaryOperation) instr).getOperator() instanceof Mul)) {
+				continue;
+			}
+			BinaryOperation mul = (BinaryOperation) instr;
+			LinearFunction f = ivs.getLinearFunction(Ast.VarRef(mul.getVar()));
+			if (f == null || Integer.bitCount(Math.abs(f.getScale())) <= 1
+					|| usedOutside.contains(mul.getVar()) || useCounts.getOrDefault(mul.getVar(), 0) == 0
+					|| !isExecutedEveryIteration(mul, loop, dominators)) {
+				continue;
+			}
+			TemporaryVar value = addRecurrence(loop, mul.getVar(), linearValue(loop.getPreheader(), f), stepOf(f), false);
+			replacements.put(mul.getVar(), Ast.VarRef(value));
+			toRemove.add(mul);
+		}
+		OptimUtils.removeInstructions(proc, toRemove);
+		OptimUtils.replaceVariables(proc, replacements);
+		return changed || !toRemove.isEmpty();
+	}
+
+	/**
+	 * adds a phi node for the value of the variable to the header, which starts with the
+	 * given value and is incremented by the step (in elements for pointers) on every back edge
+	 */
+	private static TemporaryVar addRecurrence(Loop loop, Variable original, Operand start, int step, boolean pointer) {
+		TemporaryVar var = Ast.TemporaryVar(original.getName());
+		PhiNodeChoiceList choices = Ast.PhiNodeChoiceList();
+		choices.add(Ast.PhiNodeChoice(loop.getPreheader(), start));
+		for (BasicBlock latch : loop.getLatches()) {
+			TemporaryVar next = Ast.TemporaryVar(original.getName());
+			Assign increment = pointer
+					? Ast.GetElementPtr(next, Ast.VarRef(var), Ast.OperandList(Ast.ConstInt(step)))
+					: Ast.BinaryOperation(next, Ast.VarRef(var), Ast.Add(), Ast.ConstInt(step));
+			OptimUtils.insertBeforeTerminator(latch, increment);
+			choices.add(Ast.PhiNodeChoice(latch, Ast.VarRef(next)));
+		}
+		loop.getHeader().addFront(Ast.PhiNode(var, original.calculateType(), choices));
+		return var;
+	}
+
+	private static int stepOf(LinearFunction f) {
+		return f.getScale() * f.getInductionVariable().getStep();
+	}
+
+	/** computes scale * start + offset + invariant offset in the preheader */
+	private static Operand linearValue(BasicBlock preheader, LinearFunction f) {
+		InductionVariable iv = f.getInductionVariable();
+		Operand result;
+		if (iv.getStart() instanceof ConstInt) {
+			result = Ast.ConstInt(f.getScale() * ((ConstInt) iv.getStart()).getIntVal() + f.getOffset());
+		} else {
+			result = iv.getStart().copy();
+			if (f.getScale() != 1) {
+				result = emit(preheader, result, Ast.Mul(), Ast.ConstInt(f.getScale()));
+			}
+			if (f.getOffset() != 0) {
+				result = emit(preheader, result, Ast.Add(), Ast.ConstInt(f.getOffset()));
+			}
+		}
+		if (f.getInvariantOffset() != null) {
+			result = emit(preheader, result, Ast.Add(), f.getInvariantOffset().copy());
+		}
+		return result;
+	}
+
+	private static Operand emit(BasicBlock block, Operand left, Operator operator, Operand right) {
+		TemporaryVar var = Ast.TemporaryVar("first");
+		OptimUtils.insertBeforeTerminator(block, Ast.BinaryOperation(var, left, operator, right));
+		return Ast.VarRef(var);
+	}
+
+	private static boolean isUsedOnce(Operand op, Map<Variable, Integer> useCounts) {
+		return op instanceof VarRef && useCounts.getOrDefault(((VarRef) op).getVariable(), 0) == 1;
+	}
+
+	/** otherwise the increment on the back edges costs more than the instruction it replaces */
+	private static boolean isExecutedEveryIteration(Instruction instr, Loop loop, Dominators dominators) {
+		BasicBlock block = (BasicBlock) instr.getParent();
+		for (BasicBlock latch : loop.getLatches()) {
+			if (!dominators.dominates(block, latch)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** the instructions of the loop, copied so that new ones can be added while going through them */
+	private static List<Instruction> instructions(Loop loop) {
+		List<Instruction> result = new ArrayList<>();
+		for (BasicBlock block : loop.getBlocks()) {
+			result.addAll(block);
+		}
+		return result;
+	}
+
+	/** variables defined in the loop and used outside of it */
+	private static Set<Variable> usedOutside(Proc proc, Loop loop) {
+		Set<Variable> result = new HashSet<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			if (loop.contains(block)) {
+				continue;
+			}
+			block.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(VarRef varRef) {
+					Element def = varRef.getVariable().getParent();
+					if (def instanceof Instruction && loop.contains((BasicBlock) def.getParent())) {
+						result.add(varRef.getVariable());
+					}
+				}
+			});
+		}
+		return result;
+	}
+
+	private static Map<Variable, Integer> useCounts(Proc proc) {
+		Map<Variable, Integer> result = new HashMap<>();
+		proc.accept(new Element.DefaultVisitor() {
+			@Override
+			public void visit(VarRef varRef) {
+				result.merge(varRef.getVariable(), 1, Integer::sum);
+			}
+		});
+		return result;
+	}
+}
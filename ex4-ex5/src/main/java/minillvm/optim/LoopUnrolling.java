@@ -0,0 +1,477 @@
+package minillvm.optim;
+
+import minillvm.analysis.Dominators;
+import minillvm.analysis.InductionVariables;
+import minillvm.analysis.InductionVariables.LinearFunction;
+import minillvm.analysis.Loops;
+import minillvm.analysis.Loops.Loop;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Unrolls innermost loops with a single latch, whose exit condition compares an
+ * induction variable with an invariant bound (see {@link InductionVariables}).
+ *
+ * A loop with a constant number of iterations is unrolled completely, if all copies of
+ * its body fit into the budget: every copy follows the previous one and the branches
+ * deciding whether the loop is left become jumps.
+ * Other loops are unrolled partially: a new block before the header checks whether
+ * the next k iterations will all be executed and then runs k copies of the body without
+ * their exit checks. Otherwise it continues with a copy of the original loop (the remainder
+ * loop), which runs the remaining iterations.
+ */
+public class LoopUnrolling {
+
+	public static final int DEFAULT_BUDGET = 200;
+	public static final int DEFAULT_MAX_FACTOR = 4;
+
+	/** the maximum number of instructions of an unrolled loop */
+	private final int budget;
+	/** the maximum number of copies in a partially unrolled loop, 1 to only unroll loops completely */
+	private final int maxFactor;
+
+	/** the blocks of a loop and the values of the variables defined in them in one copy of the loop */
+	private static final class Copy {
+		final Map<BasicBlock, BasicBlock> blocks = new HashMap<>();
+		final Map<Variable, Operand> values = new HashMap<>();
+		final List<BasicBlock> order = new ArrayList<>();
+
+		BasicBlock get(BasicBlock original) {
+			return blocks.getOrDefault(original, original);
+		}
+
+		Operand map(Operand op) {
+			if (op instanceof VarRef && values.containsKey(((VarRef) op).getVariable())) {
+				return values.get(((VarRef) op).getVariable()).copy();
+			}
+			return op.copy();
+		}
+	}
+
+	public LoopUnrolling() {
+		this(DEFAULT_BUDGET, DEFAULT_MAX_FACTOR);
+	}
+
+	public LoopUnrolling(int budget, int maxFactor) {
+		this.budget = budget;
+		this.maxFactor = maxFactor;
+	}
+
+	/**
+	 * @return true, if the procedure was changed
+	 */
+	public boolean optimizeProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		return optimizeProc(proc, new Loops(proc));
+	}
+
+	/**
+	 * @param loops the loops of the procedure as it is
+	 * @return true, if the procedure was changed
+	 */
+	public boolean optimizeProc(Proc proc, Loops loops) {
+		boolean changed = new LoopSimplify().insertPreheaders(proc, loops);
+		if (changed) {
+			loops = new Loops(proc);
+		}
+		// the loops are found again after every change, the headers of the loops created
+		// by partial unrolling are marked as done as well
+		Set<BasicBlock> done = OptimUtils.identitySet();
+		boolean unrolled = true;
+		while (unrolled) {
+			unrolled = false;
+			for (Loop loop : loops.getLoopsInnermostFirst()) {
+				if (loop.getChildren().isEmpty() && loop.getPreheader() != null && done.add(loop.getHeader())
+						&& unroll(proc, loop, loops.getDominators(), done)) {
+					changed = unrolled = true;
+					break;
+				}
+			}
+			if (unrolled) {
+				loops = new Loops(proc);
+			}
+		}
+		return changed;
+	}
+
+	private boolean unroll(Proc proc, Loop loop, Dominators dominators, Set<BasicBlock> done) {
+		if (loop.getLatches().size() != 1) {
+			return false;
+		}
+		InductionVariables ivs = new InductionVariables(loop, dominators);
+		BasicBlock exiting = ivs.getExitingBlock();
+		if (exiting == null) {
+			return false;
+		}
+		Branch branch = (Branch) exiting.getTerminatingInstruction().get();
+		BasicBlock exit = loop.contains(branch.getIfTrueLabel()) ? branch.getIfFalseLabel() : branch.getIfTrueLabel();
+		List<VarRef> usesAfterLoop = usesAfterLoop(proc, loop, exiting, exit, dominators);
+		if (usesAfterLoop == null) {
+			return false;
+		}
+		int size = size(loop);
+		Long count = ivs.getBackedgeTakenCount();
+		if (count != null && (count + 1) * size <= budget) {
+			unrollCompletely(proc, loop, exiting, exit, count.intValue() + 1, usesAfterLoop);
+			return true;
+		}
+		// the check before every k iterations only pays off, if the loop control is a large part
+		// of the iterations, which is not the case for loops with calls
+		int factor = Math.min(maxFactor, budget / size - 1);
+		if (factor < 2 || count != null && count + 1 < 2 * factor || containsCall(loop)) {
+			return false;
+		}
+		return unrollPartially(proc, loop, ivs, exit, factor, usesAfterLoop, done);
+	}
+
+	/**
+	 * the uses of variables defined in the loop outside of it, which are not phi node
+	 * choices of the exit block coming from the exiting block,
+	 * or null if they cannot be rewritten
+	 */
+	private static List<VarRef> usesAfterLoop(Proc proc, Loop loop, BasicBlock exiting, BasicBlock exit,
+			Dominators dominators) {
+		for (BasicBlock b : loop.getExitBlocks()) {
+			// the other exits halt the program, they are shared by all copies
+			if (b != exit && !b.getPhiNodes().isEmpty()) {
+				return null;
+			}
+		}
+		Set<Variable> definedInLoop = new HashSet<>();
+		for (BasicBlock block : loop.getBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Assign) {
+					definedInLoop.add(((Assign) instr).getVar());
+				}
+			}
+		}
+		// the uses with the blocks they are in, phi node choices are used at the end of their label
+		Map<VarRef, BasicBlock> uses = new IdentityHashMap<>();
+		List<VarRef> result = new ArrayList<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			if (loop.contains(block)) {
+				continue;
+			}
+			block.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(PhiNodeChoice choice) {
+					Operand value = choice.getValue();
+					if ((block != exit || choice.getLabel() != exiting) && value instanceof VarRef
+							&& definedInLoop.contains(((VarRef) value).getVariable())) {
+						uses.put((VarRef) value, choice.getLabel());
+						result.add((VarRef) value);
+					}
+				}
+
+				@Override
+				public void visit(VarRef varRef) {
+					if (definedInLoop.contains(varRef.getVariable())) {
+						uses.put(varRef, block);
+						result.add(varRef);
+					}
+				}
+			});
+		}
+		if (result.isEmpty()) {
+			return result;
+		}
+		// the uses must be reached through the exit only
+		List<BasicBlock> preds = dominators.getPredecessors(exit);
+		if (preds.size() != 1 || preds.get(0) != exiting) {
+			return null;
+		}
+		for (VarRef use : result) {
+			if (!dominators.dominates(exit, uses.get(use))) {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	private void unrollCompletely(Proc proc, Loop loop, BasicBlock exiting, BasicBlock exit, int iterations,
+			List<VarRef> usesAfterLoop) {
+		BasicBlock header = loop.getHeader();
+		List<Copy> copies = copies(loop, iterations);
+		chain(loop, copies, header);
+		// the last copy leaves the loop, so the back edge is never taken
+		for (int i = 0; i < iterations; i++) {
+			decide(loop, copies.get(i).get(exiting), exit, i < iterations - 1);
+		}
+		rewriteExit(exiting, exit, copies.get(iterations - 1), usesAfterLoop);
+		insertCopies(proc, loop, copies.subList(1, copies.size()));
+		OptimUtils.removeUnreachableBlocks(proc);
+	}
+
+	private boolean unrollPartially(Proc proc, Loop loop, InductionVariables ivs, BasicBlock exit, int factor,
+			List<VarRef> usesAfterLoop, Set<BasicBlock> done) {
+		BasicBlock header = loop.getHeader();
+		BasicBlock exiting = ivs.getExitingBlock();
+		BasicBlock preheader = loop.getPreheader();
+		LinearFunction f = ivs.getExitFunction();
+		int step = f.getInductionVariable().getStep();
+		// the checks of the k copies compare the induction variable advanced by 0 to k - 1 steps
+		// and the offset of the exit function, so the phi node is compared with the bound minus both
+		boolean staysOnTrue = loop.contains(((Branch) exiting.getTerminatingInstruction().get()).getIfTrueLabel());
+		long distance = (long) (factor - 1) * step + f.getOffset();
+		if (distance < Integer.MIN_VALUE || distance > Integer.MAX_VALUE) {
+			return false;
+		}
+
+		// the bound the value at the start of the k iterations has to stay within
+		Operand bound = ivs.getExitBound();
+		Operand adjusted;
+		Operand noOverflow = null;
+		if (distance == 0) {
+			adjusted = bound.copy();
+		} else if (bound instanceof ConstInt) {
+			long value = ((ConstInt) bound).getIntVal() - distance;
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+				return false;
+			}
+			adjusted = Ast.ConstInt((int) value);
+		} else {
+			TemporaryVar var = Ast.TemporaryVar("bound");
+			OptimUtils.insertBeforeTerminator(preheader,
+					Ast.BinaryOperation(var, bound.copy(), Ast.Sub(), Ast.ConstInt((int) distance)));
+			TemporaryVar ok = Ast.TemporaryVar("noOverflow");
+			OptimUtils.insertBeforeTerminator(preheader, distance > 0
+					? Ast.BinaryOperation(ok, Ast.VarRef(var), Ast.Slt(), bound.copy())
+					: Ast.BinaryOperation(ok, bound.copy(), Ast.Slt(), Ast.VarRef(var)));
+			adjusted = Ast.VarRef(var);
+			noOverflow = Ast.VarRef(ok);
+		}
+
+		Copy remainder = copy(loop, Collections.emptyMap(), true);
+		List<Copy> copies = copies(loop, factor);
+		BasicBlock check = Ast.BasicBlock();
+		check.setName("unrolled");
+		chain(loop, copies, check);
+		for (Copy copy : copies) {
+			decide(loop, copy.get(exiting), exit, true);
+		}
+
+		// the phi nodes of the header move to the check, the remainder loop starts with their values
+		BasicBlock remainderHeader = remainder.get(header);
+		List<PhiNode> phis = header.getPhiNodes();
+		List<PhiNode> remainderPhis = remainderHeader.getPhiNodes();
+		for (int i = 0; i < phis.size(); i++) {
+			for (PhiNodeChoice choice : remainderPhis.get(i).getChoices()) {
+				if (choice.getLabel() == preheader) {
+					choice.setLabel(check);
+					choice.setValue(Ast.VarRef(phis.get(i).getVar()));
+				}
+			}
+		}
+		for (int i = header.size() - 1; i >= 0; i--) {
+			if (header.get(i) instanceof PhiNode) {
+				header.remove(i);
+			}
+		}
+		for (PhiNode phi : phis) {
+			check.add(phi);
+		}
+
+		Operand value = Ast.VarRef(f.getInductionVariable().getPhi().getVar());
+		BinaryOperation comparison = ivs.getExitComparison();
+		boolean boundOnLeft = comparison.getLeft() == bound;
+		TemporaryVar result = Ast.TemporaryVar("unrolled");
+		check.add(Ast.BinaryOperation(result, boundOnLeft ? adjusted : value, comparison.getOperator().copy(),
+				boundOnLeft ? value : adjusted));
+		Operand condition = Ast.VarRef(result);
+		if (noOverflow != null) {
+			TemporaryVar var = Ast.TemporaryVar("unrolled");
+			check.add(Ast.Select(var, noOverflow, condition, Ast.ConstBool(!staysOnTrue)));
+			condition = Ast.VarRef(var);
+		}
+		check.add(staysOnTrue
+				? Ast.Branch(condition, header, remainderHeader)
+				: Ast.Branch(condition, remainderHeader, header));
+		LoopSimplify.redirect(preheader, header, check);
+
+		rewriteExit(exiting, exit, remainder, usesAfterLoop);
+
+		proc.getBasicBlocks().add(proc.getBasicBlocks().indexOf(header), check);
+		List<Copy> added = new ArrayList<>(copies.subList(1, copies.size()));
+		added.add(remainder);
+		insertCopies(proc, loop, added);
+		done.add(check);
+		done.add(remainderHeader);
+		return true;
+	}
+
+	/**
+	 * the loop itself followed by copies without phi nodes in the header,
+	 * which continue with the values of the previous copy
+	 */
+	private static List<Copy> copies(Loop loop, int count) {
+		BasicBlock latch = loop.getLatches().get(0);
+		List<Copy> copies = new ArrayList<>();
+		copies.add(new Copy());
+		for (int i = 1; i < count; i++) {
+			Copy previous = copies.get(i - 1);
+			Map<Variable, Operand> start = new HashMap<>();
+			for (PhiNode phi : loop.getHeader().getPhiNodes()) {
+				for (PhiNodeChoice choice : phi.getChoices()) {
+					if (choice.getLabel() == latch) {
+						start.put(phi.getVar(), previous.map(choice.getValue()));
+					}
+				}
+			}
+			copies.add(copy(loop, start, false));
+		}
+		return copies;
+	}
+
+	/**
+	 * copies the blocks of the loop, the given values replace the phi nodes
+	 * of the header, unless they are kept
+	 */
+	private static Copy copy(Loop loop, Map<Variable, Operand> start, boolean keepPhis) {
+		Copy copy = new Copy();
+		for (BasicBlock original : loop.getBlocks()) {
+			BasicBlock block = original.copy();
+			block.setName(original.getName());
+			for (int i = 0; i < original.size(); i++) {
+				if (original.get(i) instanceof Assign) {
+					copy.values.put(((Assign) original.get(i)).getVar(), Ast.VarRef(((Assign) block.get(i)).getVar()));
+				}
+			}
+			copy.blocks.put(original, block);
+			copy.order.add(block);
+		}
+		if (!keepPhis) {
+			BasicBlock header = copy.get(loop.getHeader());
+			for (int i = header.size() - 1; i >= 0; i--) {
+				if (header.get(i) instanceof PhiNode) {
+					header.remove(i);
+				}
+			}
+			copy.values.putAll(start);
+		}
+
+		List<VarRef> uses = new ArrayList<>();
+		for (BasicBlock block : copy.order) {
+			block.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(VarRef varRef) {
+					if (copy.values.containsKey(varRef.getVariable())) {
+						uses.add(varRef);
+					}
+				}
+
+				@Override
+				public void visit(PhiNodeChoice choice) {
+					super.visit(choice);
+					choice.setLabel(copy.get(choice.getLabel()));
+				}
+			});
+			TerminatingInstruction t = block.getTerminatingInstruction().get();
+			if (t instanceof Jump) {
+				((Jump) t).setLabel(copy.get(((Jump) t).getLabel()));
+			} else if (t instanceof Branch) {
+				Branch branch = (Branch) t;
+				branch.setIfTrueLabel(copy.get(branch.getIfTrueLabel()));
+				branch.setIfFalseLabel(copy.get(branch.getIfFalseLabel()));
+			}
+		}
+		for (VarRef use : uses) {
+			use.replaceBy(copy.values.get(use.getVariable()).copy());
+		}
+		return copy;
+	}
+
+	/**
+	 * lets the latch of every copy jump to the header of the next one,
+	 * the last one jumps back to the given block
+	 */
+	private static void chain(Loop loop, List<Copy> copies, BasicBlock back) {
+		BasicBlock header = loop.getHeader();
+		BasicBlock latch = loop.getLatches().get(0);
+		for (int i = 0; i < copies.size(); i++) {
+			Copy copy = copies.get(i);
+			BasicBlock target = i < copies.size() - 1 ? copies.get(i + 1).get(header) : back;
+			LoopSimplify.redirect(copy.get(latch), copy.get(header), target);
+		}
+		Copy last = copies.get(copies.size() - 1);
+		for (PhiNode phi : header.getPhiNodes()) {
+			for (PhiNodeChoice choice : phi.getChoices()) {
+				if (choice.getLabel() == latch) {
+					choice.setValue(last.map(choice.getValue()));
+					choice.setLabel(last.get(latch));
+				}
+			}
+		}
+	}
+
+	/** replaces the branch of a copy of the exiting block by a jump */
+	private static void decide(Loop loop, BasicBlock exiting, BasicBlock exit, boolean stay) {
+		Branch branch = (Branch) exiting.getTerminatingInstruction().get();
+		boolean staysOnTrue = branch.getIfTrueLabel() != exit;
+		BasicBlock target = stay == staysOnTrue ? branch.getIfTrueLabel() : branch.getIfFalseLabel();
+		BasicBlock other = stay == staysOnTrue ? branch.getIfFalseLabel() : branch.getIfTrueLabel();
+		branch.replaceBy(Ast.Jump(target));
+		if (other != exit) {
+			OptimUtils.removePhiChoice(other, exiting);
+		}
+	}
+
+	/**
+	 * lets the exit block and the uses after the loop take the values from the given copy
+	 * of the exiting block, which is the only one still jumping to it
+	 */
+	private static void rewriteExit(BasicBlock exiting, BasicBlock exit, Copy copy, List<VarRef> usesAfterLoop) {
+		for (PhiNode phi : exit.getPhiNodes()) {
+			for (PhiNodeChoice choice : phi.getChoices()) {
+				if (choice.getLabel() == exiting) {
+					choice.setLabel(copy.get(exiting));
+					choice.setValue(copy.map(choice.getValue()));
+				}
+			}
+		}
+		for (VarRef use : usesAfterLoop) {
+			use.replaceBy(copy.map(use));
+		}
+	}
+
+	/** adds the blocks of the copies after the last block of the loop */
+	private static void insertCopies(Proc proc, Loop loop, List<Copy> copies) {
+		int position = 0;
+		for (int i = 0; i < proc.getBasicBlocks().size(); i++) {
+			if (loop.contains(proc.getBasicBlocks().get(i))) {
+				position = i + 1;
+			}
+		}
+		for (Copy copy : copies) {
+			for (BasicBlock block : copy.order) {
+				proc.getBasicBlocks().add(position++, block);
+			}
+		}
+	}
+
+	private static boolean containsCall(Loop loop) {
+		for (BasicBlock block : loop.getBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Call) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/** the number of instructions, not counting comments */
+	private static int size(Loop loop) {
+		int size = 0;
+		for (BasicBlock block : loop.getBlocks()) {
+			for (Instruction instr : block) {
+				if (!(instr instanceof CommentInstr)) {
+					size++;
+				}
+			}
+		}
+		return size;
+	}
+}
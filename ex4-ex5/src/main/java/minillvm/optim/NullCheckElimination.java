@@ -0,0 +1,223 @@
+package minillvm.optim;
+
+import minillvm.analysis.AliasAnalysis;
+import minillvm.analysis.Dominators;
+import minillvm.ast.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Removes null checks of pointers which are known to be not null.
+ *
+ * A pointer is not null, if it is the receiver this, a newly allocated object or array,
+ * a global, the result of a procedure which never returns null (like a constructor),
+ * a vtable pointer, or a phi of such pointers.
+ * In addition a forward dataflow analysis collects the pointers compared to null
+ * on all paths reaching a block, so repeated checks of the same pointer are removed as well.
+ */
+public class NullCheckElimination {
+
+	private AliasAnalysis aliasAnalysis;
+	/** procedures which never return null */
+	private Set<Proc> nonNullProcs;
+	/** for every block the pointers known to be not null at its start */
+	private Map<Proc, Map<BasicBlock, Set<Variable>>> checked;
+	/** phi nodes of pointers which are never null */
+	private Set<Variable> nonNullPhis;
+
+	/**
+	 * @return true, if some check was removed
+	 */
+	public boolean optimizeProgram(Prog prog) {
+		return optimizeProgram(prog, Dominators::new);
+	}
+
+	/**
+	 * @param dominators the dominators of a procedure as it is
+	 * @return true, if some check was removed
+	 */
+	public boolean optimizeProgram(Prog prog, Function<Proc, Dominators> dominators) {
+		aliasAnalysis = new AliasAnalysis(prog);
+		checked = new HashMap<>();
+		nonNullProcs = new HashSet<>();
+		nonNullPhis = new HashSet<>();
+		for (Proc proc : prog.getProcedures()) {
+			if (proc.getBasicBlocks().isEmpty()) {
+				continue;
+			}
+			checked.put(proc, computeCheckedPointers(dominators.apply(proc)));
+			if (proc.getReturnType() instanceof TypePointer) {
+				nonNullProcs.add(proc);
+			}
+			for (BasicBlock block : proc.getBasicBlocks()) {
+				for (PhiNode phi : block.getPhiNodes()) {
+					if (phi.getType() instanceof TypePointer) {
+						nonNullPhis.add(phi.getVar());
+					}
+				}
+			}
+		}
+
+		// start optimistic and remove procedures and phis until the assumptions hold
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Proc proc : checked.keySet()) {
+				Map<BasicBlock, Set<Variable>> in = checked.get(proc);
+				for (BasicBlock block : proc.getBasicBlocks()) {
+					if (!in.containsKey(block)) {
+						continue;
+					}
+					for (PhiNode phi : block.getPhiNodes()) {
+						if (nonNullPhis.contains(phi.getVar()) && !allChoicesNonNull(phi, block, in)) {
+							nonNullPhis.remove(phi.getVar());
+							changed = true;
+						}
+					}
+					Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+					if (nonNullProcs.contains(proc) && t.isPresent() && t.get() instanceof ReturnExpr
+							&& !isNonNull(((ReturnExpr) t.get()).getReturnValue(), in.get(block))) {
+						nonNullProcs.remove(proc);
+						changed = true;
+					}
+				}
+			}
+		}
+
+		boolean removed = false;
+		for (Proc proc : checked.keySet()) {
+			removed |= optimizeProc(proc);
+		}
+		return removed;
+	}
+
+	private boolean allChoicesNonNull(PhiNode phi, BasicBlock block, Map<BasicBlock, Set<Variable>> in) {
+		for (PhiNodeChoice choice : phi.getChoices()) {
+			Set<Variable> atEdge = in.containsKey(choice.getLabel()) ? edgeOut(choice.getLabel(), block, in) : null;
+			if (atEdge != null && !isNonNull(choice.getValue(), atEdge)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean optimizeProc(Proc proc) {
+		Map<BasicBlock, Set<Variable>> in = checked.get(proc);
+		boolean changed = false;
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+			if (!in.containsKey(block) || !t.isPresent() || !(t.get() instanceof Branch)) {
+				continue;
+			}
+			Branch branch = (Branch) t.get();
+			Operand compared = comparedToNull(branch.getCondition());
+			if (compared != null && isNonNull(compared, in.get(block))) {
+				branch.setCondition(Ast.ConstBool(false));
+				changed = true;
+			}
+		}
+		if (changed) {
+			new ConstantPropagation().optimizeProc(proc);
+		}
+		return changed;
+	}
+
+	/**
+	 * computes the pointers checked on all paths to a block
+	 * (blocks not reachable from the entry have no entry in the result)
+	 */
+	private Map<BasicBlock, Set<Variable>> computeCheckedPointers(Dominators dominators) {
+		Map<BasicBlock, Set<Variable>> in = new HashMap<>();
+		in.put(dominators.getReversePostorder().get(0), new HashSet<>());
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock block : dominators.getReversePostorder()) {
+				Set<Variable> result = null;
+				for (BasicBlock pred : dominators.getPredecessors(block)) {
+					if (!in.containsKey(pred)) {
+						// not visited yet, so no restriction
+						continue;
+					}
+					Set<Variable> out = edgeOut(pred, block, in);
+					if (result == null) {
+						result = out;
+					} else {
+						result.retainAll(out);
+					}
+				}
+				if (result != null && !result.equals(in.get(block)) && block != dominators.getReversePostorder().get(0)) {
+					in.put(block, result);
+					changed = true;
+				}
+			}
+		}
+		return in;
+	}
+
+	/** the pointers known to be not null when control flows from the block to the successor */
+	private static Set<Variable> edgeOut(BasicBlock from, BasicBlock to, Map<BasicBlock, Set<Variable>> in) {
+		Set<Variable> result = new HashSet<>(in.get(from));
+		Optional<TerminatingInstruction> t = from.getTerminatingInstruction();
+		if (t.isPresent() && t.get() instanceof Branch) {
+			Branch branch = (Branch) t.get();
+			Operand compared = comparedToNull(branch.getCondition());
+			if (compared instanceof VarRef && branch.getIfFalseLabel() == to && branch.getIfTrueLabel() != to) {
+				result.add(((VarRef) compared).getVariable());
+			}
+		}
+		return result;
+	}
+
+	/** for a condition x == null returns x with bitcasts removed, otherwise null */
+	private static Operand comparedToNull(Operand condition) {
+		Assign def = AliasAnalysis.definition(condition);
+		if (!(def instanceof BinaryOperation) || !(((BinaryOperation) def).getOperator() instanceof Eq)) {
+			return null;
+		}
+		BinaryOperation eq = (BinaryOperation) def;
+		Operand compared = eq.getRight() instanceof Nullpointer ? eq.getLeft()
+				: eq.getLeft() instanceof Nullpointer ? eq.getRight() : null;
+		return compared == null ? null : stripBitcasts(compared);
+	}
+
+	private static Operand stripBitcasts(Operand op) {
+		while (AliasAnalysis.definition(op) instanceof Bitcast) {
+			op = ((Bitcast) AliasAnalysis.definition(op)).getExpr();
+		}
+		return op;
+	}
+
+	private boolean isNonNull(Operand op, Set<Variable> checkedPointers) {
+		op = stripBitcasts(op);
+		if (op instanceof VarRef && checkedPointers.contains(((VarRef) op).getVariable())) {
+			return true;
+		}
+		Operand base = AliasAnalysis.getBasePointer(op);
+		if (base instanceof GlobalRef) {
+			return true;
+		} else if (!(base instanceof VarRef)) {
+			return false;
+		}
+		Variable v = ((VarRef) base).getVariable();
+		if (checkedPointers.contains(v)) {
+			return true;
+		} else if (v instanceof Parameter) {
+			// methods are only called on objects which are not null
+			return v.getName().equals("this");
+		}
+		Assign def = AliasAnalysis.definition(base);
+		if (def instanceof Alloc || def instanceof AllocZeroed || def instanceof Alloca) {
+			return true;
+		} else if (def instanceof PhiNode) {
+			return nonNullPhis.contains(v);
+		} else if (def instanceof Call) {
+			Operand function = ((Call) def).getFunction();
+			return function instanceof ProcedureRef && nonNullProcs.contains(((ProcedureRef) function).getProcedure());
+		} else if (def instanceof Load) {
+			return aliasAnalysis.loadsConstantPointer(((Load) def).getAddress());
+		}
+		return false;
+	}
+}
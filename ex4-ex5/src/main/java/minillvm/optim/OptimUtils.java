@@ -0,0 +1,162 @@
+package minillvm.optim;
+
+import minillvm.analysis.Dominators;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * helper functions shared by the optimizations
+ */
+public class OptimUtils {
+
+	private OptimUtils() {
+	}
+
+	/** a constant used for reading a variable that was never written */
+	public static Operand defaultValue(Type type) {
+		if (type instanceof TypeBool) {
+			return Ast.ConstBool(false);
+		} else if (type instanceof TypeInt || type instanceof TypeByte) {
+			return Ast.ConstInt(0);
+		}
+		return Ast.Nullpointer();
+	}
+
+	/**
+	 * replaces all references to the variables in the map with the mapped operands
+	 * (mapped operands may again refer to replaced variables)
+	 */
+	public static void replaceVariables(Proc proc, Map<Variable, Operand> replacements) {
+		if (replacements.isEmpty()) {
+			return;
+		}
+		List<VarRef> uses = new ArrayList<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			block.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(VarRef varRef) {
+					if (replacements.containsKey(varRef.getVariable())) {
+						uses.add(varRef);
+					}
+				}
+			});
+		}
+		for (VarRef use : uses) {
+			use.replaceBy(resolve(replacements, use.getVariable()).copy());
+		}
+	}
+
+	private static Operand resolve(Map<Variable, Operand> replacements, Variable v) {
+		Operand result = replacements.get(v);
+		int steps = 0;
+		while (result instanceof VarRef && replacements.containsKey(((VarRef) result).getVariable())) {
+			Operand next = replacements.get(((VarRef) result).getVariable());
+			if (next == result || ++steps > replacements.size()) {
+				break;
+			}
+			result = next;
+		}
+		return result;
+	}
+
+	/**
+	 * removes all blocks which cannot be reached from the entry block
+	 * and the phi node choices coming from them
+	 *
+	 * @return true, if some block was removed
+	 */
+	public static boolean removeUnreachableBlocks(Proc proc) {
+		return removeUnreachableBlocks(proc, new Dominators(proc));
+	}
+
+	/**
+	 * @param dominators the dominators of the procedure as it is
+	 */
+	public static boolean removeUnreachableBlocks(Proc proc, Dominators dominators) {
+		List<BasicBlock> unreachable = new ArrayList<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			if (!dominators.isReachable(block)) {
+				unreachable.add(block);
+			}
+		}
+		if (unreachable.isEmpty()) {
+			return false;
+		}
+		Set<BasicBlock> removed = identitySet();
+		removed.addAll(unreachable);
+		for (int i = proc.getBasicBlocks().size() - 1; i >= 0; i--) {
+			if (removed.contains(proc.getBasicBlocks().get(i))) {
+				proc.getBasicBlocks().remove(i);
+			}
+		}
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (PhiNode phi : block.getPhiNodes()) {
+				PhiNodeChoiceList choices = phi.getChoices();
+				for (int i = choices.size() - 1; i >= 0; i--) {
+					if (removed.contains(choices.get(i).getLabel())) {
+						choices.remove(i);
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/** removes one choice for the given predecessor from each phi node in the block */
+	public static void removePhiChoice(BasicBlock block, BasicBlock pred) {
+		for (PhiNode phi : block.getPhiNodes()) {
+			PhiNodeChoiceList choices = phi.getChoices();
+			for (int i = 0; i < choices.size(); i++) {
+				if (choices.get(i).getLabel() == pred) {
+					choices.remove(i);
+					break;
+				}
+			}
+		}
+	}
+
+	/** lets the phi node choices of the block coming from oldPred come from newPred instead */
+	public static void replacePhiLabel(BasicBlock block, BasicBlock oldPred, BasicBlock newPred) {
+		for (PhiNode phi : block.getPhiNodes()) {
+			for (PhiNodeChoice choice : phi.getChoices()) {
+				if (choice.getLabel() == oldPred) {
+					choice.setLabel(newPred);
+				}
+			}
+		}
+	}
+
+	/** removes the given instructions from the procedure */
+	public static void removeInstructions(Proc proc, Set<Instruction> toRemove) {
+		if (toRemove.isEmpty()) {
+			return;
+		}
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (int i = block.size() - 1; i >= 0; i--) {
+				if (toRemove.contains(block.get(i))) {
+					block.remove(i);
+				}
+			}
+		}
+	}
+
+	/** adds the instruction to the block, right before its terminating instruction */
+	public static void insertBeforeTerminator(BasicBlock block, Instruction instr) {
+		Optional<TerminatingInstruction> terminator = block.getTerminatingInstruction();
+		if (!terminator.isPresent()) {
+			block.add(instr);
+			return;
+		}
+		for (int i = block.size() - 1; i >= 0; i--) {
+			if (block.get(i) == terminator.get()) {
+				block.add(i, instr);
+				return;
+			}
+		}
+	}
+
+	public static <T> Set<T> identitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+}
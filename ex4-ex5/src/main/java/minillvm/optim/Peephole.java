@@ -0,0 +1,331 @@
+package minillvm.optim;
+
+import minillvm.analysis.AliasAnalysis;
+import minillvm.ast.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Simplifies single instructions with a table of rewrite rules, until no rule applies anymore.
+ *
+ * A rule looks at an instruction (and the definitions of its operands) and either
+ * returns an operand with the same value, which then replaces the variable of the instruction,
+ * or changes the instruction in place and returns it.
+ * Every rule counts how often it was applied.
+ */
+public class Peephole {
+
+	/** a named rewrite rule with a counter of its applications */
+	public static final class Rule {
+		private final String name;
+		private final Function<Assign, Element> rewrite;
+		private int hits;
+
+		/**
+		 * @param rewrite returns an operand replacing the variable, the changed instruction
+		 *                or null, if the rule does not apply
+		 */
+		public Rule(String name, Function<Assign, Element> rewrite) {
+			this.name = name;
+			this.rewrite = rewrite;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getHits() {
+			return hits;
+		}
+	}
+
+	private final List<Rule> rules;
+
+	public Peephole() {
+		this(defaultRules());
+	}
+
+	public Peephole(List<Rule> rules) {
+		this.rules = new ArrayList<>(rules);
+	}
+
+	/** the rules for the patterns created by the translation, in the order they are tried */
+	public static List<Rule> defaultRules() {
+		return new ArrayList<>(Arrays.asList(
+				new Rule("constant to the right", Peephole::constantToTheRight),
+				new Rule("bitcast to the same type", Peephole::noopBitcast),
+				new Rule("bitcast of a bitcast", Peephole::bitcastOfBitcast),
+				new Rule("getelementptr of a getelementptr", Peephole::gepOfGep),
+				new Rule("comparison with a boolean", Peephole::compareWithBool),
+				new Rule("double negation", Peephole::doubleNegation),
+				new Rule("boolean identities", Peephole::booleanIdentities),
+				new Rule("neutral operand", Peephole::neutralOperand),
+				new Rule("multiplication by a power of two", Peephole::multiplyByPowerOfTwo),
+				new Rule("addition of constants", Peephole::addConstants),
+				new Rule("select of equal values", Peephole::selectOfEqualValues)));
+	}
+
+	public void addRule(Rule rule) {
+		rules.add(rule);
+	}
+
+	public List<Rule> getRules() {
+		return Collections.unmodifiableList(rules);
+	}
+
+	/** the number of applications of every rule */
+	public Map<String, Integer> getHitCounts() {
+		Map<String, Integer> result = new LinkedHashMap<>();
+		for (Rule rule : rules) {
+			result.put(rule.getName(), rule.getHits());
+		}
+		return result;
+	}
+
+	public void optimizeProgram(Prog prog) {
+		for (Proc proc : prog.getProcedures()) {
+			optimizeProc(proc);
+		}
+	}
+
+	/**
+	 * @return true, if some rule was applied
+	 */
+	public boolean optimizeProc(Proc proc) {
+		boolean applied = false;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			Map<Variable, Operand> replacements = new HashMap<>();
+			Set<Instruction> removed = OptimUtils.identitySet();
+			for (BasicBlock block : proc.getBasicBlocks()) {
+				for (Instruction instr : block) {
+					if (instr instanceof Assign && !(instr instanceof PhiNode)) {
+						changed |= simplify((Assign) instr, replacements, removed);
+					}
+				}
+			}
+			OptimUtils.removeInstructions(proc, removed);
+			OptimUtils.replaceVariables(proc, replacements);
+			applied |= changed;
+		}
+		return applied;
+	}
+
+	/** applies the rules to the instruction until it is replaced or no rule applies */
+	private boolean simplify(Assign assign, Map<Variable, Operand> replacements, Set<Instruction> removed) {
+		boolean changed = false;
+		boolean applied = true;
+		while (applied) {
+			applied = false;
+			for (Rule rule : rules) {
+				Element result = rule.rewrite.apply(assign);
+				if (result == null) {
+					continue;
+				}
+				rule.hits++;
+				changed = true;
+				if (result instanceof Operand) {
+					replacements.put(assign.getVar(), ((Operand) result).copy());
+					removed.add(assign);
+					return true;
+				}
+				applied = true;
+				break;
+			}
+		}
+		return changed;
+	}
+
+	// rules
+
+	private static Element constantToTheRight(Assign assign) {
+		if (!(assign instanceof BinaryOperation)) {
+			return null;
+		}
+		BinaryOperation op = (BinaryOperation) assign;
+		Operator operator = op.getOperator();
+		boolean commutative = operator instanceof Add || operator instanceof Mul || operator instanceof And
+				|| operator instanceof Or || operator instanceof Xor || operator instanceof Eq;
+		if (!commutative || !(op.getLeft() instanceof Const) || op.getRight() instanceof Const) {
+			return null;
+		}
+		Operand left = op.getLeft();
+		op.setLeft(op.getRight().copy());
+		op.setRight(left.copy());
+		return op;
+	}
+
+	private static Element noopBitcast(Assign assign) {
+		if (!(assign instanceof Bitcast)) {
+			return null;
+		}
+		Bitcast bitcast = (Bitcast) assign;
+		// null has to keep the type of the bitcast
+		if (bitcast.getExpr() instanceof Nullpointer) {
+			return null;
+		}
+		return bitcast.getType().equalsType(bitcast.getExpr().calculateType()) ? bitcast.getExpr() : null;
+	}
+
+	private static Element bitcastOfBitcast(Assign assign) {
+		if (!(assign instanceof Bitcast)) {
+			return null;
+		}
+		Bitcast bitcast = (Bitcast) assign;
+		Assign def = AliasAnalysis.definition(bitcast.getExpr());
+		if (!(def instanceof Bitcast)) {
+			return null;
+		}
+		bitcast.setExpr(((Bitcast) def).getExpr().copy());
+		return bitcast;
+	}
+
+	private static Element gepOfGep(Assign assign) {
+		if (!(assign instanceof GetElementPtr) || ((GetElementPtr) assign).getIndices().size() != 1
+				|| !(((GetElementPtr) assign).getIndices().get(0) instanceof ConstInt)) {
+			return null;
+		}
+		GetElementPtr gep = (GetElementPtr) assign;
+		int index = ((ConstInt) gep.getIndices().get(0)).getIntVal();
+		if (index == 0) {
+			return gep.getBaseAddress();
+		}
+		Assign def = AliasAnalysis.definition(gep.getBaseAddress());
+		if (!(def instanceof GetElementPtr) || ((GetElementPtr) def).getIndices().size() != 1
+				|| !(((GetElementPtr) def).getIndices().get(0) instanceof ConstInt)) {
+			return null;
+		}
+		GetElementPtr inner = (GetElementPtr) def;
+		gep.setBaseAddress(inner.getBaseAddress().copy());
+		gep.getIndices().set(0, Ast.ConstInt(index + ((ConstInt) inner.getIndices().get(0)).getIntVal()));
+		return gep;
+	}
+
+	/** x == true is x and x == false is !x */
+	private static Element compareWithBool(Assign assign) {
+		if (!isOperation(assign, Eq.class) || !(((BinaryOperation) assign).getRight() instanceof ConstBool)
+				|| ((BinaryOperation) assign).getLeft() instanceof Const) {
+			return null;
+		}
+		BinaryOperation op = (BinaryOperation) assign;
+		if (((ConstBool) op.getRight()).getBoolVal()) {
+			return op.getLeft();
+		}
+		op.setOperator(Ast.Xor());
+		op.setRight(Ast.ConstBool(true));
+		return op;
+	}
+
+	/** (x ^ a) ^ b is x ^ (a ^ b) for constants a and b */
+	private static Element doubleNegation(Assign assign) {
+		if (!isOperation(assign, Xor.class) || !(((BinaryOperation) assign).getRight() instanceof ConstBool)) {
+			return null;
+		}
+		BinaryOperation op = (BinaryOperation) assign;
+		Assign def = AliasAnalysis.definition(op.getLeft());
+		if (!isOperation(def, Xor.class) || !(((BinaryOperation) def).getRight() instanceof ConstBool)) {
+			return null;
+		}
+		BinaryOperation inner = (BinaryOperation) def;
+		boolean negated = ((ConstBool) op.getRight()).getBoolVal() != ((ConstBool) inner.getRight()).getBoolVal();
+		if (!negated) {
+			return inner.getLeft();
+		}
+		op.setLeft(inner.getLeft().copy());
+		op.setRight(Ast.ConstBool(true));
+		return op;
+	}
+
+	/** x && true, x && false, x || true, x || false and x ^ false */
+	private static Element booleanIdentities(Assign assign) {
+		if (!(assign instanceof BinaryOperation) || !(((BinaryOperation) assign).getRight() instanceof ConstBool)) {
+			return null;
+		}
+		BinaryOperation op = (BinaryOperation) assign;
+		boolean value = ((ConstBool) op.getRight()).getBoolVal();
+		Operator operator = op.getOperator();
+		if (operator instanceof And) {
+			return value ? op.getLeft() : Ast.ConstBool(false);
+		} else if (operator instanceof Or) {
+			return value ? Ast.ConstBool(true) : op.getLeft();
+		} else if (operator instanceof Xor && !value) {
+			return op.getLeft();
+		}
+		return null;
+	}
+
+	/** x + 0, x - 0, x * 1, x * 0, x / 1 and x << 0 */
+	private static Element neutralOperand(Assign assign) {
+		if (!(assign instanceof BinaryOperation) || !(((BinaryOperation) assign).getRight() instanceof ConstInt)) {
+			return null;
+		}
+		BinaryOperation op = (BinaryOperation) assign;
+		int value = ((ConstInt) op.getRight()).getIntVal();
+		Operator operator = op.getOperator();
+		if (value == 0 && (operator instanceof Add || operator instanceof Sub || operator instanceof Shl)) {
+			return op.getLeft();
+		} else if (value == 0 && operator instanceof Mul) {
+			return Ast.ConstInt(0);
+		} else if (value == 1 && (operator instanceof Mul || operator instanceof Sdiv)) {
+			return op.getLeft();
+		}
+		return null;
+	}
+
+	private static Element multiplyByPowerOfTwo(Assign assign) {
+		if (!isOperation(assign, Mul.class) || !(((BinaryOperation) assign).getRight() instanceof ConstInt)) {
+			return null;
+		}
+		BinaryOperation op = (BinaryOperation) assign;
+		int value = ((ConstInt) op.getRight()).getIntVal();
+		if (value <= 1 || Integer.bitCount(value) != 1) {
+			return null;
+		}
+		op.setOperator(Ast.Shl());
+		op.setRight(Ast.ConstInt(Integer.numberOfTrailingZeros(value)));
+		return op;
+	}
+
+	/** (x + a) + b is x + (a + b) for constants a and b */
+	private static Element addConstants(Assign assign) {
+		if (!isOperation(assign, Add.class) || !(((BinaryOperation) assign).getRight() instanceof ConstInt)) {
+			return null;
+		}
+		BinaryOperation op = (BinaryOperation) assign;
+		Assign def = AliasAnalysis.definition(op.getLeft());
+		if (!isOperation(def, Add.class) || !(((BinaryOperation) def).getRight() instanceof ConstInt)) {
+			return null;
+		}
+		BinaryOperation inner = (BinaryOperation) def;
+		int sum = ((ConstInt) op.getRight()).getIntVal() + ((ConstInt) inner.getRight()).getIntVal();
+		op.setLeft(inner.getLeft().copy());
+		op.setRight(Ast.ConstInt(sum));
+		return op;
+	}
+
+	/** c ? x : x is x and c ? true : false is c */
+	private static Element selectOfEqualValues(Assign assign) {
+		if (!(assign instanceof Select)) {
+			return null;
+		}
+		Select select = (Select) assign;
+		Operand ifTrue = select.getIfTrue();
+		Operand ifFalse = select.getIfFalse();
+		if (ifTrue instanceof VarRef && ifFalse instanceof VarRef
+				&& ((VarRef) ifTrue).getVariable() == ((VarRef) ifFalse).getVariable()) {
+			return ifTrue;
+		} else if (ifTrue instanceof Const && ifTrue.structuralEquals(ifFalse)) {
+			return ifTrue;
+		} else if (ifTrue instanceof ConstBool && ifFalse instanceof ConstBool
+				&& ((ConstBool) ifTrue).getBoolVal() && !((ConstBool) ifFalse).getBoolVal()) {
+			return select.getCondition();
+		}
+		return null;
+	}
+
+	private static boolean isOperation(Assign assign, Class<? extends Operator> operator) {
+		return assign instanceof BinaryOperation && operator.isInstance(((BinaryOperation) assign).getOperator());
+	}
+}
@@ -0,0 +1,890 @@
+package minillvm.optim;
+
+import minillvm.analysis.AliasAnalysis;
+import minillvm.analysis.Dominators;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Removes array bounds checks, division by zero checks and overflow checks
+ * which can never fail.
+ *
+ * An interval is computed for every integer variable. Branch conditions refine
+ * the intervals of the compared variables in the blocks dominated by the branch
+ * and are also kept as relations between variables, so that an index checked
+ * by a loop condition like i < a.length is known to be in bounds in the loop body.
+ * Conditions which are always true or always false are replaced by constants
+ * and the branches on them are folded by constant propagation.
+ */
+public class RangeCheckElimination {
+
+	private static final int MAX_PASSES = 100;
+	private static final int WIDENING_DELAY = 2;
+	private static final int NARROWING_PASSES = 2;
+	private static final int MAX_DEPTH = 4;
+
+	private static final class Range {
+		static final Range FULL = new Range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		static final Range BOOL = new Range(0, 1);
+		static final Range EMPTY = new Range(1, 0);
+
+		final long lo;
+		final long hi;
+
+		Range(long lo, long hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		static Range of(long lo, long hi) {
+			if (lo > hi) {
+				return EMPTY;
+			}
+			if (lo < Integer.MIN_VALUE || hi > Integer.MAX_VALUE) {
+				// the operation might overflow
+				return FULL;
+			}
+			return new Range(lo, hi);
+		}
+
+		boolean isEmpty() {
+			return lo > hi;
+		}
+
+		boolean contains(long v) {
+			return lo <= v && v <= hi;
+		}
+
+		Range join(Range other) {
+			if (isEmpty()) {
+				return other;
+			} else if (other.isEmpty()) {
+				return this;
+			}
+			return new Range(Math.min(lo, other.lo), Math.max(hi, other.hi));
+		}
+
+		Range intersect(Range other) {
+			return of(Math.max(lo, other.lo), Math.min(hi, other.hi));
+		}
+
+		boolean sameAs(Range other) {
+			return (isEmpty() && other.isEmpty()) || (lo == other.lo && hi == other.hi);
+		}
+	}
+
+	private enum Relation {
+		LESS, LESS_EQUAL, EQUAL, NOT_EQUAL
+	}
+
+	/** a relation known to hold between two operands */
+	private static final class Fact {
+		final Operand left;
+		final Relation relation;
+		final Operand right;
+
+		Fact(Operand left, Relation relation, Operand right) {
+			this.left = left;
+			this.relation = relation;
+			this.right = right;
+		}
+	}
+
+	private Dominators dominators;
+	private Map<Variable, Range> ranges;
+	private Map<BasicBlock, List<Fact>> facts;
+	private Map<Variable, Operand> allocatedLengths;
+
+	public void optimizeProgram(Prog prog) {
+		for (Proc proc : prog.getProcedures()) {
+			optimizeProc(proc);
+		}
+	}
+
+	public boolean optimizeProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		return optimizeProc(proc, new Dominators(proc));
+	}
+
+	/**
+	 * @param dominators the dominators of the procedure before the checks are removed
+	 * @return true, if some check was removed
+	 */
+	public boolean optimizeProc(Proc proc, Dominators dominators) {
+		this.dominators = dominators;
+		ranges = new HashMap<>();
+		allocatedLengths = new HashMap<>();
+		computeFacts();
+		if (!computeRanges()) {
+			return false;
+		}
+
+		Map<Variable, Operand> replacements = new HashMap<>();
+		for (BasicBlock block : dominators.getReversePostorder()) {
+			for (Instruction instr : block) {
+				if (instr instanceof BinaryOperation && isCondition((BinaryOperation) instr)) {
+					BinaryOperation op = (BinaryOperation) instr;
+					Boolean value = evaluateCondition(op, facts.get(block), 0);
+					if (value != null) {
+						replacements.put(op.getVar(), Ast.ConstBool(value));
+					}
+				}
+			}
+		}
+		boolean changed = !replacements.isEmpty();
+		for (BasicBlock block : dominators.getReversePostorder()) {
+			// a check repeated in a block dominated by the same check
+			Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+			if (t.isPresent() && t.get() instanceof Branch) {
+				Branch branch = (Branch) t.get();
+				Boolean value = knownValue(branch.getCondition(), facts.get(block));
+				if (value != null) {
+					branch.setCondition(Ast.ConstBool(value));
+					changed = true;
+				}
+			}
+		}
+		if (changed) {
+			OptimUtils.replaceVariables(proc, replacements);
+			new ConstantPropagation().optimizeProc(proc);
+		}
+		return changed;
+	}
+
+	private static boolean isCondition(BinaryOperation op) {
+		return op.getVar().calculateType() instanceof TypeBool;
+	}
+
+	// facts from branch conditions
+
+	private void computeFacts() {
+		facts = new HashMap<>();
+		for (BasicBlock block : dominators.getReversePostorder()) {
+			BasicBlock idom = dominators.getIdom(block);
+			List<Fact> result = new ArrayList<>();
+			if (idom != null) {
+				result.addAll(facts.get(idom));
+				if (dominators.getPredecessors(block).size() == 1) {
+					addEdgeFacts(idom, block, result);
+				}
+			}
+			for (PhiNode phi : block.getPhiNodes()) {
+				addPhiFacts(phi, block, result);
+			}
+			facts.put(block, result);
+		}
+	}
+
+	/**
+	 * adds phi < bound, if every incoming value is less than the same bound on its edge,
+	 * like the index of a loop testing its condition at the bottom, which is checked
+	 * before the loop and on the back edge
+	 */
+	private void addPhiFacts(PhiNode phi, BasicBlock block, List<Fact> result) {
+		if (!(phi.getVar().calculateType() instanceof TypeInt)) {
+			return;
+		}
+		List<List<Fact>> edges = new ArrayList<>();
+		for (PhiNodeChoice choice : phi.getChoices()) {
+			// the facts of blocks after this one (on back edges) are not known yet
+			List<Fact> edgeFacts = new ArrayList<>(facts.getOrDefault(choice.getLabel(), Collections.emptyList()));
+			addEdgeFacts(choice.getLabel(), block, edgeFacts);
+			edges.add(edgeFacts);
+		}
+		for (Fact candidate : edges.get(0)) {
+			if ((candidate.relation != Relation.LESS && candidate.relation != Relation.LESS_EQUAL)
+					|| !sameValue(candidate.left, phi.getChoices().get(0).getValue())
+					|| !isAvailable(candidate.right, block)) {
+				continue;
+			}
+			boolean holds = true;
+			for (int i = 1; i < edges.size() && holds; i++) {
+				holds = holdsOnEdge(phi.getChoices().get(i).getValue(), candidate, edges.get(i));
+			}
+			if (holds) {
+				result.add(new Fact(Ast.VarRef(phi.getVar()), candidate.relation, candidate.right));
+				return;
+			}
+		}
+	}
+
+	private boolean holdsOnEdge(Operand value, Fact bound, List<Fact> edgeFacts) {
+		if (value instanceof ConstInt && bound.right instanceof ConstInt) {
+			int v = ((ConstInt) value).getIntVal();
+			int b = ((ConstInt) bound.right).getIntVal();
+			return bound.relation == Relation.LESS ? v < b : v <= b;
+		}
+		for (Fact fact : edgeFacts) {
+			if ((fact.relation == bound.relation || fact.relation == Relation.LESS)
+					&& sameValue(fact.left, value) && sameValue(fact.right, bound.right)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** an operand defined in a block strictly dominating the given block */
+	private boolean isAvailable(Operand op, BasicBlock block) {
+		if (!(op instanceof VarRef)) {
+			return op instanceof ConstInt;
+		}
+		Element def = ((VarRef) op).getVariable().getParent();
+		if (!(def instanceof Instruction)) {
+			return true;
+		}
+		BasicBlock defBlock = (BasicBlock) def.getParent();
+		return defBlock != block && dominators.dominates(defBlock, block);
+	}
+
+	/** adds the facts known to hold when control flows from the block to the successor */
+	private void addEdgeFacts(BasicBlock from, BasicBlock to, List<Fact> result) {
+		Optional<TerminatingInstruction> t = from.getTerminatingInstruction();
+		if (!t.isPresent() || !(t.get() instanceof Branch)) {
+			return;
+		}
+		Branch branch = (Branch) t.get();
+		if (branch.getIfTrueLabel() == branch.getIfFalseLabel()) {
+			return;
+		}
+		addConditionFacts(branch.getCondition(), branch.getIfTrueLabel() == to, result, 0);
+	}
+
+	private void addConditionFacts(Operand condition, boolean value, List<Fact> result, int depth) {
+		if (!(condition instanceof VarRef) || depth > MAX_DEPTH) {
+			return;
+		}
+		result.add(new Fact(condition, Relation.EQUAL, Ast.ConstBool(value)));
+		Assign def = AliasAnalysis.definition(condition);
+		if (!(def instanceof BinaryOperation)) {
+			return;
+		}
+		BinaryOperation op = (BinaryOperation) def;
+		Operand left = op.getLeft();
+		Operand right = op.getRight();
+		Operator operator = op.getOperator();
+		if (operator instanceof Slt) {
+			result.add(value ? new Fact(left, Relation.LESS, right) : new Fact(right, Relation.LESS_EQUAL, left));
+		} else if (operator instanceof Sle) {
+			result.add(value ? new Fact(left, Relation.LESS_EQUAL, right) : new Fact(right, Relation.LESS, left));
+		} else if (operator instanceof Ult && value && isNonNegative(right)) {
+			// a negative left side would be a large unsigned number
+			result.add(new Fact(left, Relation.LESS, right));
+			result.add(new Fact(Ast.ConstInt(0), Relation.LESS_EQUAL, left));
+		} else if (operator instanceof Eq) {
+			if (right instanceof ConstBool) {
+				addConditionFacts(left, value == ((ConstBool) right).getBoolVal(), result, depth + 1);
+			} else if (left instanceof ConstBool) {
+				addConditionFacts(right, value == ((ConstBool) left).getBoolVal(), result, depth + 1);
+			} else {
+				result.add(new Fact(left, value ? Relation.EQUAL : Relation.NOT_EQUAL, right));
+			}
+		} else if (operator instanceof Xor && right instanceof ConstBool) {
+			addConditionFacts(left, value != ((ConstBool) right).getBoolVal(), result, depth + 1);
+		} else if (operator instanceof And && value) {
+			addConditionFacts(left, true, result, depth + 1);
+			addConditionFacts(right, true, result, depth + 1);
+		} else if (operator instanceof Or) {
+			Operand[] le = lessOrEqualOperands(op);
+			if (le != null) {
+				result.add(value ? new Fact(le[0], Relation.LESS_EQUAL, le[1]) : new Fact(le[1], Relation.LESS, le[0]));
+			} else if (!value) {
+				addConditionFacts(left, false, result, depth + 1);
+				addConditionFacts(right, false, result, depth + 1);
+			}
+		}
+	}
+
+	/** an array length, a non-negative constant or a phi node of them */
+	private static boolean isNonNegative(Operand op) {
+		return isNonNegative(op, new HashSet<>());
+	}
+
+	private static boolean isNonNegative(Operand op, Set<Variable> visited) {
+		if (op instanceof ConstInt) {
+			return ((ConstInt) op).getIntVal() >= 0;
+		}
+		Assign def = AliasAnalysis.definition(op);
+		if (def instanceof PhiNode) {
+			if (!visited.add(def.getVar())) {
+				return true;
+			}
+			for (PhiNodeChoice choice : ((PhiNode) def).getChoices()) {
+				if (!isNonNegative(choice.getValue(), visited)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return def instanceof Load && arrayOfLength((Load) def) != null;
+	}
+
+	/**
+	 * recognizes the pattern (a < b) | (a == b), which the translator uses for a <= b
+	 *
+	 * @return a and b or null
+	 */
+	private static Operand[] lessOrEqualOperands(BinaryOperation or) {
+		Assign l = AliasAnalysis.definition(or.getLeft());
+		Assign r = AliasAnalysis.definition(or.getRight());
+		if (!(l instanceof BinaryOperation) || !(r instanceof BinaryOperation)) {
+			return null;
+		}
+		BinaryOperation less = (BinaryOperation) l;
+		BinaryOperation equal = (BinaryOperation) r;
+		if (less.getOperator() instanceof Eq) {
+			BinaryOperation t = less;
+			less = equal;
+			equal = t;
+		}
+		if (!(less.getOperator() instanceof Slt) || !(equal.getOperator() instanceof Eq)) {
+			return null;
+		}
+		boolean sameOrder = sameOperand(less.getLeft(), equal.getLeft()) && sameOperand(less.getRight(), equal.getRight());
+		boolean swapped = sameOperand(less.getLeft(), equal.getRight()) && sameOperand(less.getRight(), equal.getLeft());
+		if (!sameOrder && !swapped) {
+			return null;
+		}
+		return new Operand[]{less.getLeft(), less.getRight()};
+	}
+
+	private static boolean sameOperand(Operand a, Operand b) {
+		if (a instanceof VarRef && b instanceof VarRef) {
+			return ((VarRef) a).getVariable() == ((VarRef) b).getVariable();
+		} else if (a instanceof ConstInt && b instanceof ConstInt) {
+			return ((ConstInt) a).getIntVal() == ((ConstInt) b).getIntVal();
+		}
+		return false;
+	}
+
+	// intervals
+
+	/**
+	 * computes the ranges of all integer variables by iterating to a fixpoint
+	 *
+	 * @return false, if no fixpoint was found
+	 */
+	private boolean computeRanges() {
+		Map<Variable, Integer> updates = new HashMap<>();
+		for (int pass = 0; pass < MAX_PASSES; pass++) {
+			boolean changed = false;
+			for (BasicBlock block : dominators.getReversePostorder()) {
+				for (Instruction instr : block) {
+					if (!(instr instanceof Assign)) {
+						continue;
+					}
+					Variable var = ((Assign) instr).getVar();
+					Type type = var.calculateType();
+					if (!(type instanceof TypeInt || type instanceof TypeBool)) {
+						continue;
+					}
+					Range old = ranges.getOrDefault(var, Range.EMPTY);
+					Range range = old.join(evaluate((Assign) instr, block));
+					if (range.sameAs(old)) {
+						continue;
+					}
+					int count = updates.merge(var, 1, Integer::sum);
+					if (count > WIDENING_DELAY && !old.isEmpty()) {
+						range = new Range(range.lo < old.lo ? Integer.MIN_VALUE : range.lo,
+								range.hi > old.hi ? Integer.MAX_VALUE : range.hi);
+					}
+					ranges.put(var, range);
+					changed = true;
+				}
+			}
+			if (!changed) {
+				narrowRanges();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * recovers bounds lost by widening, when they are only known on the back edge
+	 * (like i + 1 < n at the end of a loop testing its condition at the bottom)
+	 */
+	private void narrowRanges() {
+		for (int pass = 0; pass < NARROWING_PASSES; pass++) {
+			for (BasicBlock block : dominators.getReversePostorder()) {
+				for (Instruction instr : block) {
+					if (instr instanceof Assign && ranges.containsKey(((Assign) instr).getVar())) {
+						Variable var = ((Assign) instr).getVar();
+						ranges.put(var, ranges.get(var).intersect(evaluate((Assign) instr, block)));
+					}
+				}
+			}
+		}
+	}
+
+	private Range evaluate(Assign assign, BasicBlock block) {
+		if (assign instanceof PhiNode) {
+			Range result = Range.EMPTY;
+			for (PhiNodeChoice choice : ((PhiNode) assign).getChoices()) {
+				List<Fact> edgeFacts = new ArrayList<>(facts.getOrDefault(choice.getLabel(), Collections.emptyList()));
+				addEdgeFacts(choice.getLabel(), block, edgeFacts);
+				result = result.join(rangeAt(choice.getValue(), edgeFacts));
+			}
+			return result;
+		} else if (assign instanceof BinaryOperation) {
+			BinaryOperation op = (BinaryOperation) assign;
+			if (isCondition(op)) {
+				Boolean value = evaluateCondition(op, facts.get(block), 0);
+				return value == null ? Range.BOOL : value ? new Range(1, 1) : new Range(0, 0);
+			}
+			return evaluateArithmetic(op.getOperator(),
+					rangeAt(op.getLeft(), facts.get(block)), rangeAt(op.getRight(), facts.get(block)));
+		} else if (assign instanceof Select) {
+			Select select = (Select) assign;
+			Boolean condition = knownValue(select.getCondition(), facts.get(block));
+			if (select.getCondition() instanceof ConstBool) {
+				condition = ((ConstBool) select.getCondition()).getBoolVal();
+			}
+			Range ifTrue = rangeAt(select.getIfTrue(), facts.get(block));
+			Range ifFalse = rangeAt(select.getIfFalse(), facts.get(block));
+			return condition == null ? ifTrue.join(ifFalse) : condition ? ifTrue : ifFalse;
+		} else if (assign instanceof Load && arrayOfLength((Load) assign) != null) {
+			// the length an array was allocated with is known to be non-negative
+			Operand length = lengthValue(Ast.VarRef(assign.getVar()));
+			Range range = new Range(0, Integer.MAX_VALUE);
+			return length instanceof VarRef && ((VarRef) length).getVariable() == arrayOfLength((Load) assign)
+					? range : range.intersect(rangeOf(length));
+		}
+		return defaultRange(assign.getVar().calculateType());
+	}
+
+	private static Range defaultRange(Type type) {
+		return type instanceof TypeBool ? Range.BOOL : Range.FULL;
+	}
+
+	private static Range evaluateArithmetic(Operator operator, Range l, Range r) {
+		if (l.isEmpty() || r.isEmpty()) {
+			return Range.EMPTY;
+		}
+		if (operator instanceof Add) {
+			return Range.of(l.lo + r.lo, l.hi + r.hi);
+		} else if (operator instanceof Sub) {
+			return Range.of(l.lo - r.hi, l.hi - r.lo);
+		} else if (operator instanceof Mul) {
+			long a = l.lo * r.lo, b = l.lo * r.hi, c = l.hi * r.lo, d = l.hi * r.hi;
+			return Range.of(Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)));
+		} else if (operator instanceof Shl) {
+			if (r.lo == r.hi && r.lo >= 0 && r.lo < 31) {
+				long factor = 1L << r.lo;
+				return Range.of(l.lo * factor, l.hi * factor);
+			}
+		} else if (operator instanceof Sdiv) {
+			if (r.lo == r.hi && r.lo != 0 && r.lo != -1) {
+				long a = l.lo / r.lo, b = l.hi / r.lo;
+				return Range.of(Math.min(a, b), Math.max(a, b));
+			} else if (l.lo >= 0 && r.lo >= 1) {
+				return Range.of(0, l.hi);
+			}
+		} else if (operator instanceof Srem) {
+			if (r.lo == r.hi && r.lo > 0) {
+				long max = r.lo - 1;
+				return l.lo >= 0 ? Range.of(0, Math.min(l.hi, max)) : Range.of(-max, max);
+			}
+		} else if (operator instanceof And) {
+			if (l.lo >= 0 && r.lo >= 0) {
+				return Range.of(0, Math.min(l.hi, r.hi));
+			}
+		}
+		return Range.FULL;
+	}
+
+	private Range rangeOf(Operand op) {
+		if (op instanceof ConstInt) {
+			int v = ((ConstInt) op).getIntVal();
+			return new Range(v, v);
+		} else if (op instanceof ConstBool) {
+			int v = ((ConstBool) op).getBoolVal() ? 1 : 0;
+			return new Range(v, v);
+		} else if (op instanceof VarRef) {
+			Variable v = ((VarRef) op).getVariable();
+			Range r = ranges.get(v);
+			if (r != null) {
+				return r;
+			} else if (v instanceof TemporaryVar) {
+				// not evaluated yet
+				return Range.EMPTY;
+			}
+			return defaultRange(v.calculateType());
+		}
+		return Range.FULL;
+	}
+
+	/** the range of the operand, refined by the facts */
+	private Range rangeAt(Operand op, List<Fact> known) {
+		Range result = rangeOf(op);
+		if (result.isEmpty() || op instanceof Const) {
+			return result;
+		}
+		for (Fact fact : known) {
+			boolean isLeft = sameValue(fact.left, op);
+			boolean isRight = sameValue(fact.right, op);
+			if (!isLeft && !isRight) {
+				continue;
+			}
+			Range other = rangeOf(isLeft ? fact.right : fact.left);
+			if (other.isEmpty()) {
+				continue;
+			}
+			switch (fact.relation) {
+				case LESS:
+					result = isLeft ? result.intersect(Range.of(Integer.MIN_VALUE, other.hi - 1))
+							: result.intersect(Range.of(other.lo + 1, Integer.MAX_VALUE));
+					break;
+				case LESS_EQUAL:
+					result = isLeft ? result.intersect(Range.of(Integer.MIN_VALUE, other.hi))
+							: result.intersect(Range.of(other.lo, Integer.MAX_VALUE));
+					break;
+				case EQUAL:
+					result = result.intersect(other);
+					break;
+				case NOT_EQUAL:
+					if (other.lo == other.hi && result.lo == other.lo) {
+						result = Range.of(result.lo + 1, result.hi);
+					} else if (other.lo == other.hi && result.hi == other.lo) {
+						result = Range.of(result.lo, result.hi - 1);
+					}
+					break;
+			}
+			if (result.isEmpty()) {
+				// the block is unreachable
+				return result;
+			}
+		}
+		return result;
+	}
+
+	// conditions
+
+	/** @return the value of the condition or null if unknown */
+	private Boolean evaluateCondition(BinaryOperation op, List<Fact> known, int depth) {
+		Operator operator = op.getOperator();
+		Operand left = op.getLeft();
+		Operand right = op.getRight();
+		if (depth <= MAX_DEPTH) {
+			Boolean fromFacts = knownValue(Ast.VarRef(op.getVar()), known);
+			if (fromFacts != null) {
+				return fromFacts;
+			}
+		}
+		if (operator instanceof Slt) {
+			Range l = rangeAt(left, known);
+			Range r = rangeAt(right, known);
+			if (l.isEmpty() || r.isEmpty()) {
+				return null;
+			} else if (l.hi < r.lo || provesLess(left, right, known)) {
+				return true;
+			} else if (l.lo >= r.hi || provesLessOrEqual(right, left, known)) {
+				return false;
+			}
+			return null;
+		} else if (operator instanceof Sle) {
+			Range l = rangeAt(left, known);
+			Range r = rangeAt(right, known);
+			if (l.isEmpty() || r.isEmpty()) {
+				return null;
+			} else if (l.hi <= r.lo || provesLessOrEqual(left, right, known)) {
+				return true;
+			} else if (l.lo > r.hi || provesLess(right, left, known)) {
+				return false;
+			}
+			return null;
+		} else if (operator instanceof Ult) {
+			Range l = rangeAt(left, known);
+			Range r = rangeAt(right, known);
+			if (l.isEmpty() || r.isEmpty() || r.lo < 0) {
+				return null;
+			} else if (l.lo >= 0 && (l.hi < r.lo || provesLess(left, right, known))) {
+				return true;
+			} else if (l.hi < 0 || (l.lo >= r.hi)) {
+				// negative numbers are larger than all non-negative numbers when compared unsigned
+				return false;
+			}
+			return null;
+		} else if (operator instanceof Eq && !(left.calculateType() instanceof TypeBool)) {
+			Range l = rangeAt(left, known);
+			Range r = rangeAt(right, known);
+			if (l.isEmpty() || r.isEmpty()) {
+				return null;
+			} else if (l.lo == l.hi && r.lo == r.hi && l.lo == r.lo) {
+				return true;
+			} else if (l.hi < r.lo || r.hi < l.lo) {
+				return false;
+			}
+			return null;
+		}
+		if (depth > MAX_DEPTH) {
+			return null;
+		}
+		if (operator instanceof Or) {
+			Operand[] le = lessOrEqualOperands(op);
+			if (le != null) {
+				Range l = rangeAt(le[0], known);
+				Range r = rangeAt(le[1], known);
+				if (l.isEmpty() || r.isEmpty()) {
+					return null;
+				} else if (l.hi <= r.lo || provesLessOrEqual(le[0], le[1], known)) {
+					return true;
+				} else if (l.lo > r.hi || provesLess(le[1], le[0], known)) {
+					return false;
+				}
+			}
+		}
+		Boolean l = booleanValue(left, known, depth + 1);
+		Boolean r = booleanValue(right, known, depth + 1);
+		if (operator instanceof And) {
+			if (Boolean.FALSE.equals(l) || Boolean.FALSE.equals(r)) {
+				return false;
+			} else if (l != null && r != null) {
+				return true;
+			}
+		} else if (operator instanceof Or) {
+			if (Boolean.TRUE.equals(l) || Boolean.TRUE.equals(r)) {
+				return true;
+			} else if (l != null && r != null) {
+				return false;
+			}
+		} else if (l != null && r != null) {
+			if (operator instanceof Xor) {
+				return l ^ r;
+			} else if (operator instanceof Eq) {
+				return l.equals(r);
+			}
+		}
+		return null;
+	}
+
+	private Boolean booleanValue(Operand op, List<Fact> known, int depth) {
+		if (op instanceof ConstBool) {
+			return ((ConstBool) op).getBoolVal();
+		}
+		Boolean fromFacts = knownValue(op, known);
+		if (fromFacts != null) {
+			return fromFacts;
+		}
+		Assign def = AliasAnalysis.definition(op);
+		if (def instanceof BinaryOperation) {
+			return evaluateCondition((BinaryOperation) def, known, depth);
+		}
+		return null;
+	}
+
+	private static Boolean knownValue(Operand op, List<Fact> known) {
+		for (Fact fact : known) {
+			if (fact.relation == Relation.EQUAL && fact.right instanceof ConstBool && sameOperand(fact.left, op)) {
+				return ((ConstBool) fact.right).getBoolVal();
+			}
+		}
+		return null;
+	}
+
+	/** checks whether x < y follows from the facts */
+	private boolean provesLess(Operand x, Operand y, List<Fact> known) {
+		Operand base = offsetBase(x);
+		long offset = offset(x);
+		for (Fact fact : known) {
+			if (!sameValue(fact.right, y)) {
+				continue;
+			}
+			if (fact.relation == Relation.LESS && offset <= 0 && sameValue(fact.left, base)) {
+				return true;
+			} else if (fact.relation == Relation.LESS_EQUAL && offset <= -1 && sameValue(fact.left, base)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** checks whether x <= y follows from the facts */
+	private boolean provesLessOrEqual(Operand x, Operand y, List<Fact> known) {
+		if (sameValue(x, y)) {
+			return true;
+		}
+		Operand base = offsetBase(x);
+		long offset = offset(x);
+		for (Fact fact : known) {
+			if (fact.relation == Relation.EQUAL && sameValue(fact.left, x) && sameValue(fact.right, y)) {
+				return true;
+			}
+			if (!sameValue(fact.right, y) || !sameValue(fact.left, base)) {
+				continue;
+			}
+			if (fact.relation == Relation.LESS_EQUAL && offset <= 0) {
+				return true;
+			} else if (fact.relation == Relation.LESS && offset <= 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** for x = b + c with a constant c, which does not overflow, returns b */
+	private Operand offsetBase(Operand x) {
+		Assign def = AliasAnalysis.definition(x);
+		if (def instanceof BinaryOperation && constantOffset((BinaryOperation) def) != null) {
+			return ((BinaryOperation) def).getLeft();
+		}
+		return x;
+	}
+
+	private long offset(Operand x) {
+		Assign def = AliasAnalysis.definition(x);
+		if (def instanceof BinaryOperation) {
+			Long c = constantOffset((BinaryOperation) def);
+			if (c != null) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	private Long constantOffset(BinaryOperation op) {
+		if (!(op.getRight() instanceof ConstInt)) {
+			return null;
+		}
+		long c = ((ConstInt) op.getRight()).getIntVal();
+		if (op.getOperator() instanceof Sub) {
+			c = -c;
+		} else if (!(op.getOperator() instanceof Add)) {
+			return null;
+		}
+		Range base = rangeOf(op.getLeft());
+		if (base.isEmpty() || base.lo + c < Integer.MIN_VALUE || base.hi + c > Integer.MAX_VALUE) {
+			return null;
+		}
+		return c;
+	}
+
+	// array lengths
+
+	/** checks whether two operands always have the same value */
+	private boolean sameValue(Operand a, Operand b) {
+		if (sameOperand(a, b)) {
+			return true;
+		}
+		Operand lengthA = lengthValue(a);
+		Operand lengthB = lengthValue(b);
+		return sameOperand(lengthA, lengthB) || sameOperand(lengthA, b) || sameOperand(a, lengthB);
+	}
+
+	/**
+	 * for the length of an array returns the array or, if the array was
+	 * allocated in this procedure, the size it was allocated with
+	 */
+	private Operand lengthValue(Operand op) {
+		return lengthValue(op, new HashSet<>());
+	}
+
+	/**
+	 * phi nodes of the same length, as loop rotation creates them for a length
+	 * loaded in the header, have the length of their choices
+	 */
+	private Operand lengthValue(Operand op, Set<Variable> visited) {
+		Assign def = AliasAnalysis.definition(op);
+		if (def instanceof PhiNode && visited.add(def.getVar())) {
+			Operand result = null;
+			for (PhiNodeChoice choice : ((PhiNode) def).getChoices()) {
+				Operand value = choice.getValue();
+				if (value instanceof VarRef && visited.contains(((VarRef) value).getVariable())) {
+					continue;
+				}
+				Operand length = lengthValue(value, visited);
+				if (result != null && !sameOperand(result, length)) {
+					return op;
+				}
+				result = length;
+			}
+			return result != null ? result : op;
+		}
+		if (!(def instanceof Load)) {
+			return op;
+		}
+		Variable array = arrayOfLength((Load) def);
+		if (array == null) {
+			return op;
+		}
+		Operand allocated = allocatedLength(array);
+		return allocated != null ? allocated : Ast.VarRef(array);
+	}
+
+	/**
+	 * @return the array, if the load reads an array length
+	 * @see AliasAnalysis#arrayOfLength
+	 */
+	static Variable arrayOfLength(Load load) {
+		if (!(load.getVar().calculateType() instanceof TypeInt)) {
+			return null;
+		}
+		return AliasAnalysis.arrayOfLength(load.getAddress());
+	}
+
+	/** the length stored into a newly allocated array */
+	private Operand allocatedLength(Variable array) {
+		if (array.getParent() instanceof Alloca) {
+			return stackArrayLength(array);
+		} else if (!(array.getParent() instanceof Alloc || array.getParent() instanceof AllocZeroed)) {
+			return null;
+		}
+		if (allocatedLengths.containsKey(array)) {
+			return allocatedLengths.get(array);
+		}
+		Operand result = null;
+		Assign alloc = (Assign) array.getParent();
+		if (alloc.getParent() instanceof BasicBlock) {
+			for (Instruction instr : (BasicBlock) alloc.getParent()) {
+				if (instr instanceof Store) {
+					Operand address = ((Store) instr).getAddress();
+					while (AliasAnalysis.definition(address) instanceof Bitcast) {
+						address = ((Bitcast) AliasAnalysis.definition(address)).getExpr();
+					}
+					if (address instanceof VarRef && ((VarRef) address).getVariable() == array
+							&& ((Store) instr).getValue().calculateType() instanceof TypeInt) {
+						result = ((Store) instr).getValue();
+						break;
+					}
+				}
+			}
+		}
+		allocatedLengths.put(array, result);
+		return result;
+	}
+
+	/**
+	 * the length of an array on the stack, if a constant is its only length
+	 * (the allocation may be executed repeatedly, so only a constant has the same value every time)
+	 */
+	private Operand stackArrayLength(Variable array) {
+		if (allocatedLengths.containsKey(array)) {
+			return allocatedLengths.get(array);
+		}
+		Operand result = null;
+		for (BasicBlock block : dominators.getReversePostorder()) {
+			for (Instruction instr : block) {
+				if (!(instr instanceof Store)) {
+					continue;
+				}
+				Operand address = ((Store) instr).getAddress();
+				while (AliasAnalysis.definition(address) instanceof Bitcast) {
+					address = ((Bitcast) AliasAnalysis.definition(address)).getExpr();
+				}
+				if (!(address instanceof VarRef) || ((VarRef) address).getVariable() != array) {
+					continue;
+				}
+				Operand value = ((Store) instr).getValue();
+				if (result != null || !(value instanceof ConstInt)) {
+					allocatedLengths.put(array, null);
+					return null;
+				}
+				result = value;
+			}
+		}
+		allocatedLengths.put(array, result);
+		return result;
+	}
+}
@@ -0,0 +1,162 @@
+package minillvm.optim;
+
+import minillvm.analysis.AliasAnalysis;
+import minillvm.analysis.Dominators;
+import minillvm.ast.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Removes loads of values which are already known from an earlier load
+ * or store of the same address in a dominating position.
+ *
+ * The known values are passed down the dominator tree.
+ * Stores and calls forget the values of all addresses they may change,
+ * a store then makes its value known for its address (store to load forwarding).
+ * A block which can also be reached on paths not coming directly from its
+ * immediate dominator only keeps the values no store or call on these paths may change.
+ */
+public class RedundantLoadElimination {
+
+	private static final class KnownValue {
+		final Operand address;
+		final Operand value;
+
+		KnownValue(Operand address, Operand value) {
+			this.address = address;
+			this.value = value;
+		}
+	}
+
+	private AliasAnalysis aliasAnalysis;
+	private Map<Variable, Operand> replacements;
+
+	/**
+	 * @return true, if some load was removed
+	 */
+	public boolean optimizeProgram(Prog prog) {
+		return optimizeProgram(prog, Dominators::new);
+	}
+
+	/**
+	 * Only changes instructions.
+	 *
+	 * @param dominators the dominators of a procedure as it is
+	 * @return true, if some load was removed
+	 */
+	public boolean optimizeProgram(Prog prog, Function<Proc, Dominators> dominators) {
+		aliasAnalysis = new AliasAnalysis(prog);
+		boolean changed = false;
+		for (Proc proc : prog.getProcedures()) {
+			if (!proc.getBasicBlocks().isEmpty()) {
+				changed |= optimizeProc(proc, dominators.apply(proc));
+			}
+		}
+		return changed;
+	}
+
+	private boolean optimizeProc(Proc proc, Dominators dominators) {
+		replacements = new HashMap<>();
+		Set<Instruction> toRemove = OptimUtils.identitySet();
+
+		// every block is visited with a copy of the values known at the end of its immediate dominator
+		Deque<BasicBlock> blocks = new ArrayDeque<>();
+		Deque<Map<Object, KnownValue>> states = new ArrayDeque<>();
+		blocks.push(proc.getBasicBlocks().get(0));
+		states.push(new HashMap<>());
+		while (!blocks.isEmpty()) {
+			BasicBlock block = blocks.pop();
+			Map<Object, KnownValue> known = states.pop();
+			forgetChangedOnOtherPaths(block, dominators, known);
+			for (Instruction instr : block) {
+				if (instr instanceof Load) {
+					Load load = (Load) instr;
+					Object key = addressKey(load.getAddress());
+					KnownValue value = known.get(key);
+					if (value != null) {
+						replacements.put(load.getVar(), value.value);
+						toRemove.add(load);
+					} else {
+						known.put(key, new KnownValue(load.getAddress(), Ast.VarRef(load.getVar())));
+					}
+				} else if (instr instanceof Store) {
+					Store store = (Store) instr;
+					forget(known, store);
+					Type type = AliasAnalysis.accessedType(store.getAddress());
+					if (store.getValue().calculateType().equalsType(type)) {
+						known.put(addressKey(store.getAddress()), new KnownValue(store.getAddress(), store.getValue()));
+					}
+				} else if (instr instanceof Call) {
+					forget(known, instr);
+				}
+			}
+			for (BasicBlock child : dominators.getChildren(block)) {
+				blocks.push(child);
+				states.push(new HashMap<>(known));
+			}
+		}
+
+		OptimUtils.removeInstructions(proc, toRemove);
+		OptimUtils.replaceVariables(proc, replacements);
+		return !toRemove.isEmpty();
+	}
+
+	private void forget(Map<Object, KnownValue> known, Instruction instr) {
+		known.values().removeIf(value -> aliasAnalysis.mayWrite(instr, value.address));
+	}
+
+	/**
+	 * forgets the values changed between the end of the immediate dominator and the block:
+	 * the blocks on these paths are found by going backwards from the predecessors
+	 * until the immediate dominator is reached
+	 */
+	private void forgetChangedOnOtherPaths(BasicBlock block, Dominators dominators, Map<Object, KnownValue> known) {
+		BasicBlock idom = dominators.getIdom(block);
+		List<BasicBlock> preds = dominators.getPredecessors(block);
+		if (idom == null || known.isEmpty() || preds.size() == 1 && preds.get(0) == idom) {
+			return;
+		}
+		Set<BasicBlock> visited = OptimUtils.identitySet();
+		Deque<BasicBlock> worklist = new ArrayDeque<>(preds);
+		while (!worklist.isEmpty() && !known.isEmpty()) {
+			BasicBlock b = worklist.pop();
+			if (b == idom || !dominators.isReachable(b) || !visited.add(b)) {
+				continue;
+			}
+			for (Instruction instr : b) {
+				if (instr instanceof Store || instr instanceof Call) {
+					forget(known, instr);
+				}
+			}
+			worklist.addAll(dominators.getPredecessors(b));
+		}
+	}
+
+	/** a key identifying the address, getelementptr instructions are compared by their operands */
+	private Object addressKey(Operand address) {
+		if (address instanceof VarRef) {
+			Variable v = ((VarRef) address).getVariable();
+			Operand replacement = replacements.get(v);
+			if (replacement != null) {
+				return addressKey(replacement);
+			}
+			Assign def = AliasAnalysis.definition(address);
+			if (def instanceof GetElementPtr) {
+				GetElementPtr gep = (GetElementPtr) def;
+				List<Object> key = new ArrayList<>();
+				key.add(GetElementPtr.class);
+				key.add(addressKey(gep.getBaseAddress()));
+				for (Operand index : gep.getIndices()) {
+					key.add(index instanceof ConstInt ? ((ConstInt) index).getIntVal() : addressKey(index));
+				}
+				return key;
+			}
+			return v;
+		} else if (address instanceof GlobalRef) {
+			return ((GlobalRef) address).getGlobal();
+		}
+		// not worth comparing, use a key which is never equal to another one
+		return new Object();
+	}
+}
@@ -0,0 +1,248 @@
+package minillvm.optim;
+
+import minillvm.analysis.Dominators;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Promotes local variables stored in allocas to SSA registers (mem2reg).
+ *
+ * An alloca is promoted, if it has a scalar type and is only used as the
+ * address of loads and stores. Phi nodes are placed at the iterated dominance
+ * frontier of the stores, but only where the variable is live (pruned SSA).
+ */
+public class SSATransformation {
+
+	public void transformProg(Prog prog) {
+		for (Proc proc : prog.getProcedures()) {
+			transformProc(proc);
+		}
+	}
+
+	/**
+	 * @return true, if the procedure was changed
+	 */
+	public boolean transformProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		return transformProc(proc, new Dominators(proc));
+	}
+
+	/**
+	 * @param dominators the dominators of the procedure as it is
+	 * @return true, if the procedure was changed
+	 */
+	public boolean transformProc(Proc proc, Dominators dominators) {
+		boolean removed = OptimUtils.removeUnreachableBlocks(proc, dominators);
+
+		List<Alloca> allocas = findPromotableAllocas(proc);
+		if (allocas.isEmpty()) {
+			return removed;
+		}
+		if (removed) {
+			dominators = new Dominators(proc);
+		}
+
+		Map<PhiNode, Alloca> phiNodes = new HashMap<>();
+		for (Alloca alloca : allocas) {
+			placePhiNodes(alloca, dominators, phiNodes);
+		}
+
+		Map<Variable, Operand> replacements = new HashMap<>();
+		Set<Instruction> toRemove = OptimUtils.identitySet();
+		rename(proc, dominators, new HashSet<>(allocas), phiNodes, replacements, toRemove);
+		toRemove.addAll(allocas);
+
+		OptimUtils.removeInstructions(proc, toRemove);
+		OptimUtils.replaceVariables(proc, replacements);
+		return true;
+	}
+
+	private List<Alloca> findPromotableAllocas(Proc proc) {
+		Map<Variable, Alloca> candidates = new LinkedHashMap<>();
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Alloca && isScalar(((Alloca) instr).getType())) {
+					Alloca alloca = (Alloca) instr;
+					candidates.put(alloca.getVar(), alloca);
+				}
+			}
+		}
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			block.accept(new Element.DefaultVisitor() {
+				@Override
+				public void visit(VarRef varRef) {
+					if (candidates.containsKey(varRef.getVariable()) && !isAddressUse(varRef)) {
+						candidates.remove(varRef.getVariable());
+					}
+				}
+			});
+		}
+		return new ArrayList<>(candidates.values());
+	}
+
+	private static boolean isScalar(Type type) {
+		return type instanceof TypeInt
+				|| type instanceof TypeBool
+				|| type instanceof TypeByte
+				|| type instanceof TypePointer;
+	}
+
+	private static boolean isAddressUse(VarRef varRef) {
+		Element parent = varRef.getParent();
+		if (parent instanceof Load) {
+			return ((Load) parent).getAddress() == varRef;
+		} else if (parent instanceof Store) {
+			return ((Store) parent).getAddress() == varRef;
+		}
+		return false;
+	}
+
+	private static boolean isAccessTo(Operand address, Alloca alloca) {
+		return address instanceof VarRef && ((VarRef) address).getVariable() == alloca.getVar();
+	}
+
+	/**
+	 * inserts empty phi nodes for the alloca at the iterated dominance frontier
+	 * of all blocks storing to it, if the variable is live at the start of the block
+	 */
+	private void placePhiNodes(Alloca alloca, Dominators dominators, Map<PhiNode, Alloca> phiNodes) {
+		Set<BasicBlock> defBlocks = new HashSet<>();
+		Set<BasicBlock> useBeforeDef = new HashSet<>();
+		for (BasicBlock block : dominators.getReversePostorder()) {
+			boolean defined = false;
+			for (Instruction instr : block) {
+				if (instr instanceof Store && isAccessTo(((Store) instr).getAddress(), alloca)) {
+					defined = true;
+					defBlocks.add(block);
+				} else if (!defined && instr instanceof Load && isAccessTo(((Load) instr).getAddress(), alloca)) {
+					useBeforeDef.add(block);
+				}
+			}
+		}
+
+		// blocks where the variable is live on entry
+		Set<BasicBlock> liveIn = new HashSet<>(useBeforeDef);
+		Deque<BasicBlock> worklist = new ArrayDeque<>(useBeforeDef);
+		while (!worklist.isEmpty()) {
+			BasicBlock block = worklist.poll();
+			for (BasicBlock pred : dominators.getPredecessors(block)) {
+				if (!defBlocks.contains(pred) && liveIn.add(pred)) {
+					worklist.add(pred);
+				}
+			}
+		}
+
+		Set<BasicBlock> hasPhi = new HashSet<>();
+		worklist.addAll(defBlocks);
+		while (!worklist.isEmpty()) {
+			BasicBlock block = worklist.poll();
+			for (BasicBlock frontier : dominators.getDominanceFrontier(block)) {
+				if (!liveIn.contains(frontier) || !hasPhi.add(frontier)) {
+					continue;
+				}
+				PhiNode phi = Ast.PhiNode(Ast.TemporaryVar(alloca.getVar().getName()),
+						alloca.getType(), Ast.PhiNodeChoiceList());
+				frontier.addFront(phi);
+				phiNodes.put(phi, alloca);
+				if (!defBlocks.contains(frontier)) {
+					worklist.add(frontier);
+				}
+			}
+		}
+	}
+
+	/**
+	 * walks the dominator tree and replaces each load by the value
+	 * of the dominating store or phi node
+	 */
+	private void rename(Proc proc, Dominators dominators, Set<Alloca> allocas, Map<PhiNode, Alloca> phiNodes,
+			Map<Variable, Operand> replacements, Set<Instruction> toRemove) {
+		Map<Variable, Alloca> allocaOfVar = new HashMap<>();
+		Map<Alloca, Deque<Operand>> values = new HashMap<>();
+		for (Alloca alloca : allocas) {
+			allocaOfVar.put(alloca.getVar(), alloca);
+			values.put(alloca, new ArrayDeque<>());
+		}
+
+		// each entry of the stack is a block to visit or, when null, the marker to leave the block on top of it
+		Deque<BasicBlock> stack = new LinkedList<>();
+		Deque<List<Alloca>> pushed = new ArrayDeque<>();
+		// loads of null, which have to keep their type
+		Map<Load, Type> nullLoads = new LinkedHashMap<>();
+		stack.push(proc.getBasicBlocks().get(0));
+		while (!stack.isEmpty()) {
+			BasicBlock block = stack.pop();
+			if (block == null) {
+				for (Alloca alloca : pushed.pop()) {
+					values.get(alloca).pop();
+				}
+				continue;
+			}
+			List<Alloca> pushedHere = new ArrayList<>();
+			for (Instruction instr : block) {
+				if (instr instanceof PhiNode && phiNodes.containsKey(instr)) {
+					Alloca alloca = phiNodes.get(instr);
+					values.get(alloca).push(Ast.VarRef(((PhiNode) instr).getVar()));
+					pushedHere.add(alloca);
+				} else if (instr instanceof Load) {
+					Load load = (Load) instr;
+					Alloca alloca = allocaFor(load.getAddress(), allocaOfVar);
+					if (alloca != null && currentValue(alloca, values) instanceof Nullpointer) {
+						nullLoads.put(load, alloca.getType());
+					} else if (alloca != null) {
+						replacements.put(load.getVar(), currentValue(alloca, values));
+						toRemove.add(load);
+					}
+				} else if (instr instanceof Store) {
+					Store store = (Store) instr;
+					Alloca alloca = allocaFor(store.getAddress(), allocaOfVar);
+					if (alloca != null) {
+						values.get(alloca).push(store.getValue());
+						pushedHere.add(alloca);
+						toRemove.add(store);
+					}
+				}
+			}
+
+			for (BasicBlock succ : block.getSuccessors()) {
+				for (PhiNode phi : succ.getPhiNodes()) {
+					Alloca alloca = phiNodes.get(phi);
+					if (alloca != null) {
+						phi.getChoices().add(Ast.PhiNodeChoice(block, currentValue(alloca, values).copy()));
+					}
+				}
+			}
+
+			stack.push(null);
+			pushed.push(pushedHere);
+			List<BasicBlock> children = dominators.getChildren(block);
+			for (int i = children.size() - 1; i >= 0; i--) {
+				stack.push(children.get(i));
+			}
+		}
+
+		for (Map.Entry<Load, Type> e : nullLoads.entrySet()) {
+			TemporaryVar var = e.getKey().getVar();
+			e.getKey().setVar(Ast.TemporaryVar(var.getName()));
+			e.getKey().replaceBy(Ast.Bitcast(var, e.getValue(), Ast.Nullpointer()));
+		}
+	}
+
+	private static Alloca allocaFor(Operand address, Map<Variable, Alloca> allocaOfVar) {
+		if (address instanceof VarRef) {
+			return allocaOfVar.get(((VarRef) address).getVariable());
+		}
+		return null;
+	}
+
+	private static Operand currentValue(Alloca alloca, Map<Alloca, Deque<Operand>> values) {
+		Operand value = values.get(alloca).peek();
+		if (value == null) {
+			return OptimUtils.defaultValue(alloca.getType());
+		}
+		return value;
+	}
+}
@@ -0,0 +1,220 @@
+package minillvm.optim;
+
+import minillvm.analysis.AliasAnalysis;
+import minillvm.analysis.Dominators;
+import minillvm.analysis.Loops;
+import minillvm.analysis.Loops.Loop;
+import minillvm.ast.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Keeps memory which is loaded and stored in a loop in a register (scalar promotion).
+ *
+ * The memory must be accessed through the same invariant address, and not through any other
+ * address which may alias. It is loaded in the preheader and kept in a new alloca,
+ * which becomes SSA values. The value is written back before every call in the loop
+ * and at the start of the exit blocks, except for exits which only halt with an error.
+ * Calls in the loop must not change the memory.
+ */
+public class ScalarPromotion {
+
+	private AliasAnalysis aliasAnalysis;
+
+	/**
+	 * @return true, if some procedure was changed
+	 */
+	public boolean optimizeProgram(Prog prog) {
+		boolean changed = false;
+		for (Proc proc : prog.getProcedures()) {
+			changed |= new LoopSimplify().insertPreheaders(proc);
+		}
+		return optimizeProgram(prog, Loops::new) || changed;
+	}
+
+	/**
+	 * Loops without a preheader are skipped.
+	 *
+	 * @param loops the loops of a procedure as it is
+	 * @return true, if some procedure was changed
+	 */
+	public boolean optimizeProgram(Prog prog, Function<Proc, Loops> loops) {
+		aliasAnalysis = new AliasAnalysis(prog);
+		boolean changed = false;
+		for (Proc proc : prog.getProcedures()) {
+			if (!proc.getBasicBlocks().isEmpty()) {
+				changed |= optimizeProc(proc, loops.apply(proc));
+			}
+		}
+		return changed;
+	}
+
+	private boolean optimizeProc(Proc proc, Loops loops) {
+		Dominators dominators = loops.getDominators();
+		boolean promoted = false;
+		for (Loop loop : loops.getLoopsInnermostFirst()) {
+			if (loop.getPreheader() != null) {
+				promoted |= promote(proc, loop, dominators);
+			}
+		}
+		if (promoted) {
+			// promotion only adds instructions, so the dominators are still valid
+			new SSATransformation().transformProc(proc, dominators);
+		}
+		return promoted;
+	}
+
+	/**
+	 * promotes the memory at invariant addresses stored in the loop
+	 *
+	 * @return true, if some address was promoted (the procedure has to be transformed to SSA form then)
+	 */
+	private boolean promote(Proc proc, Loop loop, Dominators dominators) {
+		Set<Variable> definedInLoop = new HashSet<>();
+		List<Instruction> accesses = new ArrayList<>();
+		List<Call> calls = new ArrayList<>();
+		for (BasicBlock block : loop.getBlocks()) {
+			for (Instruction instr : block) {
+				if (instr instanceof Assign) {
+					definedInLoop.add(((Assign) instr).getVar());
+				}
+				if (instr instanceof Load || instr instanceof Store) {
+					accesses.add(instr);
+				} else if (instr instanceof Call) {
+					calls.add((Call) instr);
+				}
+			}
+		}
+		List<BasicBlock> exits = new ArrayList<>();
+		for (BasicBlock exit : loop.getExitBlocks()) {
+			if (halts(exit)) {
+				continue;
+			}
+			for (BasicBlock pred : dominators.getPredecessors(exit)) {
+				if (!loop.contains(pred) && dominators.isReachable(pred)) {
+					// the written back value is only known on edges from the loop
+					return false;
+				}
+			}
+			exits.add(exit);
+		}
+
+		Set<Variable> nonNull = LoopInvariantCodeMotion.nonNullAt(loop.getPreheader(), dominators);
+		Set<Object> tried = new HashSet<>();
+		boolean promoted = false;
+		for (Instruction instr : accesses) {
+			if (!(instr instanceof Store)) {
+				continue;
+			}
+			Operand address = ((Store) instr).getAddress();
+			Object key = invariantAddressKey(address, definedInLoop);
+			if (key == null || !tried.add(key)) {
+				continue;
+			}
+			List<Instruction> group = new ArrayList<>();
+			if (canPromote(address, key, accesses, calls, definedInLoop, group)
+					&& (LoopInvariantCodeMotion.isDereferenceable(address, nonNull, aliasAnalysis)
+							|| hasAccessInEveryIteration(group, loop, dominators))) {
+				promote(proc, loop.getPreheader(), address, group, calls, exits);
+				promoted = true;
+			}
+		}
+		return promoted;
+	}
+
+	/** checks whether the block only halts with an error, so the memory cannot be observed any more */
+	private static boolean halts(BasicBlock block) {
+		Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+		if (!t.isPresent() || !(t.get() instanceof HaltWithError)) {
+			return false;
+		}
+		for (Instruction instr : block) {
+			if (instr instanceof Call) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** the variable or global of an address which does not change in the loop, otherwise null */
+	private static Object invariantAddressKey(Operand address, Set<Variable> definedInLoop) {
+		if (address instanceof GlobalRef) {
+			return ((GlobalRef) address).getGlobal();
+		} else if (address instanceof VarRef && !definedInLoop.contains(((VarRef) address).getVariable())
+				&& !(AliasAnalysis.definition(address) instanceof Alloca)) {
+			// allocas are promoted by the SSA transformation
+			return ((VarRef) address).getVariable();
+		}
+		return null;
+	}
+
+	/**
+	 * checks that all accesses in the loop which may alias the address use exactly this address
+	 * and no call may change it, the accesses are added to the group
+	 */
+	private boolean canPromote(Operand address, Object key, List<Instruction> accesses, List<Call> calls,
+			Set<Variable> definedInLoop, List<Instruction> group) {
+		if (aliasAnalysis.isConstantMemory(address)) {
+			return false;
+		}
+		for (Instruction instr : accesses) {
+			Operand a = instr instanceof Load ? ((Load) instr).getAddress() : ((Store) instr).getAddress();
+			if (key.equals(invariantAddressKey(a, definedInLoop))) {
+				group.add(instr);
+			} else if (aliasAnalysis.mayAlias(a, address)) {
+				return false;
+			}
+		}
+		for (Call call : calls) {
+			if (aliasAnalysis.mayWrite(call, address)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean hasAccessInEveryIteration(List<Instruction> group, Loop loop, Dominators dominators) {
+		for (Instruction instr : group) {
+			if (LoopInvariantCodeMotion.isExecutedEveryIteration((BasicBlock) instr.getParent(), loop, dominators)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void promote(Proc proc, BasicBlock preheader, Operand address, List<Instruction> group,
+			List<Call> calls, List<BasicBlock> exits) {
+		TemporaryVar slot = Ast.TemporaryVar("promoted");
+		proc.getBasicBlocks().get(0).addFront(Ast.Alloca(slot, AliasAnalysis.accessedType(address)));
+		TemporaryVar initial = Ast.TemporaryVar("promoted");
+		OptimUtils.insertBeforeTerminator(preheader, Ast.Load(initial, address.copy()));
+		OptimUtils.insertBeforeTerminator(preheader, Ast.Store(Ast.VarRef(slot), Ast.VarRef(initial)));
+		for (Instruction instr : group) {
+			if (instr instanceof Load) {
+				((Load) instr).setAddress(Ast.VarRef(slot));
+			} else {
+				((Store) instr).setAddress(Ast.VarRef(slot));
+			}
+		}
+		for (Call call : calls) {
+			BasicBlock block = (BasicBlock) call.getParent();
+			int index = block.indexOf(call);
+			for (Instruction instr : writeBack(slot, address)) {
+				block.add(index++, instr);
+			}
+		}
+		// the write back of an enclosing loop comes first, so the value of the inner loop is stored last
+		for (BasicBlock exit : exits) {
+			int index = exit.getPhiNodes().size();
+			for (Instruction instr : writeBack(slot, address)) {
+				exit.add(index++, instr);
+			}
+		}
+	}
+
+	private static List<Instruction> writeBack(TemporaryVar slot, Operand address) {
+		TemporaryVar value = Ast.TemporaryVar("promoted");
+		return Arrays.asList(Ast.Load(value, Ast.VarRef(slot)), Ast.Store(address.copy(), Ast.VarRef(value)));
+	}
+}
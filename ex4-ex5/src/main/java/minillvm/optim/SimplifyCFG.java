@@ -0,0 +1,187 @@
+package minillvm.optim;
+
+import minillvm.analysis.BasicBlocks;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Simplifies the control flow graph of a procedure.
+ *
+ * Branches with the same target on both sides become jumps, jumps through empty blocks
+ * go directly to the target, blocks are merged into their only predecessor if it
+ * has no other successor, and unreachable blocks are removed.
+ */
+public class SimplifyCFG {
+
+	public void optimizeProgram(Prog prog) {
+		for (Proc proc : prog.getProcedures()) {
+			optimizeProc(proc);
+		}
+	}
+
+	/**
+	 * @return true, if the control flow graph was changed
+	 */
+	public boolean optimizeProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		boolean simplified = false;
+		boolean changed = true;
+		while (changed) {
+			changed = OptimUtils.removeUnreachableBlocks(proc);
+			changed |= simplifyBranches(proc);
+			changed |= forwardEmptyBlocks(proc);
+			changed |= mergeBlocks(proc);
+			simplified |= changed;
+		}
+		return simplified;
+	}
+
+	/** replaces branches with the same target on both sides or a constant condition by jumps */
+	private boolean simplifyBranches(Proc proc) {
+		boolean changed = false;
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+			if (t.isPresent() && t.get() instanceof Branch) {
+				Branch branch = (Branch) t.get();
+				if (branch.getIfTrueLabel() == branch.getIfFalseLabel()) {
+					branch.replaceBy(Ast.Jump(branch.getIfTrueLabel()));
+					changed = true;
+				} else if (branch.getCondition() instanceof ConstBool) {
+					boolean value = ((ConstBool) branch.getCondition()).getBoolVal();
+					BasicBlock target = value ? branch.getIfTrueLabel() : branch.getIfFalseLabel();
+					OptimUtils.removePhiChoice(value ? branch.getIfFalseLabel() : branch.getIfTrueLabel(), block);
+					branch.replaceBy(Ast.Jump(target));
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * lets the predecessors of blocks which only contain a jump jump directly to the target
+	 */
+	private boolean forwardEmptyBlocks(Proc proc) {
+		boolean changed = false;
+		BasicBlock entry = proc.getBasicBlocks().get(0);
+		Map<BasicBlock, List<BasicBlock>> preds = BasicBlocks.getPredecessors(proc.getBasicBlocks());
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			if (block == entry || !isEmpty(block)) {
+				continue;
+			}
+			BasicBlock target = ((Jump) block.getTerminatingInstruction().get()).getLabel();
+			if (target == block) {
+				continue;
+			}
+			for (BasicBlock pred : new LinkedHashSet<>(preds.get(block))) {
+				if (!canForward(pred, block, target, preds)) {
+					continue;
+				}
+				if (!preds.get(target).contains(pred)) {
+					for (PhiNode phi : target.getPhiNodes()) {
+						Operand value = valueFrom(phi, block);
+						phi.getChoices().add(Ast.PhiNodeChoice(pred, value.copy()));
+					}
+				}
+				LoopSimplify.redirect(pred, block, target);
+				preds.get(target).add(pred);
+				preds.get(block).removeIf(p -> p == pred);
+				changed = true;
+			}
+			if (preds.get(block).isEmpty()) {
+				OptimUtils.removePhiChoice(target, block);
+				preds.get(target).remove(block);
+			}
+		}
+		return changed;
+	}
+
+	/** a block without phi nodes and instructions other than a jump */
+	private static boolean isEmpty(BasicBlock block) {
+		for (Instruction instr : block) {
+			if (!(instr instanceof Jump) && !(instr instanceof CommentInstr)) {
+				return false;
+			}
+		}
+		return block.getTerminatingInstruction().isPresent();
+	}
+
+	/**
+	 * the phi nodes of the target need a value for the predecessor, which is only
+	 * possible, if the predecessor does not jump to the target already with a different value
+	 * (the branch to the target on both sides then becomes a jump)
+	 */
+	private static boolean canForward(BasicBlock pred, BasicBlock block, BasicBlock target,
+			Map<BasicBlock, List<BasicBlock>> preds) {
+		if (!preds.get(target).contains(pred)) {
+			return true;
+		}
+		for (PhiNode phi : target.getPhiNodes()) {
+			Operand a = valueFrom(phi, block);
+			Operand b = valueFrom(phi, pred);
+			if (!a.structuralEquals(b) || (a instanceof VarRef
+					&& ((VarRef) a).getVariable() != ((VarRef) b).getVariable())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Operand valueFrom(PhiNode phi, BasicBlock pred) {
+		for (PhiNodeChoice choice : phi.getChoices()) {
+			if (choice.getLabel() == pred) {
+				return choice.getValue();
+			}
+		}
+		throw new IllegalStateException("no value for " + pred.getName() + " in phi " + phi.getVar().getName());
+	}
+
+	/** merges blocks into their only predecessor, if they are its only successor */
+	private boolean mergeBlocks(Proc proc) {
+		boolean changed = false;
+		BasicBlock entry = proc.getBasicBlocks().get(0);
+		Map<BasicBlock, List<BasicBlock>> preds = BasicBlocks.getPredecessors(proc.getBasicBlocks());
+		for (int i = 0; i < proc.getBasicBlocks().size(); i++) {
+			BasicBlock block = proc.getBasicBlocks().get(i);
+			List<BasicBlock> p = preds.get(block);
+			if (block == entry || p.size() != 1 || p.get(0) == block
+					|| !(p.get(0).getTerminatingInstruction().get() instanceof Jump)) {
+				continue;
+			}
+			BasicBlock pred = p.get(0);
+
+			Map<Variable, Operand> replacements = new HashMap<>();
+			for (PhiNode phi : block.getPhiNodes()) {
+				replacements.put(phi.getVar(), phi.getChoices().get(0).getValue());
+			}
+			pred.remove(pred.size() - 1 - trailingComments(pred));
+			while (!block.isEmpty()) {
+				Instruction instr = block.get(0);
+				block.remove(0);
+				if (!(instr instanceof PhiNode)) {
+					pred.add(instr);
+				}
+			}
+			for (BasicBlock succ : pred.getSuccessors()) {
+				OptimUtils.replacePhiLabel(succ, block, pred);
+				preds.get(succ).replaceAll(b -> b == block ? pred : b);
+			}
+			proc.getBasicBlocks().remove(i);
+			i--;
+			OptimUtils.replaceVariables(proc, replacements);
+			changed = true;
+		}
+		return changed;
+	}
+
+	private static int trailingComments(BasicBlock block) {
+		int count = 0;
+		for (int i = block.size() - 1; i >= 0 && block.get(i) instanceof CommentInstr; i--) {
+			count++;
+		}
+		return count;
+	}
+}
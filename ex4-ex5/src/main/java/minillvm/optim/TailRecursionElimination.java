@@ -0,0 +1,336 @@
+package minillvm.optim;
+
+import minillvm.analysis.AliasAnalysis;
+import minillvm.ast.*;
+
+import java.util.*;
+
+/**
+ * Turns self-recursive tail calls into jumps back to the start of the procedure.
+ *
+ * The old entry block becomes a loop header with a phi node for every parameter,
+ * which gets the arguments of the tail calls. A call is a tail call, if its result
+ * is returned directly or through a block which only merges the returned value.
+ *
+ * Results combined by additions (or multiplications) before they are returned,
+ * as in {@code return f(n - 1) + n}, are handled with an accumulator:
+ * the other operands are added to it before the jump and
+ * it is added to every value returned from the procedure.
+ */
+public class TailRecursionElimination {
+
+	/** a self-recursive call and what is done with its result before it is returned */
+	private static final class TailCall {
+		final Call call;
+		/** Add or Mul combining the result with the leaves, null if the result is returned directly */
+		final Operator operator;
+		/** the values combined with the result of the call */
+		final List<Operand> leaves = new ArrayList<>();
+		/** the operations combining the result, removed together with the call */
+		final List<BinaryOperation> operations = new ArrayList<>();
+
+		TailCall(Call call, Operator operator) {
+			this.call = call;
+			this.operator = operator;
+		}
+	}
+
+	public void optimizeProgram(Prog prog) {
+		for (Proc proc : prog.getProcedures()) {
+			optimizeProc(proc);
+		}
+	}
+
+	/**
+	 * @return true, if some tail call was replaced
+	 */
+	public boolean optimizeProc(Proc proc) {
+		if (proc.getBasicBlocks().isEmpty()) {
+			return false;
+		}
+		Map<Variable, Integer> useCounts = countUses(proc);
+		boolean duplicated = duplicateReturns(proc, useCounts);
+
+		List<TailCall> tailCalls = new ArrayList<>();
+		Operator accumulation = null;
+		for (BasicBlock block : proc.getBasicBlocks()) {
+			Optional<TerminatingInstruction> t = block.getTerminatingInstruction();
+			if (!t.isPresent() || !(t.get() instanceof ReturnExpr)) {
+				continue;
+			}
+			TailCall tailCall = tailCall(proc, block, ((ReturnExpr) t.get()).getReturnValue(), useCounts);
+			if (tailCall == null) {
+				continue;
+			}
+			if (tailCall.operator != null) {
+				if (accumulation == null) {
+					accumulation = tailCall.operator;
+				} else if (accumulation.getClass() != tailCall.operator.getClass()) {
+					continue;
+				}
+			}
+			tailCalls.add(tailCall);
+		}
+		if (tailCalls.isEmpty()) {
+			return duplicated;
+		}
+		transform(proc, tailCalls, accumulation);
+		OptimUtils.removeUnreachableBlocks(proc);
+		return true;
+	}
+
+	/**
+	 * lets predecessors of a block, which only returns the value of its phi node,
+	 * return their value themselves, if that value is computed by a tail call
+	 */
+	private static boolean duplicateReturns(Proc proc, Map<Variable, Integer> useCounts) {
+		boolean changed = false;
+		for (BasicBlock block : new ArrayList<>(proc.getBasicBlocks())) {
+			PhiNode phi = returnedPhi(block);
+			if (phi == null) {
+				continue;
+			}
+			List<PhiNodeChoice> duplicated = new ArrayList<>();
+			for (PhiNodeChoice choice : phi.getChoices()) {
+				BasicBlock pred = choice.getLabel();
+				TerminatingInstruction t = pred.getTerminatingInstruction().orElse(null);
+				if (t instanceof Jump && tailCall(proc, pred, choice.getValue(), useCounts) != null) {
+					duplicated.add(choice);
+				}
+			}
+			for (PhiNodeChoice choice : duplicated) {
+				Operand value = choice.getValue();
+				choice.getLabel().getTerminatingInstruction().get().replaceBy(Ast.ReturnExpr(value.copy()));
+				phi.getChoices().removeIf(c -> c == choice);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/** the phi node of a block consisting only of the phi node and a return of its value */
+	private static PhiNode returnedPhi(BasicBlock block) {
+		PhiNode phi = null;
+		for (Instruction instr : block) {
+			if (instr instanceof PhiNode && phi == null) {
+				phi = (PhiNode) instr;
+			} else if (instr instanceof ReturnExpr && phi != null) {
+				Operand value = ((ReturnExpr) instr).getReturnValue();
+				return value instanceof VarRef && ((VarRef) value).getVariable() == phi.getVar() ? phi : null;
+			} else if (!(instr instanceof CommentInstr)) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * checks whether the value returned at the end of the block is the result of the last
+	 * call of the procedure itself in the block (possibly combined with other values)
+	 *
+	 * @return the tail call or null
+	 */
+	private static TailCall tailCall(Proc proc, BasicBlock block, Operand returned, Map<Variable, Integer> useCounts) {
+		int index = -1;
+		for (int i = block.size() - 1; i >= 0; i--) {
+			if (block.get(i) instanceof Call && isSelfCall(proc, (Call) block.get(i))) {
+				index = i;
+				break;
+			}
+		}
+		if (index < 0) {
+			return null;
+		}
+		Call call = (Call) block.get(index);
+		// everything after the call is executed before the next iteration instead
+		for (int i = index + 1; i < block.size(); i++) {
+			if (!isPure(block.get(i))) {
+				return null;
+			}
+		}
+		if (useCounts.getOrDefault(call.getVar(), 0) != 1) {
+			return null;
+		}
+		if (returned instanceof VarRef && ((VarRef) returned).getVariable() == call.getVar()) {
+			return new TailCall(call, null);
+		}
+		Assign def = AliasAnalysis.definition(returned);
+		if (!(def instanceof BinaryOperation)) {
+			return null;
+		}
+		Operator operator = ((BinaryOperation) def).getOperator();
+		if (!(operator instanceof Add) && !(operator instanceof Mul)) {
+			return null;
+		}
+		TailCall tailCall = new TailCall(call, operator);
+		return accumulate(returned, tailCall, useCounts) ? tailCall : null;
+	}
+
+	/**
+	 * collects the operands combined with the result of the call into the given value
+	 *
+	 * @return false, if the value depends on the result in some other way
+	 */
+	private static boolean accumulate(Operand value, TailCall tailCall, Map<Variable, Integer> useCounts) {
+		Call call = tailCall.call;
+		if (value instanceof VarRef && ((VarRef) value).getVariable() == call.getVar()) {
+			return true;
+		}
+		Assign def = AliasAnalysis.definition(value);
+		if (!(def instanceof BinaryOperation) || def.getParent() != call.getParent()
+				|| ((BinaryOperation) def).getOperator().getClass() != tailCall.operator.getClass()
+				|| useCounts.getOrDefault(def.getVar(), 0) != 1) {
+			return false;
+		}
+		BinaryOperation op = (BinaryOperation) def;
+		boolean leftDepends = dependsOn(op.getLeft(), call);
+		boolean rightDepends = dependsOn(op.getRight(), call);
+		if (leftDepends == rightDepends) {
+			return false;
+		}
+		tailCall.operations.add(op);
+		tailCall.leaves.add(leftDepends ? op.getRight() : op.getLeft());
+		return accumulate(leftDepends ? op.getLeft() : op.getRight(), tailCall, useCounts);
+	}
+
+	/** checks whether the operand is computed from the result of the call (in the block of the call) */
+	private static boolean dependsOn(Operand operand, Call call) {
+		if (!(operand instanceof VarRef)) {
+			return false;
+		}
+		if (((VarRef) operand).getVariable() == call.getVar()) {
+			return true;
+		}
+		Assign def = AliasAnalysis.definition(operand);
+		if (def == null || def instanceof PhiNode || def.getParent() != call.getParent()) {
+			return false;
+		}
+		boolean[] result = {false};
+		def.accept(new Element.DefaultVisitor() {
+			@Override
+			public void visit(VarRef varRef) {
+				result[0] |= dependsOn(varRef, call);
+			}
+		});
+		return result[0];
+	}
+
+	private static boolean isSelfCall(Proc proc, Call call) {
+		return call.getFunction() instanceof ProcedureRef && ((ProcedureRef) call.getFunction()).getProcedure() == proc;
+	}
+
+	/** instructions which neither have side effects nor can fail or read memory */
+	private static boolean isPure(Instruction instr) {
+		if (instr instanceof BinaryOperation) {
+			Operator operator = ((BinaryOperation) instr).getOperator();
+			return !(operator instanceof Sdiv) && !(operator instanceof Srem);
+		}
+		return instr instanceof Bitcast || instr instanceof GetElementPtr || instr instanceof Select
+				|| instr instanceof CommentInstr || instr instanceof TerminatingInstruction;
+	}
+
+	private static void transform(Proc proc, List<TailCall> tailCalls, Operator accumulation) {
+		BasicBlock header = proc.getBasicBlocks().get(0);
+		BasicBlock entry = Ast.BasicBlock();
+		entry.setName("entry");
+		for (int i = header.size() - 1; i >= 0; i--) {
+			if (header.get(i) instanceof Alloca) {
+				Instruction alloca = header.get(i);
+				header.remove(i);
+				entry.addFront(alloca);
+			}
+		}
+		entry.add(Ast.Jump(header));
+		proc.getBasicBlocks().add(0, entry);
+
+		// parameters passed on unchanged (like this) need no phi node
+		List<PhiNode> parameters = new ArrayList<>();
+		Map<Variable, Operand> replacements = new HashMap<>();
+		int phiCount = 0;
+		for (int i = 0; i < proc.getParameters().size(); i++) {
+			Parameter param = proc.getParameters().get(i);
+			if (isPassedOn(param, i, tailCalls)) {
+				parameters.add(null);
+				continue;
+			}
+			PhiNode phi = Ast.PhiNode(Ast.TemporaryVar(param.getName()), param.getType().copy(), Ast.PhiNodeChoiceList());
+			header.add(phiCount++, phi);
+			parameters.add(phi);
+			replacements.put(param, Ast.VarRef(phi.getVar()));
+		}
+		PhiNode accumulator = null;
+		if (accumulation != null) {
+			accumulator = Ast.PhiNode(Ast.TemporaryVar("accumulator"), proc.getReturnType().copy(),
+					Ast.PhiNodeChoiceList());
+			header.add(phiCount, accumulator);
+		}
+
+		Set<Instruction> removed = OptimUtils.identitySet();
+		for (TailCall tailCall : tailCalls) {
+			BasicBlock block = (BasicBlock) tailCall.call.getParent();
+			for (int i = 0; i < parameters.size(); i++) {
+				if (parameters.get(i) != null) {
+					Operand arg = tailCall.call.getArguments().get(i);
+					parameters.get(i).getChoices().add(Ast.PhiNodeChoice(block, arg.copy()));
+				}
+			}
+			if (accumulator != null) {
+				Operand value = Ast.VarRef(accumulator.getVar());
+				for (Operand leaf : tailCall.leaves) {
+					TemporaryVar sum = Ast.TemporaryVar("accumulator");
+					OptimUtils.insertBeforeTerminator(block,
+							Ast.BinaryOperation(sum, value, accumulation.copy(), leaf.copy()));
+					value = Ast.VarRef(sum);
+				}
+				accumulator.getChoices().add(Ast.PhiNodeChoice(block, value));
+			}
+			removed.add(tailCall.call);
+			removed.addAll(tailCall.operations);
+			block.getTerminatingInstruction().get().replaceBy(Ast.Jump(header));
+		}
+		OptimUtils.removeInstructions(proc, removed);
+		// the arguments of the tail calls refer to the values of the current iteration
+		OptimUtils.replaceVariables(proc, replacements);
+		for (int i = 0; i < parameters.size(); i++) {
+			if (parameters.get(i) != null) {
+				parameters.get(i).getChoices().add(Ast.PhiNodeChoice(entry, Ast.VarRef(proc.getParameters().get(i))));
+			}
+		}
+
+		if (accumulator != null) {
+			int identity = accumulation instanceof Add ? 0 : 1;
+			accumulator.getChoices().add(Ast.PhiNodeChoice(entry, Ast.ConstInt(identity)));
+			for (BasicBlock block : proc.getBasicBlocks()) {
+				TerminatingInstruction t = block.getTerminatingInstruction().orElse(null);
+				if (t instanceof ReturnExpr) {
+					ReturnExpr ret = (ReturnExpr) t;
+					TemporaryVar result = Ast.TemporaryVar("result");
+					OptimUtils.insertBeforeTerminator(block, Ast.BinaryOperation(result,
+							Ast.VarRef(accumulator.getVar()), accumulation.copy(), ret.getReturnValue().copy()));
+					ret.setReturnValue(Ast.VarRef(result));
+				}
+			}
+		}
+	}
+
+	private static boolean isPassedOn(Parameter param, int index, List<TailCall> tailCalls) {
+		for (TailCall tailCall : tailCalls) {
+			Operand arg = tailCall.call.getArguments().get(index);
+			if (!(arg instanceof VarRef) || ((VarRef) arg).getVariable() != param) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Map<Variable, Integer> countUses(Proc proc) {
+		Map<Variable, Integer> result = new HashMap<>();
+		proc.accept(new Element.DefaultVisitor() {
+			@Override
+			public void visit(VarRef varRef) {
+				result.merge(varRef.getVariable(), 1, Integer::sum);
+			}
+		});
+		return result;
+	}
+}
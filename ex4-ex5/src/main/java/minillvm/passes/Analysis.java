@@ -0,0 +1,22 @@
+package minillvm.passes;
+
+import minillvm.analysis.Dominators;
+import minillvm.analysis.Loops;
+import minillvm.ast.Proc;
+
+/**
+ * Computes facts about a procedure, which the {@link AnalysisManager} caches until a pass changes the procedure.
+ *
+ * Analyses are identified by their instance, so they are defined once as constants.
+ */
+public interface Analysis<T> {
+
+	Analysis<Dominators> DOMINATORS = (proc, analyses) -> new Dominators(proc);
+
+	Analysis<Loops> LOOPS = (proc, analyses) -> new Loops(analyses.get(DOMINATORS, proc));
+
+	/**
+	 * @param analyses for getting the results of other analyses
+	 */
+	T compute(Proc proc, AnalysisManager analyses);
+}
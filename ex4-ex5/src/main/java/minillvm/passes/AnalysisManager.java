@@ -0,0 +1,69 @@
+package minillvm.passes;
+
+import minillvm.ast.Proc;
+
+import java.util.*;
+
+/**
+ * Caches the results of analyses for every procedure.
+ *
+ * A result stays valid until a pass reports that it changed the procedure
+ * without preserving the analysis.
+ */
+public class AnalysisManager {
+
+	private final Map<Proc, Map<Analysis<?>, Object>> results = new IdentityHashMap<>();
+	private int computations;
+	private int hits;
+
+	@SuppressWarnings("unchecked")
+	public <T> T get(Analysis<T> analysis, Proc proc) {
+		Map<Analysis<?>, Object> cached = results.computeIfAbsent(proc, p -> new IdentityHashMap<>());
+		Object result = cached.get(analysis);
+		if (result != null) {
+			hits++;
+			return (T) result;
+		}
+		// not computeIfAbsent, since the analysis can use other cached analyses
+		T computed = analysis.compute(proc, this);
+		computations++;
+		results.get(proc).put(analysis, computed);
+		return computed;
+	}
+
+	public boolean isCached(Analysis<?> analysis, Proc proc) {
+		return results.getOrDefault(proc, Collections.emptyMap()).containsKey(analysis);
+	}
+
+	/** drops the results for the procedure except for the preserved analyses */
+	public void invalidate(Proc proc, Set<Analysis<?>> preserved) {
+		Map<Analysis<?>, Object> cached = results.get(proc);
+		if (cached != null) {
+			cached.keySet().removeIf(a -> !preserved.contains(a));
+		}
+	}
+
+	/** drops the results for all procedures except for the preserved analyses */
+	public void invalidateAll(Set<Analysis<?>> preserved) {
+		for (Proc proc : new ArrayList<>(results.keySet())) {
+			invalidate(proc, preserved);
+		}
+	}
+
+	/** forgets procedures which are no longer part of the program */
+	public void retainAll(Collection<Proc> procs) {
+		Set<Proc> remaining = Collections.newSetFromMap(new IdentityHashMap<>());
+		remaining.addAll(procs);
+		results.keySet().removeIf(p -> !remaining.contains(p));
+	}
+
+	/** the number of results computed so far */
+	public int getComputations() {
+		return computations;
+	}
+
+	/** the number of results taken from the cache so far */
+	public int getHits() {
+		return hits;
+	}
+}
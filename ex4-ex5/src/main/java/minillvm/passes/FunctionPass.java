@@ -0,0 +1,14 @@
+package minillvm.passes;
+
+import minillvm.ast.Proc;
+
+/**
+ * A pass which optimizes every procedure on its own.
+ */
+public interface FunctionPass extends Pass {
+
+	/**
+	 * @return true, if the procedure was changed
+	 */
+	boolean run(Proc proc, AnalysisManager analyses);
+}
@@ -0,0 +1,14 @@
+package minillvm.passes;
+
+import minillvm.ast.Prog;
+
+/**
+ * A pass which looks at the whole program at once, for example to inline calls.
+ */
+public interface ModulePass extends Pass {
+
+	/**
+	 * @return true, if some procedure was changed, added or removed
+	 */
+	boolean run(Prog prog, AnalysisManager analyses);
+}
@@ -0,0 +1,25 @@
+package minillvm.passes;
+
+/**
+ * The optimization levels selectable with the flags -O0, -O1 and -O2.
+ */
+public enum OptimizationLevel {
+	/** the code as translated */
+	O0,
+	/** SSA form, constant propagation, cleanups and complete unrolling of small loops */
+	O1,
+	/** all optimizations */
+	O2;
+
+	/**
+	 * @param flag a flag like -O1
+	 */
+	public static OptimizationLevel fromFlag(String flag) {
+		for (OptimizationLevel level : values()) {
+			if (flag.equals("-" + level.name())) {
+				return level;
+			}
+		}
+		throw new IllegalArgumentException("unknown optimization level " + flag);
+	}
+}
@@ -0,0 +1,22 @@
+package minillvm.passes;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * An optimization run by the {@link PassManager}.
+ */
+public interface Pass {
+
+	String getName();
+
+	/** the analyses used by the pass, which are computed before it runs */
+	default Set<Analysis<?>> getRequired() {
+		return Collections.emptySet();
+	}
+
+	/** the analyses which stay valid when the pass changes a procedure */
+	default Set<Analysis<?>> getPreserved() {
+		return Collections.emptySet();
+	}
+}
@@ -0,0 +1,158 @@
+package minillvm.passes;
+
+import minillvm.ast.Proc;
+import minillvm.ast.Prog;
+import minillvm.optim.Peephole;
+
+import java.util.*;
+
+/**
+ * Runs a pipeline of passes over a program.
+ *
+ * Function passes run on one procedure after the other. The analyses required by a pass
+ * are taken from the {@link AnalysisManager} and only recomputed after a pass
+ * reported a change to the procedure, which the analysis does not survive.
+ * A change by a module pass invalidates the analyses of all procedures, except for those it preserves.
+ */
+public class PassManager {
+
+	/** loops are only unrolled completely at -O1, with a smaller budget */
+	private static final int O1_UNROLL_BUDGET = 64;
+	private static final int O2_UNROLL_BUDGET = 200;
+	private static final int O2_UNROLL_FACTOR = 4;
+
+	private final List<Pass> passes = new ArrayList<>();
+	private final AnalysisManager analyses;
+	/** the number of runs of each pass which changed something */
+	private final Map<String, Integer> changes = new LinkedHashMap<>();
+	/** the peephole optimizer of all peephole passes of the pipeline, which counts the applied rules */
+	private final Peephole peephole = new Peephole();
+
+	public PassManager() {
+		this(new AnalysisManager());
+	}
+
+	public PassManager(AnalysisManager analyses) {
+		this.analyses = analyses;
+	}
+
+	/** the pipeline for the given optimization level */
+	public static PassManager forLevel(OptimizationLevel level) {
+		PassManager pm = new PassManager();
+		switch (level) {
+			case O0:
+				break;
+			case O1:
+				pm.add(Passes.ssa());
+				pm.add(Passes.constantPropagation());
+				pm.add(Passes.peephole(pm.peephole));
+				pm.add(Passes.deadCodeElimination());
+				pm.add(Passes.simplifyCFG());
+				pm.add(Passes.loopUnrolling(O1_UNROLL_BUDGET, 1));
+				pm.add(Passes.constantPropagation());
+				pm.add(Passes.deadCodeElimination());
+				pm.add(Passes.simplifyCFG());
+				break;
+			case O2:
+				pm.add(Passes.ssa());
+				pm.add(Passes.inline());
+				pm.add(Passes.constantPropagation());
+				pm.add(Passes.peephole(pm.peephole));
+				pm.add(Passes.simplifyCFG());
+				pm.add(Passes.tailRecursion());
+				pm.add(Passes.escapeAnalysis());
+				pm.add(Passes.globalValueNumbering());
+				pm.add(Passes.loadElimination());
+				pm.add(Passes.globalValueNumbering());
+				pm.add(Passes.nullCheckElimination());
+				pm.add(Passes.simplifyCFG());
+				pm.add(Passes.jumpThreading());
+				pm.add(Passes.simplifyCFG());
+				pm.add(Passes.loopRotation());
+				pm.add(Passes.loopInvariantCodeMotion());
+				pm.add(Passes.scalarPromotion());
+				pm.add(Passes.loadElimination());
+				pm.add(Passes.rangeCheckElimination());
+				pm.add(Passes.loopUnrolling(O2_UNROLL_BUDGET, O2_UNROLL_FACTOR));
+				pm.add(Passes.constantPropagation());
+				pm.add(Passes.strengthReduction());
+				pm.add(Passes.peephole(pm.peephole));
+				pm.add(Passes.deadCodeElimination());
+				pm.add(Passes.simplifyCFG());
+				pm.add(Passes.jumpThreading());
+				pm.add(Passes.deadCodeElimination());
+				pm.add(Passes.simplifyCFG());
+				break;
+		}
+		return pm;
+	}
+
+	public PassManager add(Pass pass) {
+		if (!(pass instanceof FunctionPass) && !(pass instanceof ModulePass)) {
+			throw new IllegalArgumentException("neither a function nor a module pass: " + pass.getName());
+		}
+		passes.add(pass);
+		return this;
+	}
+
+	public List<Pass> getPasses() {
+		return Collections.unmodifiableList(passes);
+	}
+
+	public AnalysisManager getAnalyses() {
+		return analyses;
+	}
+
+	/** for every pass the number of procedures (or programs for module passes) it changed */
+	public Map<String, Integer> getChanges() {
+		return Collections.unmodifiableMap(changes);
+	}
+
+	/** for every peephole rule the number of its applications by the peephole passes of the pipeline */
+	public Map<String, Integer> getPeepholeHits() {
+		return peephole.getHitCounts();
+	}
+
+	/**
+	 * @return true, if some pass changed the program
+	 */
+	public boolean run(Prog prog) {
+		boolean changed = false;
+		for (Pass pass : passes) {
+			if (pass instanceof ModulePass) {
+				changed |= runModulePass((ModulePass) pass, prog);
+			} else {
+				changed |= runFunctionPass((FunctionPass) pass, prog);
+			}
+		}
+		return changed;
+	}
+
+	private boolean runModulePass(ModulePass pass, Prog prog) {
+		if (!pass.run(prog, analyses)) {
+			return false;
+		}
+		changes.merge(pass.getName(), 1, Integer::sum);
+		analyses.retainAll(prog.getProcedures());
+		analyses.invalidateAll(pass.getPreserved());
+		return true;
+	}
+
+	private boolean runFunctionPass(FunctionPass pass, Prog prog) {
+		boolean changed = false;
+		for (Proc proc : prog.getProcedures()) {
+			if (proc.getBasicBlocks().isEmpty()) {
+				continue;
+			}
+			for (Analysis<?> analysis : pass.getRequired()) {
+				analyses.get(analysis, proc);
+			}
+			if (pass.run(proc, analyses)) {
+				changes.merge(pass.getName(), 1, Integer::sum);
+				analyses.invalidate(proc, pass.getPreserved());
+				changed = true;
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,209 @@
+package minillvm.passes;
+
+import minillvm.ast.Proc;
+import minillvm.ast.Prog;
+import minillvm.optim.*;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+
+import static minillvm.passes.Analysis.*;
+
+/**
+ * The optimizations of minillvm.optim as passes.
+ *
+ * Every call creates a new pass with its own optimizer, unless the optimizer is passed in,
+ * like the peephole optimizer whose rule counters the {@link PassManager} reports.
+ */
+public final class Passes {
+
+	/** the analyses of the control flow graph, kept by passes which only change instructions */
+	private static final Set<Analysis<?>> CFG = analyses(DOMINATORS, LOOPS);
+
+	private Passes() {
+	}
+
+	public static FunctionPass ssa() {
+		SSATransformation ssa = new SSATransformation();
+		return function("ssa", analyses(DOMINATORS), analyses(),
+				(proc, a) -> ssa.transformProc(proc, a.get(DOMINATORS, proc)));
+	}
+
+	public static ModulePass inline() {
+		Inliner inliner = new Inliner();
+		return module("inline", analyses(), (prog, a) -> inliner.optimizeProgram(prog));
+	}
+
+	public static FunctionPass constantPropagation() {
+		ConstantPropagation cp = new ConstantPropagation();
+		return function("constant-propagation", analyses(), analyses(), (proc, a) -> cp.optimizeProc(proc));
+	}
+
+	public static FunctionPass peephole() {
+		return peephole(new Peephole());
+	}
+
+	/**
+	 * @param peephole the optimizer counting the applications of its rules,
+	 *                 which can be shared by several passes of a pipeline
+	 */
+	public static FunctionPass peephole(Peephole peephole) {
+		return function("peephole", analyses(), CFG, (proc, a) -> peephole.optimizeProc(proc));
+	}
+
+	public static FunctionPass simplifyCFG() {
+		SimplifyCFG simplify = new SimplifyCFG();
+		return function("simplify-cfg", analyses(), analyses(), (proc, a) -> simplify.optimizeProc(proc));
+	}
+
+	public static FunctionPass tailRecursion() {
+		TailRecursionElimination tre = new TailRecursionElimination();
+		return function("tail-recursion", analyses(), analyses(), (proc, a) -> tre.optimizeProc(proc));
+	}
+
+	public static FunctionPass escapeAnalysis() {
+		EscapeAnalysis ea = new EscapeAnalysis();
+		return function("escape-analysis", analyses(), analyses(), (proc, a) -> ea.optimizeProc(proc));
+	}
+
+	public static FunctionPass globalValueNumbering() {
+		GlobalValueNumbering gvn = new GlobalValueNumbering();
+		return function("gvn", analyses(DOMINATORS), CFG,
+				(proc, a) -> gvn.optimizeProc(proc, a.get(DOMINATORS, proc)));
+	}
+
+	public static ModulePass loadElimination() {
+		RedundantLoadElimination rle = new RedundantLoadElimination();
+		return module("load-elimination", CFG,
+				(prog, a) -> rle.optimizeProgram(prog, proc -> a.get(DOMINATORS, proc)));
+	}
+
+	public static ModulePass nullCheckElimination() {
+		NullCheckElimination nce = new NullCheckElimination();
+		return module("null-checks", analyses(),
+				(prog, a) -> nce.optimizeProgram(prog, proc -> a.get(DOMINATORS, proc)));
+	}
+
+	public static ModulePass loopInvariantCodeMotion() {
+		LoopInvariantCodeMotion licm = new LoopInvariantCodeMotion();
+		return module("licm", CFG, (prog, a) -> insertPreheaders(prog, a)
+				| licm.optimizeProgram(prog, proc -> a.get(LOOPS, proc)));
+	}
+
+	public static ModulePass scalarPromotion() {
+		ScalarPromotion promotion = new ScalarPromotion();
+		return module("scalar-promotion", analyses(), (prog, a) -> insertPreheaders(prog, a)
+				| promotion.optimizeProgram(prog, proc -> a.get(LOOPS, proc)));
+	}
+
+	public static FunctionPass rangeCheckElimination() {
+		RangeCheckElimination rce = new RangeCheckElimination();
+		return function("range-checks", analyses(DOMINATORS), analyses(),
+				(proc, a) -> rce.optimizeProc(proc, a.get(DOMINATORS, proc)));
+	}
+
+	/**
+	 * @param budget the maximum number of instructions of an unrolled loop
+	 * @param maxFactor the maximum number of copies in a partially unrolled loop
+	 */
+	public static FunctionPass loopUnrolling(int budget, int maxFactor) {
+		LoopUnrolling unrolling = new LoopUnrolling(budget, maxFactor);
+		return function("unroll", analyses(LOOPS), analyses(),
+				(proc, a) -> unrolling.optimizeProc(proc, a.get(LOOPS, proc)));
+	}
+
+	public static FunctionPass jumpThreading() {
+		JumpThreading threading = new JumpThreading();
+		return function("jump-threading", analyses(DOMINATORS), analyses(),
+				(proc, a) -> threading.optimizeProc(proc, a.get(DOMINATORS, proc)));
+	}
+
+	public static FunctionPass loopRotation() {
+		LoopRotation rotation = new LoopRotation();
+		return function("rotate", analyses(LOOPS), analyses(),
+				(proc, a) -> rotation.optimizeProc(proc, a.get(LOOPS, proc)));
+	}
+
+	public static FunctionPass strengthReduction() {
+		LoopStrengthReduction lsr = new LoopStrengthReduction();
+		return function("strength-reduction", analyses(LOOPS), CFG,
+				(proc, a) -> insertPreheaders(proc, a) | lsr.optimizeProc(proc, a.get(LOOPS, proc)));
+	}
+
+	public static FunctionPass deadCodeElimination() {
+		DeadCodeElimination dce = new DeadCodeElimination();
+		return function("dce", analyses(), CFG, (proc, a) -> dce.optimizeProc(proc));
+	}
+
+	/**
+	 * Gives the loops of every procedure a preheader, so that the passes moving code
+	 * out of loops only change instructions afterwards.
+	 */
+	private static boolean insertPreheaders(Prog prog, AnalysisManager analyses) {
+		boolean changed = false;
+		for (Proc proc : prog.getProcedures()) {
+			if (!proc.getBasicBlocks().isEmpty()) {
+				changed |= insertPreheaders(proc, analyses);
+			}
+		}
+		return changed;
+	}
+
+	private static boolean insertPreheaders(Proc proc, AnalysisManager analyses) {
+		if (!new LoopSimplify().insertPreheaders(proc, analyses.get(LOOPS, proc))) {
+			return false;
+		}
+		analyses.invalidate(proc, analyses());
+		return true;
+	}
+
+	private static Set<Analysis<?>> analyses(Analysis<?>... analyses) {
+		Set<Analysis<?>> result = Collections.newSetFromMap(new IdentityHashMap<>());
+		result.addAll(Arrays.asList(analyses));
+		return Collections.unmodifiableSet(result);
+	}
+
+	private static FunctionPass function(String name, Set<Analysis<?>> required, Set<Analysis<?>> preserved,
+			BiPredicate<Proc, AnalysisManager> run) {
+		return new FunctionPass() {
+			@Override
+			public String getName() {
+				return name;
+			}
+
+			@Override
+			public Set<Analysis<?>> getRequired() {
+				return required;
+			}
+
+			@Override
+			public Set<Analysis<?>> getPreserved() {
+				return preserved;
+			}
+
+			@Override
+			public boolean run(Proc proc, AnalysisManager analyses) {
+				return run.test(proc, analyses);
+			}
+		};
+	}
+
+	private static ModulePass module(String name, Set<Analysis<?>> preserved, BiPredicate<Prog, AnalysisManager> run) {
+		return new ModulePass() {
+			@Override
+			public String getName() {
+				return name;
+			}
+
+			@Override
+			public Set<Analysis<?>> getPreserved() {
+				return preserved;
+			}
+
+			@Override
+			public boolean run(Prog prog, AnalysisManager analyses) {
+				return run.test(prog, analyses);
+			}
+		};
+	}
+}
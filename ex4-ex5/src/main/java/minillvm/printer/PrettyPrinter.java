@@ -18,6 +18,8 @@ public class PrettyPrinter implements
 	private Map<Element, SourcePosition> sourcePositions = new HashMap<>();
 	private int currentLine = 1;
 	private int currentColumn = 0;
+	/** whether the procedure being printed has no stack variables, so that its calls can be tail calls */
+	private boolean withoutAllocas = false;
 
 	public PrettyPrinter(StringBuilder sb) {
 		this.sb = sb;
@@ -166,9 +168,11 @@ public class PrettyPrinter implements
 			first = false;
 		}
 		appendLine(") {");
+		withoutAllocas = !hasAllocas(proc);
 		for (BasicBlock b : proc.getBasicBlocks()) {
 			print(b);
 		}
+		withoutAllocas = false;
 		appendLine();
 		appendLine("}");
 		appendLine();
@@ -250,6 +254,8 @@ public class PrettyPrinter implements
 		appendLine();
 		appendLine("declare noalias i8* @malloc(i32)");
 		appendLine();
+		appendLine("declare noalias i8* @calloc(i32, i32)");
+		appendLine();
 		appendLine("declare i32 @printf(i8*, ...)");
 		appendLine();
 		appendLine("declare void @exit(i32)");
@@ -391,6 +397,16 @@ public class PrettyPrinter implements
 		append(" to " + s.getType());
 	}
 
+	@Override
+	public void case_Select(Select s) {
+		append(s.getVar() + " = select ");
+		printWithType(s.getCondition());
+		append(", ");
+		printWithType(s.getIfTrue());
+		append(", ");
+		printWithType(s.getIfFalse());
+	}
+
 	@Override
 	public void case_BinaryOperation(BinaryOperation s) {
 		append(s.getVar() + " = ");
@@ -453,6 +469,13 @@ public class PrettyPrinter implements
 		append(")");
 	}
 
+	@Override
+	public void case_AllocZeroed(AllocZeroed s) {
+		append(s.getVar() + " = call i8* @calloc(i32 1, ");
+		printWithType(s.getSizeInBytes());
+		append(")");
+	}
+
 	@Override
 	public void case_TypeNullpointer(TypeNullpointer typeNullpointer) {
 		// should never be printed
@@ -480,7 +503,7 @@ public class PrettyPrinter implements
 
 
 		append(s.getVar() + " = ");
-		append("call " + t + " ");
+		append((isTailCall(s) ? "tail call " : "call ") + t + " ");
 
 		print(s.getFunction());
 		append("(");
@@ -495,6 +518,41 @@ public class PrettyPrinter implements
 		append(")");
 	}
 
+	/**
+	 * a call directly followed by returning its result, in a procedure without stack variables
+	 * (the callee could otherwise get a pointer into the stack frame of the caller)
+	 */
+	private boolean isTailCall(Call call) {
+		if (!withoutAllocas || !(call.getParent() instanceof BasicBlock)) {
+			return false;
+		}
+		BasicBlock block = (BasicBlock) call.getParent();
+		for (int i = block.indexOf(call) + 1; i < block.size(); i++) {
+			Instruction next = block.get(i);
+			if (next instanceof CommentInstr) {
+				continue;
+			} else if (next instanceof ReturnVoid) {
+				return true;
+			} else if (next instanceof ReturnExpr) {
+				Operand value = ((ReturnExpr) next).getReturnValue();
+				return value instanceof VarRef && ((VarRef) value).getVariable() == call.getVar();
+			}
+			return false;
+		}
+		return false;
+	}
+
+	private static boolean hasAllocas(Proc proc) {
+		for (BasicBlock b : proc.getBasicBlocks()) {
+			for (Instruction instr : b) {
+				if (instr instanceof Alloca) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public void case_Print(Print s) {
 		append("call void @print(");
@@ -589,6 +647,11 @@ public class PrettyPrinter implements
 		append("srem");
 	}
 
+	@Override
+	public void case_Shl(Shl shl) {
+		append("shl");
+	}
+
 	@Override
 	public void case_Or(Or or) {
 		append("or");
@@ -604,6 +667,21 @@ public class PrettyPrinter implements
 		append("slt");
 	}
 
+	@Override
+	public void case_Sle(Sle sle) {
+		append("sle");
+	}
+
+	@Override
+	public void case_Ult(Ult ult) {
+		append("ult");
+	}
+
+	@Override
+	public void case_Ule(Ule ule) {
+		append("ule");
+	}
+
 	@Override
 	public void case_And(And and) {
 		append("and");
@@ -31,6 +31,8 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
     Map<MJClassDecl, Global> classesvTableGlobal = new HashMap<>();
 
     Map<MJMethodDecl, Proc> methodsProcs = new HashMap<>();
+    // vtable accesses of calls which are dispatched dynamically, with the static class of the receiver
+    Map<GetElementPtr, MJClassDecl> dynamicDispatches = new LinkedHashMap<>();
     List<MJClassDecl> alreadyGeneratedMethodProcs = new ArrayList<>();
 
     BasicBlockList currentBasicBlockList;
@@ -89,6 +91,7 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
         this.classDeclList.forEach(cd -> generateMethodsBodies(cd));
 
         program.getMainClass().accept(this);
+        removeUnusedVtableSlots();
         // program.getClassDecls().accept(this);
     }
 
@@ -141,23 +144,14 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
                 lastBlock.add(Ast.Bitcast(t1, Ast.TypePointer(Ast.TypeInt()), arp.copy()));
                 lastBlock.add(Ast.Load(lengthValue, Ast.VarRef(t1)));
 
-                TemporaryVar isGreater = Ast.TemporaryVar("IndexGreaterThanZero");
-                lastBlock.add(Ast.BinaryOperation(isGreater, Ast.ConstInt(0), Ast.Slt(), index.first));
-                TemporaryVar isEqual = Ast.TemporaryVar("IndexEqualToZero");
-                lastBlock.add(Ast.BinaryOperation(isEqual, Ast.ConstInt(0), Ast.Eq(), index.first.copy()));
-                TemporaryVar isLess = Ast.TemporaryVar("isLessThanLength");
-                lastBlock.add(Ast.BinaryOperation(isLess, index.first.copy(), Ast.Slt(), Ast.VarRef(lengthValue)));
-                TemporaryVar isGreaterOrEqual = Ast.TemporaryVar("isGreaterOrEqual");
-                lastBlock.add(
-                        Ast.BinaryOperation(isGreaterOrEqual, Ast.VarRef(isGreater), Ast.Or(), Ast.VarRef(isEqual)));
-
                 BasicBlock validIndex = Ast.BasicBlock();
                 BasicBlock outOfBoundsBranch = Ast.BasicBlock(Ast.HaltWithError("OutOfBounds Exception!"));
                 currentBasicBlockList.add(outOfBoundsBranch);
                 currentBasicBlockList.add(validIndex);
+                // a negative index is a large unsigned number, so one comparison checks both bounds
                 TemporaryVar isIndexValid = Ast.TemporaryVar("isIndexValid");
                 lastBlock.add(
-                        Ast.BinaryOperation(isIndexValid, Ast.VarRef(isLess), Ast.And(), Ast.VarRef(isGreaterOrEqual)));
+                        Ast.BinaryOperation(isIndexValid, index.first, Ast.Ult(), Ast.VarRef(lengthValue)));
                 lastBlock.add(Ast.Branch(Ast.VarRef(isIndexValid), validIndex, outOfBoundsBranch));
 
                 // valid index, lookup the element
@@ -264,19 +258,34 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
 
                 int methodIndex = classMethodIndexes.get(typeReceiver.getName() + "-" + md.getName());
                 // ((MJClassDecl) md.getParent().getParent()).getMethods().indexOf(md);
-                TemporaryVar vtablePointer = Ast.TemporaryVar("vtablePointer");
-                TemporaryVar tp = Ast.TemporaryVar("tp");
-                TemporaryVar tp2 = Ast.TemporaryVar("tp2");
-                TemporaryVar functionPointer = Ast.TemporaryVar(md.getName());
+                MJClassDecl receiverClass = getClassDeclByName(typeReceiver.getName());
                 TemporaryVar callReturn = Ast.TemporaryVar("callReturn");
-                lastBlock.add(
-                        Ast.GetElementPtr(tp, receiverRes.first, Ast.OperandList(Ast.ConstInt(0), Ast.ConstInt(0))));
-                lastBlock.add(Ast.Load(vtablePointer, Ast.VarRef(tp)));
-                lastBlock.add(Ast.GetElementPtr(tp2, Ast.VarRef(vtablePointer),
-                        Ast.OperandList(Ast.ConstInt(0), Ast.ConstInt(methodIndex))));
-                lastBlock.add(Ast.Load(functionPointer, Ast.VarRef(tp2)));
+                Operand function;
+                // the class of a new object is known exactly
+                Proc target = methodCall.getReceiver() instanceof MJNewObject
+                        ? getVtableEntry(receiverClass, methodIndex)
+                        : getStaticCallTarget(receiverClass, methodIndex);
+                if (target != null) {
+                    // no other method can be called, so call it directly
+                    function = Ast.ProcedureRef(target);
+                } else {
+                    TemporaryVar vtablePointer = Ast.TemporaryVar("vtablePointer");
+                    TemporaryVar tp = Ast.TemporaryVar("tp");
+                    TemporaryVar tp2 = Ast.TemporaryVar("tp2");
+                    TemporaryVar functionPointer = Ast.TemporaryVar(md.getName());
+                    GetElementPtr methodAddress = Ast.GetElementPtr(tp2, Ast.VarRef(vtablePointer),
+                            Ast.OperandList(Ast.ConstInt(0), Ast.ConstInt(methodIndex)));
+                    lastBlock.add(Ast.GetElementPtr(tp, receiverRes.first,
+                            Ast.OperandList(Ast.ConstInt(0), Ast.ConstInt(0))));
+                    lastBlock.add(Ast.Load(vtablePointer, Ast.VarRef(tp)));
+                    lastBlock.add(methodAddress);
+                    lastBlock.add(Ast.Load(functionPointer, Ast.VarRef(tp2)));
+                    dynamicDispatches.put(methodAddress, receiverClass);
+                    function = Ast.VarRef(functionPointer);
+                }
 
-                TypeProc functionType = (TypeProc) ((TypePointer) functionPointer.calculateType()).getTo();
+                TypeProc functionType = (TypeProc) ((TypePointer) classesvTableStructs.get(receiverClass).getFields()
+                        .get(methodIndex).getType()).getTo();
 
                 Type objType = functionType.getArgTypes().get(0);
                 Operand thisObj = receiverRes.first.copy();
@@ -307,7 +316,7 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
                     }
                     argumentsOps.add(resArg);
                 }
-                lastBlock.add(Ast.Call(callReturn, Ast.VarRef(functionPointer), argumentsOps));
+                lastBlock.add(Ast.Call(callReturn, function, argumentsOps));
                 return new Result<Operand, BasicBlock>(Ast.VarRef(callReturn), lastBlock);
             }
 
@@ -423,28 +432,10 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
                     lastBlock.add(Ast.BinaryOperation(n2, rightRes.first.copy(), Ast.Eq(), Ast.ConstInt(-1)));
                     lastBlock.add(Ast.BinaryOperation(n1andn2, Ast.VarRef(n1), Ast.And(), Ast.VarRef(n2)));
 
-                    TemporaryVar divRes = Ast.TemporaryVar("divRes");
-                    lastBlock.add(Ast.Alloca(divRes, Ast.TypeInt()));
-
-                    BasicBlock afterOverflowCheck = Ast.BasicBlock(Ast.Load(result, Ast.VarRef(divRes)));
-
-                    TemporaryVar t = Ast.TemporaryVar("t");
-                    BasicBlock isOverflow = Ast.BasicBlock(
-                            // Ast.BinaryOperation(t, Ast.ConstInt(-2147483648), operator,
-                            // rightRes.first.copy()),
-                            Ast.Store(Ast.VarRef(divRes), Ast.ConstInt(-2147483648)), Ast.Jump(afterOverflowCheck));
-
-                    TemporaryVar t2 = Ast.TemporaryVar("t2");
-                    BasicBlock nonOverflow = Ast.BasicBlock(
-                            Ast.BinaryOperation(t2, leftRes.first.copy(), operator.copy(), rightRes.first.copy()),
-                            Ast.Store(Ast.VarRef(divRes), Ast.VarRef(t2)), Ast.Jump(afterOverflowCheck));
-
-                    lastBlock.add(Ast.Branch(Ast.VarRef(n1andn2), isOverflow, nonOverflow));
-
-                    currentBasicBlockList.add(isOverflow);
-                    currentBasicBlockList.add(nonOverflow);
-                    currentBasicBlockList.add(afterOverflowCheck);
-                    lastBlock = afterOverflowCheck;
+                    // MIN_VALUE / -1 overflows, dividing by 1 instead gives the result MIN_VALUE
+                    TemporaryVar divisor = Ast.TemporaryVar("divisor");
+                    lastBlock.add(Ast.Select(divisor, Ast.VarRef(n1andn2), Ast.ConstInt(1), rightRes.first.copy()));
+                    lastBlock.add(Ast.BinaryOperation(result, leftRes.first.copy(), operator, Ast.VarRef(divisor)));
                 } else {
                     Operand right = rightRes.first;
                     Operand left = leftRes.first;
@@ -473,13 +464,8 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
                 Operand sizeOfArray = sizeOfArrayRes.first;
                 BasicBlock lastBlock = sizeOfArrayRes.second;
 
-                TemporaryVar isGreater = Ast.TemporaryVar("LengthGreaterThanZero");
-                lastBlock.add(Ast.BinaryOperation(isGreater, Ast.ConstInt(0), Ast.Slt(), sizeOfArray));
-                TemporaryVar isEqual = Ast.TemporaryVar("LengthEqualToZero");
-                lastBlock.add(Ast.BinaryOperation(isEqual, Ast.ConstInt(0), Ast.Eq(), sizeOfArray.copy()));
                 TemporaryVar isGreaterOrEqual = Ast.TemporaryVar("isGreaterOrEqual");
-                lastBlock.add(
-                        Ast.BinaryOperation(isGreaterOrEqual, Ast.VarRef(isGreater), Ast.Or(), Ast.VarRef(isEqual)));
+                lastBlock.add(Ast.BinaryOperation(isGreaterOrEqual, Ast.ConstInt(0), Ast.Sle(), sizeOfArray));
 
                 BasicBlock invalidIndex = Ast
                         .BasicBlock(Ast.HaltWithError("The array is defined with invalid length!"));
@@ -525,59 +511,13 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
                 TemporaryVar tmpAddress = Ast.TemporaryVar("tmpaddress");
                 TemporaryVar tmpAddress2 = Ast.TemporaryVar("tmpaddress2");
                 TemporaryVar addressArray = Ast.TemporaryVar("arrayAddress");
-                validIndex.add(Ast.Alloc(tmpAddress, Ast.VarRef(t2)));
+                // the elements are initialized by allocating zeroed memory
+                validIndex.add(Ast.AllocZeroed(tmpAddress, Ast.VarRef(t2)));
                 validIndex.add(Ast.Bitcast(tmpAddress2, Ast.TypePointer(Ast.TypeInt()), Ast.VarRef(tmpAddress)));
                 validIndex.add(Ast.Store(Ast.VarRef(tmpAddress2), sizeOfArray.copy()));
 
                 validIndex.add(Ast.Bitcast(addressArray, Ast.TypePointer(pointedType), Ast.VarRef(tmpAddress2)));
 
-                // adding while for initializing the array to zero in case of intarray (test
-                // arrayallocstore fails otherwise)
-                if (!(pointedType instanceof TypeBool)) {
-                    BasicBlock conditionBlock = Ast.BasicBlock();
-                    BasicBlock trueBlock = Ast.BasicBlock();
-                    trueBlock.setName("conditionTrue");
-                    BasicBlock falseBlock = Ast.BasicBlock();
-                    falseBlock.setName("conditionFalse");
-
-                    TemporaryVar idx = Ast.TemporaryVar("idx");
-                    TemporaryVar condition = Ast.TemporaryVar("condition");
-                    TemporaryVar incSize = Ast.TemporaryVar("incSize");
-
-                    validIndex.add(Ast.Alloca(idx, Ast.TypeInt()));
-                    validIndex.add(Ast.Store(Ast.VarRef(idx), Ast.ConstInt(1)));
-                    validIndex.add(Ast.BinaryOperation(incSize, sizeOfArray.copy(), Ast.Add(), Ast.ConstInt(1)));
-                    validIndex.add(Ast.Jump(conditionBlock)); // close contextBlock
-
-                    TemporaryVar lidx = Ast.TemporaryVar("lidx");
-                    conditionBlock.add(Ast.Load(lidx, Ast.VarRef(idx)));
-                    conditionBlock
-                            .add(Ast.BinaryOperation(condition, Ast.VarRef(lidx), Ast.Slt(), Ast.VarRef(incSize)));
-                    conditionBlock.add(Ast.Branch(Ast.VarRef(condition), trueBlock, falseBlock));
-
-                    TemporaryVar itemAddress = Ast.TemporaryVar("itemAddress");
-                    trueBlock.add(Ast.GetElementPtr(itemAddress, Ast.VarRef(addressArray),
-                            Ast.OperandList(Ast.VarRef(lidx))));
-
-                    trueBlock.add(Ast.Store(Ast.VarRef(itemAddress),
-                            pointedType instanceof TypeInt ? Ast.ConstInt(0) : Ast.Nullpointer()));
-
-                    // increment while idx
-                    TemporaryVar oidx = Ast.TemporaryVar("oidx");
-                    TemporaryVar incidx = Ast.TemporaryVar("incIdx");
-                    trueBlock.add(Ast.Load(oidx, Ast.VarRef(idx)));
-                    trueBlock.add(Ast.BinaryOperation(incidx, Ast.VarRef(oidx), Ast.Add(), Ast.ConstInt(1)));
-                    trueBlock.add(Ast.Store(Ast.VarRef(idx), Ast.VarRef(incidx)));
-
-                    trueBlock.add(Ast.Jump(conditionBlock));
-
-                    currentBasicBlockList.add(conditionBlock);
-                    currentBasicBlockList.add(trueBlock);
-                    currentBasicBlockList.add(falseBlock);
-
-                    return new Result<Operand, BasicBlock>(Ast.VarRef(addressArray), falseBlock);
-                }
-
                 return new Result<Operand, BasicBlock>(Ast.VarRef(addressArray), validIndex);
 
             }
@@ -608,10 +548,7 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
                 currentBasicBlockList.add(conditionBlock);
                 contextBlock.add(Ast.Jump(conditionBlock)); // close contextBlock
 
-                Result<Operand, BasicBlock> conditionOperandRes = generateOperand(stmtWhile.getCondition(),
-                        conditionBlock);
-                Branch whileBranch = Ast.Branch(conditionOperandRes.first, trueBlock, falseBlock);
-                conditionOperandRes.second.add(whileBranch);
+                generateCondition(stmtWhile.getCondition(), conditionBlock, trueBlock, falseBlock);
 
                 currentBasicBlockList.add(trueBlock);
                 BasicBlock lastBlock = generateBasicBlock(stmtWhile.getLoopBody(), trueBlock);
@@ -635,7 +572,7 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
 
                 TemporaryVar tmpVar = Ast.TemporaryVar(varDecl.getName());
                 currentBasicBlockList.get(0).addFront(Ast.Alloca(tmpVar, generateType(varDecl.getType())));
-                initializeVariable(Ast.VarRef(tmpVar), false, contextBlock);
+                initializeVariable(Ast.VarRef(tmpVar), contextBlock);
                 // contextBlock.add();
                 scopeVars.put(varDecl.getName(), tmpVar);
 
@@ -698,10 +635,7 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
 
                 lastBlock.add(Ast.Jump(ifCondition));
 
-                Result<Operand, BasicBlock> conditionRes = generateOperand(stmtIf.getCondition(), ifCondition);
-                Branch ifBranch = Ast.Branch(conditionRes.first, trueBranch, falseBranch);
-                lastBlock = conditionRes.second;
-                lastBlock.add(ifBranch);
+                generateCondition(stmtIf.getCondition(), ifCondition, trueBranch, falseBranch);
 
                 lastBlock = generateBasicBlock(stmtIf.getIfTrue(), trueBranch);
                 if (lastBlock.isEmpty() || !(lastBlock.get(lastBlock.size() - 1) instanceof TerminatingInstruction))
@@ -750,6 +684,36 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
         });
     }
 
+    /**
+     * Generates the jumps for a condition, && and ! are translated to branches
+     * instead of computing a boolean value
+     * 
+     * @param condition    the boolean expression
+     * @param contextBlock the current block in which to evaluate the condition
+     * @param ifTrue       the block to jump to, if the condition is true
+     * @param ifFalse      the block to jump to, if the condition is false
+     */
+    private void generateCondition(MJExpr condition, BasicBlock contextBlock, BasicBlock ifTrue,
+            BasicBlock ifFalse) {
+        if (condition instanceof MJExprBinary && ((MJExprBinary) condition).getOperator() instanceof MJAnd) {
+            // the right side is only evaluated, if the left side is true
+            MJExprBinary and = (MJExprBinary) condition;
+            BasicBlock rightBlock = Ast.BasicBlock();
+            rightBlock.setName("andRight");
+            generateCondition(and.getLeft(), contextBlock, rightBlock, ifFalse);
+            currentBasicBlockList.add(rightBlock);
+            generateCondition(and.getRight(), rightBlock, ifTrue, ifFalse);
+        } else if (condition instanceof MJExprUnary
+                && ((MJExprUnary) condition).getUnaryOperator() instanceof MJNegate) {
+            generateCondition(((MJExprUnary) condition).getExpr(), contextBlock, ifFalse, ifTrue);
+        } else if (condition instanceof MJBoolConst) {
+            contextBlock.add(Ast.Jump(((MJBoolConst) condition).getBoolValue() ? ifTrue : ifFalse));
+        } else {
+            Result<Operand, BasicBlock> conditionRes = generateOperand(condition, contextBlock);
+            conditionRes.second.add(Ast.Branch(conditionRes.first, ifTrue, ifFalse));
+        }
+    }
+
     /**
      * Generates an Operand referring to the result of the unary operation
      * 
@@ -905,13 +869,12 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
         TemporaryVar thisa = Ast.TemporaryVar("thisv");
         TemporaryVar thisc = Ast.TemporaryVar("thisc");
         TemporaryVar thisPointer = Ast.TemporaryVar("thisp");
-        constBody.add(Ast.Alloc(thisa, Ast.Sizeof(classTypeStruct)));
+        // the fields are initialized by allocating zeroed memory
+        constBody.add(Ast.AllocZeroed(thisa, Ast.Sizeof(classTypeStruct)));
         constBody.add(Ast.Bitcast(thisc, Ast.TypePointer(classTypeStruct), Ast.VarRef(thisa)));
 
         // adding fields considering also inheritance
         recAddFields(cd, classTypeStructFields, constBody);
-        // initializing fields
-        initializeVariable(Ast.VarRef(thisc), true, constBody);
 
         // initialize vtable reference
         constBody.add(
@@ -1057,11 +1020,10 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
      * Generates code that initializes the given operand
      * 
      * @param var          the variable to initialize
-     * @param deep         true if pointers should be initialized deeply
      * @param contextBlock current block in which to add eventual instructions
      * @return the operand resulting in the initialized variable
      */
-    private Operand initializeVariable(Operand var, boolean deep, BasicBlock contextBlock) {
+    private Operand initializeVariable(Operand var, BasicBlock contextBlock) {
         Type varType = var.calculateType();
 
         if (varType instanceof TypeInt) {
@@ -1076,23 +1038,10 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
             if (pointedType instanceof TypeProc)
                 return var;
 
-            if (pointedType instanceof TypeStruct && deep) {
-                StructFieldList sfl = ((TypeStruct) ((TypePointer) varType).getTo()).getFields();
-                for (int i = 0; i < sfl.size(); i++) {
-                    TemporaryVar fieldPointer = Ast.TemporaryVar(sfl.get(i).getName());
-                    contextBlock.add(Ast.GetElementPtr(fieldPointer, var.copy(),
-                            Ast.OperandList(Ast.ConstInt(0), Ast.ConstInt(i))));
-                    Type sftype = sfl.get(i).getType();
-
-                    initializeVariable(Ast.VarRef(fieldPointer), false, contextBlock);
-                }
-                return var;
-            }
-
             if (pointedType instanceof TypeInt || pointedType instanceof TypeBool) {
                 TemporaryVar pointed = Ast.TemporaryVar("pointed");
                 contextBlock.add(Ast.Load(pointed, var.copy()));
-                contextBlock.add(Ast.Store(var.copy(), initializeVariable(Ast.VarRef(pointed), deep, contextBlock)));
+                contextBlock.add(Ast.Store(var.copy(), initializeVariable(Ast.VarRef(pointed), contextBlock)));
                 return var;
             }
 
@@ -1114,6 +1063,88 @@ public class TranslatorVisitor extends MJElement.DefaultVisitor {
         return cd.isPresent() ? cd.get() : null;
     }
 
+    /**
+     * Class hierarchy analysis: checks whether a method call has only one
+     * possible target, because no subclass of the receiver class overrides the
+     * method
+     * 
+     * @param cd          static class of the receiver
+     * @param methodIndex index of the method in the vtable of the class
+     * @return the called procedure or null, if the call has to be dispatched
+     *         dynamically
+     */
+    private Proc getStaticCallTarget(MJClassDecl cd, int methodIndex) {
+        Proc target = getVtableEntry(cd, methodIndex);
+        for (MJClassDecl sub : this.classDeclList) {
+            if (isSubclass(sub, cd) && getVtableEntry(sub, methodIndex) != target)
+                return null;
+        }
+        return target;
+    }
+
+    private Proc getVtableEntry(MJClassDecl cd, int methodIndex) {
+        ConstList entries = ((ConstStruct) classesvTableGlobal.get(cd).getInitialValue()).getValues();
+        return ((ProcedureRef) entries.get(methodIndex)).getProcedure();
+    }
+
+    private boolean isSubclass(MJClassDecl sub, MJClassDecl cd) {
+        for (MJClassDecl c = sub; c != null; c = getSuperClass(c)) {
+            if (c == cd)
+                return true;
+        }
+        return false;
+    }
+
+    private MJClassDecl getSuperClass(MJClassDecl cd) {
+        if (cd.getExtended() instanceof MJExtendsClass)
+            return getClassDeclByName(((MJExtendsClass) cd.getExtended()).getName());
+        return null;
+    }
+
+    private MJClassDecl getRootClass(MJClassDecl cd) {
+        while (getSuperClass(cd) != null)
+            cd = getSuperClass(cd);
+        return cd;
+    }
+
+    /**
+     * Removes the methods from the vtables, which are never called through the
+     * vtable. A slot is removed from all classes of a hierarchy together, so
+     * the vtable of a class still starts with the vtable of its superclass.
+     * Calls dispatched dynamically are updated to the new slot indexes.
+     */
+    private void removeUnusedVtableSlots() {
+        Map<GetElementPtr, String> slotNames = new HashMap<>();
+        List<String> usedSlots = new ArrayList<>();
+        for (Entry<GetElementPtr, MJClassDecl> e : dynamicDispatches.entrySet()) {
+            int idx = ((ConstInt) e.getKey().getIndices().get(1)).getIntVal();
+            String name = classesvTableStructs.get(e.getValue()).getFields().get(idx).getName();
+            slotNames.put(e.getKey(), name);
+            usedSlots.add(getRootClass(e.getValue()).getName() + "-" + name);
+        }
+
+        for (MJClassDecl cd : this.classDeclList) {
+            StructFieldList fields = classesvTableStructs.get(cd).getFields();
+            ConstList entries = ((ConstStruct) classesvTableGlobal.get(cd).getInitialValue()).getValues();
+            String root = getRootClass(cd).getName();
+            for (int i = fields.size() - 1; i >= 0; i--) {
+                if (!usedSlots.contains(root + "-" + fields.get(i).getName())) {
+                    fields.remove(i);
+                    entries.remove(i);
+                }
+            }
+        }
+
+        for (Entry<GetElementPtr, MJClassDecl> e : dynamicDispatches.entrySet()) {
+            String name = slotNames.get(e.getKey());
+            StructFieldList fields = classesvTableStructs.get(e.getValue()).getFields();
+            for (int i = 0; i < fields.size(); i++) {
+                if (fields.get(i).getName().equals(name))
+                    e.getKey().getIndices().set(1, Ast.ConstInt(i));
+            }
+        }
+    }
+
     public Prog getProg() {
         return this.finalProg;
     }
@@ -1,7 +1,28 @@
 package minijava.translation;
 
+import main.MiniJavaCompiler;
+import minillvm.analysis.Checks;
+import minillvm.analysis.Dominators;
+import minillvm.analysis.Loops;
+import minillvm.ast.*;
+import minillvm.passes.OptimizationLevel;
+import minillvm.passes.Pass;
+import minillvm.passes.PassManager;
+import minillvm.passes.Passes;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 public class ExtraTranslationTests {
     @Test
     public void testAssign() throws Exception {
@@ -105,10 +126,715 @@ public class ExtraTranslationTests {
         TranslationTestHelper.testLLVMTranslation("Test.java", input);
     }
 
-    private void testStatements(String... inputLines) throws Exception {
-        String input = "class Main { public static void main(String[] args) {\n" + String.join("\n", inputLines)
-                + "\n}}\n";
+    @Test
+    public void ssaConstruction() throws Exception {
+        String input = statements("int i; int j; int s; boolean b; i = 0; s = 0; b = false;",
+                "while (i < 10) { j = 0; while (j < i) { if (b) { s = s + j; } else { s = s - 1; } b = !b; j = j + 1; }",
+                "  i = i + 1; }",
+                "System.out.println(s);");
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // every local variable lives in a register, the values of the loops flow through phi nodes
+        Proc main = proc(optimize(input, Passes.ssa()), "main");
+        assertEquals(0, count(main, Alloca.class));
+        assertEquals(0, count(main, Load.class));
+        assertEquals(0, count(main, Store.class));
+        assertTrue(count(main, PhiNode.class) >= 5);
+    }
+
+    @Test
+    public void deadCode() throws Exception {
+        String input = statements("int i; int s; int unused; i = 0; s = 0;",
+                "while (i < 10) { unused = i * 7 + s; s = s + i; i = i + 1; }",
+                "System.out.println(s);");
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // the variable is only written, so its slot, the stores and the computation are removed
+        Proc before = proc(optimize(input), "main");
+        Proc after = proc(optimize(input, Passes.deadCodeElimination()), "main");
+        assertEquals(1, countOperations(before, Mul.class));
+        assertEquals(0, countOperations(after, Mul.class));
+        assertEquals(count(before, Alloca.class) - 1, count(after, Alloca.class));
+        assertTrue(count(after, Store.class) < count(before, Store.class));
+        assertEquals(count(before, Print.class), count(after, Print.class));
+        assertEquals(0, count(after, CommentInstr.class));
+
+        Proc ssa = proc(optimize(input, Passes.ssa(), Passes.deadCodeElimination()), "main");
+        assertEquals(0, countOperations(ssa, Mul.class));
+    }
+
+    @Test
+    public void constantInLoop() throws Exception {
+        String input = statements("int i; int x; i = 0; x = 1;",
+                "while (i < 10) { if (x < 2) { x = 1; } else { x = 3; } i = i + 1; }",
+                "System.out.println(x);");
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // x stays 1, so only the loop condition is left and the else branch is removed
+        Proc ssa = proc(optimize(input, Passes.ssa()), "main");
+        Proc propagated = proc(optimize(input, Passes.ssa(), Passes.constantPropagation()), "main");
+        assertEquals(2, count(ssa, Branch.class));
+        assertEquals(1, count(propagated, Branch.class));
+        assertEquals(2, countOperations(ssa, Slt.class));
+        assertEquals(1, countOperations(propagated, Slt.class));
+        assertEquals(ssa.getBasicBlocks().size() - 1, propagated.getBasicBlocks().size());
+        assertEquals(1, count(propagated, PhiNode.class));
+    }
+
+    @Test
+    public void arrayIncrement() throws Exception {
+        String input = statements("int[] a; int i; a = new int[10]; i = 0;",
+                "while (i < 10) { a[i] = a[i] + i; a[i] = a[i] + 1; i = i + 1; }",
+                "System.out.println(a[3] + a[9]);");
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // the four accesses of a[i] share their address and bounds check
+        Proc ssa = proc(optimize(input, Passes.ssa()), "main");
+        Proc numbered = proc(optimize(input, Passes.ssa(), Passes.globalValueNumbering()), "main");
+        assertEquals(8, countInLoops(ssa, GetElementPtr.class));
+        assertEquals(2, countInLoops(numbered, GetElementPtr.class));
+        assertEquals(6, countOperations(ssa, Ult.class));
+        assertEquals(3, countOperations(numbered, Ult.class));
+        assertEquals(6, countOperations(ssa, Eq.class));
+        assertEquals(2, countOperations(numbered, Eq.class));
+    }
+
+    @Test
+    public void callsInLoop() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "System.out.println(new A().run(10));\n}}\n"
+                + "class A {\n" + "  int[] arr;\n" + "  int n;\n"
+                + "  int run(int k) { int i; int s; arr = new int[k]; n = k; i = 0; s = 0;\n"
+                + "    while (i < n) { arr[i] = i * 3; s = s + this.get(i) + arr.length; i = i + 1; }\n"
+                + "    return s; }\n"
+                + "  int get(int i) { n = n - 1; return arr[i]; }\n" + "}\n";
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // get does not change arr or its length, but it writes n
+        Proc ssa = proc(optimize(input, Passes.ssa()), "A-run");
+        Proc hoisted = proc(optimize(input, Passes.ssa(), Passes.globalValueNumbering(), Passes.loadElimination(),
+                Passes.loopInvariantCodeMotion()), "A-run");
+        assertEquals(5, countInLoops(ssa, Load.class));
+        assertEquals(1, countInLoops(hoisted, Load.class));
+        assertEquals(1, countInLoops(hoisted, Call.class));
+    }
+
+    @Test
+    public void checkedArrayLoops() throws Exception {
+        String input = statements("int[] a; int i; int s; int n; n = 7; a = new int[n]; i = 0; s = 0;",
+                "while (i < a.length) { a[i] = i * i; i = i + 1; }",
+                "i = 0;",
+                "while (i < n) { s = s + a[i] / (i + 1); i = i + 1; }",
+                "System.out.println(s);");
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        Proc checked = proc(optimize(input, Passes.ssa(), Passes.constantPropagation()), "main");
+        Proc optimized = proc(optimize(input, Passes.ssa(), Passes.constantPropagation(),
+                Passes.rangeCheckElimination()), "main");
+        assertEquals(2, countHalts(checked, "OutOfBounds Exception!"));
+        assertEquals(1, countHalts(checked, "Division by zero"));
+        assertEquals(0, countHalts(optimized, "OutOfBounds Exception!"));
+        assertEquals(0, countHalts(optimized, "Division by zero"));
+    }
+
+    @Test
+    public void checkedReceivers() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "System.out.println(new A().run(5));\n}}\n"
+                + "class A {\n" + "  A next;\n" + "  int v;\n"
+                + "  int run(int k) { A a; A b; int s; a = new A(); a.v = 3; b = this; s = 0;\n"
+                + "    while (0 < k) { b.v = b.v + a.v; if (k < 3) { b = a; } else { b = this; }\n"
+                + "      s = s + b.v + this.get(); k = k - 1; }\n"
+                + "    b = null; if (s < 100) { } else { b = a; }\n"
+                + "    return s + b.v; }\n"
+                + "  int get() { return v; }\n" + "}\n";
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // this, a and the phi of both in the loop are never null, b after the loop may be
+        Proc checked = proc(optimize(input, Passes.ssa()), "A-run");
+        Proc optimized = proc(optimize(input, Passes.ssa(), Passes.nullCheckElimination()), "A-run");
+        assertEquals(7, countHalts(checked, "Nullpointer Exception"));
+        assertEquals(1, countHalts(optimized, "Nullpointer Exception"));
+        assertEquals(7, countInLoops(checked, Branch.class));
+        assertEquals(2, countInLoops(optimized, Branch.class));
+        // the check left compares the phi of null and a after the loop
+        BinaryOperation check = null;
+        for (BasicBlock block : optimized.getBasicBlocks()) {
+            TerminatingInstruction terminator = block.getTerminatingInstruction().get();
+            if (terminator instanceof Branch) {
+                Branch branch = (Branch) terminator;
+                if (branch.getIfTrueLabel().getTerminatingInstruction().get() instanceof HaltWithError) {
+                    check = (BinaryOperation) ((VarRef) branch.getCondition()).getVariable().getParent();
+                }
+            }
+        }
+        PhiNode b = (PhiNode) ((VarRef) check.getLeft()).getVariable().getParent();
+        assertTrue(b.getChoices().stream().anyMatch(choice -> choice.getValue() instanceof Nullpointer));
+    }
+
+    @Test
+    public void partlyOverriddenMethods() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "A a; a = new B(); System.out.println(a.f(1) + a.g(2) + new A().f(3) + new C().h());\n}}\n"
+                + "class A { int f(int x) { return x + 1; } int g(int x) { return this.f(x) * 2; } }\n"
+                + "class B extends A { int f(int x) { return x + 10; } int h() { return 7; } }\n"
+                + "class C extends B { int h() { return this.f(1); } }\n";
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // only f is overridden, calls of f are dispatched dynamically unless the receiver is a new object
+        Prog prog = optimize(input);
+        assertEquals(Collections.emptySet(), calledProcedures(proc(prog, "A-g")));
+        assertEquals(1, count(proc(prog, "A-g"), Call.class));
+        assertTrue(calledProcedures(proc(prog, "main")).containsAll(Arrays.asList("A-f", "A-g", "C-h")));
+        assertEquals(Collections.singleton("B-f"), calledProcedures(proc(prog, "C-h")));
+        // g and h are never dispatched dynamically, so f is the only slot left in the vtables
+        for (Global global : prog.getGlobals()) {
+            if (global.getName().endsWith("-vtable-data")) {
+                ConstList slots = ((ConstStruct) global.getInitialValue()).getValues();
+                assertEquals(global.getName(), 1, slots.size());
+                String f = ((ProcedureRef) slots.get(0)).getProcedure().getName();
+                assertTrue(global.getName(), f.endsWith("-f"));
+            }
+        }
+    }
+
+    @Test
+    public void inlinedMethods() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "P p; int i; int s; p = new P(); i = 0; s = 0;\n"
+                + "while (i < 10) { s = s + p.set(i).get() + p.fact(i - i / 4 * 4) + p.sign(i - 5); i = i + 1; }\n"
+                + "System.out.println(s);\n"
+                + "System.out.println(p.fail(0));\n}}\n"
+                + "class P { int x;\n"
+                + "  P set(int v) { x = v; return this; }\n"
+                + "  int get() { return x; }\n"
+                + "  int sign(int v) { int r; if (v < 0) { r = 0 - 1; } else { r = 1; } return r; }\n"
+                + "  int fact(int n) { int r; if (n < 1) { r = 1; } else { r = n * this.fact(n - 1); } return r; }\n"
+                + "  int fail(int n) { int[] a; a = new int[n]; return a[n]; }\n" + "}\n";
+        Prog prog = TranslationTestHelper.testLLVMTranslation("Test.java", input);
+        assertEquals(Collections.singleton("P-fact"), calledProcedures(proc(prog, "main")));
+
+        Set<String> called = calledProcedures(proc(optimize(input, Passes.ssa()), "main"));
+        assertTrue(called.containsAll(Arrays.asList("P-set", "P-get", "P-sign", "P-fact", "P-fail")));
+        // only the call of the recursive method is left, it is not unfolded into itself
+        Proc inlined = proc(optimize(input, Passes.ssa(), Passes.inline()), "main");
+        assertEquals(Collections.singleton("P-fact"), calledProcedures(inlined));
+    }
+
+    @Test
+    public void temporaryObjects() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "int i; int s; V v; int[] a; i = 0; s = 0;\n"
+                + "while (i < 10) { v = new V().init(i, i + 1); a = new int[3]; a[i - i / 3 * 3] = v.dot();\n"
+                + "  s = s + a[0] + a[1] + a[2]; i = i + 1; }\n"
+                + "System.out.println(s);\n"
+                + "System.out.println(new V().keep(new V().init(2, 3)).x);\n}}\n"
+                + "class V { int x; int y; V other;\n"
+                + "  V init(int a, int b) { x = a; y = b; return this; }\n"
+                + "  int dot() { return x * y; }\n"
+                + "  V keep(V o) { other = o; return other; }\n" + "}\n";
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // only the object stored in a field stays on the heap
+        Proc inlined = proc(optimize(input, Passes.ssa(), Passes.inline(), Passes.constantPropagation()), "main");
+        Proc optimized = proc(optimize(input, Passes.ssa(), Passes.inline(), Passes.constantPropagation(),
+                Passes.escapeAnalysis()), "main");
+        assertEquals(4, count(inlined, AllocZeroed.class));
+        assertTrue(countInLoops(inlined, AllocZeroed.class) > 0);
+        assertEquals(1, count(optimized, AllocZeroed.class));
+        assertEquals(0, countInLoops(optimized, AllocZeroed.class));
+    }
+
+    @Test
+    public void emptyBlocks() throws Exception {
+        String input = statements("int i; int j; int s; i = 0; s = 0;",
+                "while (i < 6) { { j = 0; while (j < i) { if (j < 2 && i < 5) { } else { s = s + j; } j = j + 1; } } { } i = i + 1; }",
+                "if (s < 0) { } else { if (0 < s) { System.out.println(s); } else { } }");
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        Proc ssa = proc(optimize(input, Passes.ssa()), "main");
+        Proc simplified = proc(optimize(input, Passes.ssa(), Passes.simplifyCFG()), "main");
+        assertEquals(20, ssa.getBasicBlocks().size());
+        assertEquals(12, simplified.getBasicBlocks().size());
+        // only the entry, which jumps to the loop header, is left without other instructions
+        for (BasicBlock block : simplified.getBasicBlocks().subList(1, simplified.getBasicBlocks().size())) {
+            long instructions = block.stream().filter(instr -> !(instr instanceof CommentInstr)).count();
+            assertTrue(block.getName(), instructions > 1 || !(block.getTerminatingInstruction().get() instanceof Jump));
+        }
+    }
+
+    @Test
+    public void negativeIndex() throws Exception {
+        String input = statements("int[] a; int i; int s; a = new int[4]; i = 3; s = 0;",
+                "while (0 - 2 < i) { a[i] = i; s = s + a[i]; i = i - 1; }",
+                "System.out.println(s);");
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // i reaches -1, so only the repeated check of the same index is removed
+        Proc checked = proc(optimize(input, Passes.ssa(), Passes.constantPropagation()), "main");
+        Proc optimized = proc(optimize(input, Passes.ssa(), Passes.constantPropagation(),
+                Passes.rangeCheckElimination()), "main");
+        assertEquals(2, countHalts(checked, "OutOfBounds Exception!"));
+        assertEquals(1, countHalts(optimized, "OutOfBounds Exception!"));
+
+        // each bounds check is a single unsigned comparison
+        Proc translated = proc(optimize(input), "main");
+        assertEquals(2, countOperations(translated, Ult.class));
+        assertEquals(0, countOperations(translated, Or.class));
+        assertEquals(0, countOperations(translated, And.class));
+
+        // the divisor of min-int / -1 is selected, the only stack slots are x and y
+        Proc division = proc(optimize(statements("int x; int y; x = 7; y = 0 - 1;", "System.out.println(x / y);")),
+                "main");
+        assertEquals(1, count(division, Select.class));
+        assertEquals(2, count(division, Alloca.class));
+    }
+
+    @Test
+    public void jumpingConditions() throws Exception {
+        String input = statements("int[] a; int i; boolean b; a = new int[5]; i = 0; b = false;",
+                "while (i < a.length) { a[i] = i * 3; i = i + 1; }",
+                "i = 0; while (i < a.length && !(a[i] == 9)) { i = i + 1; }",
+                "System.out.println(i);",
+                "if (!(!b && true) && a[0] < 1) { System.out.println(1); } else { System.out.println(2); }",
+                "if (!(i < 2 && false)) { System.out.println(3); } else { }");
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // && and ! only select the branch targets, the only boolean in memory is b
+        Proc translated = proc(optimize(input), "main");
+        int boolSlots = 0;
+        for (BasicBlock block : translated.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                if (instr instanceof Alloca && ((Alloca) instr).getType() instanceof TypeBool) {
+                    boolSlots++;
+                } else if (instr instanceof Branch) {
+                    Operand condition = ((Branch) instr).getCondition();
+                    Element def = ((VarRef) condition).getVariable().getParent();
+                    assertTrue(def.toString(), def instanceof BinaryOperation || def instanceof Load);
+                }
+            }
+        }
+        assertEquals(1, boolSlots);
+        assertEquals(0, countOperations(translated, Xor.class));
+        assertEquals(0, countOperations(translated, And.class));
+    }
+
+    @Test
+    public void zeroedAllocations() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "int i; int s; P p; P[] ps; boolean[] bs; int[] big; i = 0; s = 0;\n"
+                + "big = new int[100000]; ps = new P[3]; bs = new boolean[5];\n"
+                + "while (i < 4) { p = new P(); s = s + p.x; p.x = i; if (p.next == null && !bs[i]) { s = s + 1; } else { }\n"
+                + "  big[i * 1000] = big[i * 1000] + i; s = s + big[i * 1000]; i = i + 1; }\n"
+                + "if (ps[2] == null) { System.out.println(s); } else { }\n}}\n"
+                + "class P { int x; P next; }\n";
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // the arrays and objects are allocated zeroed, only the while statement loops
+        Prog prog = optimize(input);
+        Proc main = proc(prog, "main");
+        assertEquals(1, new Loops(main).getLoops().size());
+        assertEquals(3, count(main, AllocZeroed.class));
+        Proc constructor = proc(prog, "P-default-constructor");
+        assertEquals(1, count(constructor, AllocZeroed.class));
+        // the vtable pointer is the only field which is initialized
+        assertEquals(1, count(constructor, Store.class));
+        assertFalse(hasLoop(proc(optimize(statements("int[] big; big = new int[100000];",
+                "System.out.println(big.length);")), "main")));
+    }
+
+    @Test
+    public void peepholePatterns() throws Exception {
+        String input = statements("int i; int s; boolean b; boolean c; int[] a; i = 0; s = 0; b = true;",
+                "while (i < 5) { c = !(!b) && true; b = !(c && (i * 8 < 20)); a = new int[i * 4 + 1];",
+                "  a[i * 4] = i * 16 + 1 * i; s = s + a[i * 4] + a.length; if (!(!(b && true))) { s = s + 1; } else { }",
+                "  i = i + 1; }",
+                "System.out.println(s);");
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        MiniJavaCompiler compiler = new MiniJavaCompiler();
+        compiler.compileString("Test.java", input);
+        Map<String, Integer> hits = compiler.getPassManager().getPeepholeHits();
+        for (String rule : new String[] {"double negation", "comparison with a boolean", "neutral operand",
+                "multiplication by a power of two"}) {
+            assertTrue(rule, hits.get(rule) > 0);
+        }
+        assertEquals(0, countOperations(proc(compiler.getLlvmProg(), "main"), Mul.class));
+    }
+
+    @Test
+    public void tailRecursion() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "R r; r = new R(); System.out.println(r.sum(3000)); System.out.println(r.fact(10, 1));\n"
+                + "System.out.println(r.prod(12)); System.out.println(r.gcd(1071, 462));\n"
+                + "System.out.println(r.countdown(120000));\n}}\n"
+                + "class R {\n"
+                + "  int sum(int n) { int res; if (n < 1) { res = 0; } else { res = this.sum(n - 1) + n; } return res; }\n"
+                + "  int fact(int n, int acc) { int res; if (n < 2) { res = acc; } else { res = this.fact(n - 1, acc * n); } return res; }\n"
+                + "  int prod(int n) { int res; if (n < 2) { res = 1; } else { res = n * this.prod(n - 1); } return res; }\n"
+                + "  int gcd(int a, int b) { int res; if (b == 0) { res = a; } else { res = this.gcd(b, a - a / b * b); } return res; }\n"
+                + "  int countdown(int n) { int res; if (n < 1) { res = 0 - 1; } else { System.out.println(n); res = this.countdown(n - 50000); } return res; }\n"
+                + "}\n";
+        Prog prog = TranslationTestHelper.testLLVMTranslation("Test.java", input);
+        for (String method : new String[] {"R-sum", "R-fact", "R-prod", "R-gcd", "R-countdown"}) {
+            assertEquals(method, 0, count(proc(prog, method), Call.class));
+            assertTrue(method, hasLoop(proc(prog, method)));
+        }
+    }
+
+    @Test
+    public void loadForwarding() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "C c; A a; int[] d; c = new C(); a = c; d = new int[3];\n"
+                + "System.out.println(c.run(d, 4)); System.out.println(a.bump() + c.x + c.y);\n"
+                + "c.x = 1; a.x = 2; d[0] = c.x; d[1] = d.length; System.out.println(d[0] + d[1] + c.x);\n}}\n"
+                + "class A { int x; int bump() { x = x + 1; return x; } }\n"
+                + "class C extends A { int y; int[] d;\n"
+                + "  int bump() { y = y + 10; return y; }\n"
+                + "  int run(int[] a, int n) { int i; i = 0; d = a; x = 3;\n"
+                + "    while (i < n) { y = y + x; if (i < 2) { x = this.bump(); } else { d[1] = d[1] + x; } y = y + x; i = i + 1; }\n"
+                + "    return x + y + d[1] + d.length; } }\n";
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // value numbering already merges the loads of array lengths
+        Prog ssa = optimize(input, Passes.ssa());
+        Prog forwarded = optimize(input, Passes.ssa(), Passes.globalValueNumbering(), Passes.loadElimination());
+        for (String name : new String[] {"main", "C-run"}) {
+            int before = count(proc(ssa, name), Load.class);
+            int after = count(proc(forwarded, name), Load.class);
+            assertTrue(name + ": " + before + " -> " + after, after <= before - 5);
+        }
+        // the call in the loop may change the fields, so they are loaded again after it
+        assertTrue(countInLoops(proc(forwarded, "C-run"), Load.class) > 0);
+    }
+
+    @Test
+    public void scalarPromotion() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "Acc a; Acc b; Acc[] keep; a = new Acc(); b = new Acc(); keep = new Acc[2]; keep[0] = a; keep[1] = b;\n"
+                + "System.out.println(a.sum(100)); System.out.println(a.withCall(10)); System.out.println(a.withWrite(10));\n"
+                + "System.out.println(a.early(50)); System.out.println(a.other(b, 8) + b.count);\n"
+                + "System.out.println(a.halting(new int[5], 9));\n}}\n"
+                + "class Acc { int count; int total; Acc next;\n"
+                + "  int sum(int n) { int i; i = 0; while (i < n) { count = count + i; total = total + 1; i = i + 1; } return count + total; }\n"
+                + "  int peek() { return count; }\n"
+                + "  int withCall(int n) { int i; int s; i = 0; s = 0; while (i < n) { count = count + 2; s = s + this.peek(); i = i + 1; } return s; }\n"
+                + "  int bump() { count = count + 100; return 0; }\n"
+                + "  int withWrite(int n) { int i; i = 0; while (i < n) { count = count + 1; i = i + this.bump() + 1; } return count; }\n"
+                + "  int early(int n) { int i; i = 0; while (i < n) { total = total + 3; if (1000 < total) { return total; } else { } i = i + 1; } return 0 - total; }\n"
+                + "  int other(Acc o, int n) { int i; i = 0; next = o; while (i < n) { next.count = next.count + i; count = count + 1; i = i + 1; } return count; }\n"
+                + "  int halting(int[] d, int n) { int i; i = 0; while (i < n) { count = count + d.length; d[i] = count; i = i + 1; } return count; }\n"
+                + "}\n";
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+        MiniJavaCompiler compiler = new MiniJavaCompiler();
+        compiler.compileString("Test.java", input);
+        assertTrue(compiler.getPassManager().getChanges().containsKey("scalar-promotion"));
+
+        // the field addresses have to be hoisted before, and without the pass the stores stay in the loop
+        compiler.setOptimizationLevel(OptimizationLevel.O0);
+        for (boolean promote : new boolean[] {false, true}) {
+            compiler.compileString("Test.java", input);
+            Prog prog = compiler.getLlvmProg();
+            PassManager pm = new PassManager().add(Passes.ssa()).add(Passes.globalValueNumbering())
+                    .add(Passes.loopInvariantCodeMotion());
+            if (promote) {
+                pm.add(Passes.scalarPromotion());
+            }
+            pm.run(prog);
+            new Checks().checkProgram(prog);
+            assertEquals(promote, countInLoops(proc(prog, "Acc-sum"), Store.class) == 0);
+            assertEquals(promote, countInLoops(proc(prog, "Acc-sum"), Load.class) == 0);
+            assertTrue(countInLoops(proc(prog, "Acc-withCall"), Store.class) > 0);
+        }
+    }
+
+    @Test
+    public void strengthReduction() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "S s; int[] a; s = new S(); a = new int[40];\n"
+                + "System.out.println(s.fill(a, 13)); System.out.println(s.sevens(20)); System.out.println(s.down(12));\n"
+                + "System.out.println(s.startAt(3, 9)); System.out.println(s.after(9));\n}}\n"
+                + "class S {\n"
+                + "  int fill(int[] a, int n) { int i; int s; i = 0; s = 0; while (i < n) { a[i * 3] = i; s = s + a[i * 3]; i = i + 1; } return s; }\n"
+                + "  int sevens(int n) { int i; int s; i = 0; s = 0; while (i < n) { s = s + i * 7 + (i - 2) * 5; i = i + 1; } return s; }\n"
+                + "  int down(int n) { int i; int s; i = n; s = 0; while (0 < i) { s = s + i * 3 - 1; i = i - 1; } return s; }\n"
+                + "  int startAt(int k, int n) { int i; int s; i = k; s = 0; while (i < n) { s = s + (i * 6 + k) * 3; i = i + 2; } return s; }\n"
+                + "  int after(int n) { int i; int t; i = 0; t = 0; while (i < n) { t = i * 9; i = i + 1; } return t; }\n"
+                + "}\n";
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // the multiplications become values incremented on the back edge
+        Prog hoisted = optimize(input, Passes.ssa(), Passes.globalValueNumbering(), Passes.loopInvariantCodeMotion());
+        Prog reduced = optimize(input, Passes.ssa(), Passes.globalValueNumbering(), Passes.loopInvariantCodeMotion(),
+                Passes.strengthReduction());
+        for (String name : new String[] {"S-fill", "S-sevens", "S-after"}) {
+            assertTrue(name, countOperations(proc(hoisted, name), Mul.class) > 0);
+            assertEquals(name, 0, countOperations(proc(reduced, name), Mul.class));
+            assertTrue(name, count(proc(reduced, name), PhiNode.class) > count(proc(hoisted, name), PhiNode.class));
+        }
+    }
+
+    @Test
+    public void loopUnrolling() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "U u; int[] a; u = new U(); a = new int[23];\n"
+                + "System.out.println(u.fill(a, 23)); System.out.println(u.down(a, 22)); System.out.println(u.upTo(a, 19));\n"
+                + "System.out.println(u.small()); System.out.println(u.last(a, 17)); System.out.println(u.near(2147483640));\n"
+                + "System.out.println(u.low(0 - 2147483647)); System.out.println(u.steps(a, 3)); System.out.println(u.empty(a, 0));\n"
+                + "System.out.println(u.oob(a, 30));\n"
+                + "}}\n"
+                + "class U {\n"
+                + "  int fill(int[] a, int n) { int i; i = 0; while (i < n) { a[i] = i * i + 1; i = i + 1; } return a[n - 1]; }\n"
+                + "  int down(int[] a, int n) { int i; int s; i = n; s = 0; while (0 < i) { s = s + a[i] - i; i = i - 1; } return s; }\n"
+                + "  int upTo(int[] a, int n) { int i; int s; i = 2; s = 0; while (!(n < i)) { s = s * 3 + a[i]; i = i + 1; } return s + i; }\n"
+                + "  int small() { int i; int s; i = 0; s = 1; while (i < 5) { s = s * 2 + i; i = i + 1; } return s + i; }\n"
+                + "  int last(int[] a, int n) { int i; int t; i = 0; t = 0; while (i + 1 < n) { t = a[i + 1] - t; i = i + 1; } return t * 100 + i; }\n"
+                + "  int near(int n) { int i; int c; i = n; c = 0; while (i < 2147483647) { c = c + i - n; i = i + 1; } return c; }\n"
+                + "  int low(int n) { int i; int c; i = 0; c = 0; while (n < i) { c = c + 1; i = i - 3; if (20 < c) { i = n; } else { } } return c; }\n"
+                + "  int steps(int[] a, int k) { int i; int s; i = k; s = 0; while (i < a.length) { s = s + a[i]; i = i + 3; } return s; }\n"
+                + "  int empty(int[] a, int n) { int i; int s; i = 5; s = 7; while (i < n) { s = s + a[i]; i = i + 1; } return s + i; }\n"
+                + "  int oob(int[] a, int n) { int i; int s; i = 0; s = 0; while (i < n) { s = s + a[i]; System.out.println(s); i = i + 1; } return s; }\n"
+                + "}\n";
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        Prog rotated = optimize(input, Passes.ssa(), Passes.constantPropagation(), Passes.simplifyCFG(),
+                Passes.loopRotation());
+        Prog unrolled = optimize(input, Passes.ssa(), Passes.constantPropagation(), Passes.simplifyCFG(),
+                Passes.loopRotation(), Passes.loopUnrolling(200, 4));
+        // the loop with five iterations is gone
+        assertEquals(1, new Loops(proc(rotated, "U-small")).getLoops().size());
+        assertEquals(0, new Loops(proc(unrolled, "U-small")).getLoops().size());
+        assertEquals(5, countOperations(proc(unrolled, "U-small"), Mul.class));
+        // the loop with an unknown count has four copies of the body and a remainder loop
+        assertEquals(2, new Loops(proc(unrolled, "U-fill")).getLoops().size());
+        assertEquals(5, count(proc(unrolled, "U-fill"), Store.class));
+        // the counter is reset in the body, so it is no induction variable
+        assertEquals(countOperations(proc(rotated, "U-low"), Sub.class),
+                countOperations(proc(unrolled, "U-low"), Sub.class));
+    }
+
+    @Test
+    public void loopRotation() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "int[] a; int i; int j; int s; boolean b; a = new int[10]; i = 0;\n"
+                + "while (i < a.length) { a[i] = i * 3; i = i + 1; } System.out.println(i);\n"
+                + "s = 0; i = 0; while (i < 0) { s = s + 1; i = i + 1; } System.out.println(s);\n"
+                + "i = 0; b = true;\n"
+                + "while (b && i < 7) { j = 0; while (j < i) { s = s + a[j]; j = j + 1; } b = s < 100; i = i + 1; }\n"
+                + "System.out.println(s); System.out.println(i);\n"
+                + "i = 9; while (0 < i) { i = i - 2; } System.out.println(i);\n"
+                + "System.out.println(new R().run(a, 4)); System.out.println(new R().run(a, 12));\n"
+                + "}}\n"
+                + "class R { int run(int[] a, int k) { int i; int t; i = 0; t = 0;\n"
+                + "  while (i < k) { t = t + a[i] * a[k - i]; i = i + 1; } return t + i; } }\n";
         TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // like at O2 the null check of a in the first header is removed before the rotation
+        Prog rotated = optimize(input, Passes.ssa(), Passes.nullCheckElimination(), Passes.simplifyCFG(),
+                Passes.loopRotation());
+        for (String name : new String[] {"main", "R-run"}) {
+            Loops loops = new Loops(proc(rotated, name));
+            for (Loops.Loop loop : loops.getLoops()) {
+                // the latch tests the condition and the block entering the loop guards it
+                assertEquals(1, loop.getLatches().size());
+                Branch test = (Branch) loop.getLatches().get(0).getTerminatingInstruction().get();
+                assertTrue(loop.getBlocks().contains(test.getIfTrueLabel())
+                        != loop.getBlocks().contains(test.getIfFalseLabel()));
+                List<BasicBlock> entering = new ArrayList<>(loops.getDominators().getPredecessors(loop.getHeader()));
+                entering.removeAll(loop.getBlocks());
+                assertEquals(1, entering.size());
+                assertTrue(entering.get(0).getTerminatingInstruction().get() instanceof Branch);
+            }
+        }
+        // the while (i < 0) loop is never entered, the constant propagation after the null check elimination
+        // already folds it, and without it the folded guard of the rotated loop removes it
+        assertEquals(4, new Loops(proc(rotated, "main")).getLoops().size());
+        Prog onlyRotated = optimize(input, Passes.ssa(), Passes.loopRotation());
+        assertEquals(5, new Loops(proc(onlyRotated, "main")).getLoops().size());
+        Proc folded = proc(optimize(input, Passes.ssa(), Passes.loopRotation(), Passes.constantPropagation(),
+                Passes.simplifyCFG()), "main");
+        assertEquals(4, new Loops(folded).getLoops().size());
+    }
+
+    @Test
+    public void jumpThreading() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "A a; int i; int s; boolean b; a = new A(); s = a.init(); i = 0;\n"
+                + "while (i < 10) { s = s + a.get(i); b = 3 < i && i < 8;\n"
+                + "  if (b) { s = s + 1; } else { s = s - 1; } if (b) { s = s * 2; } else { } i = i + 1; }\n"
+                + "System.out.println(s); System.out.println(new A().get(2));\n"
+                + "}}\n"
+                + "class A { B b; int init() { b = new B(); return b.init(); }\n"
+                + "  int get(int i) { int r; if (!(b == null) && i < 5 && 0 < i) { r = b.c[i]; } else { r = 0; }\n"
+                + "    if (!(b == null)) { r = r + b.c[i]; } else { } return r; } }\n"
+                + "class B { int[] c; int init() { c = new int[10]; c[3] = 7; c[6] = 2; return 0; } }\n";
+        TranslationTestHelper.testLLVMTranslation("Test.java", input);
+
+        // the passes running before the jump threading at O2
+        Pass[] before = {Passes.ssa(), Passes.constantPropagation(), Passes.simplifyCFG(),
+                Passes.globalValueNumbering(), Passes.loadElimination(), Passes.globalValueNumbering(),
+                Passes.nullCheckElimination(), Passes.simplifyCFG()};
+        Prog unthreaded = optimize(input, before);
+        Pass[] threading = Arrays.copyOf(before, before.length + 2);
+        threading[before.length] = Passes.jumpThreading();
+        threading[before.length + 1] = Passes.simplifyCFG();
+        Prog threaded = optimize(input, threading);
+        // the second branch on b in the loop
+        assertEquals(4, count(proc(unthreaded, "main"), Branch.class));
+        assertEquals(3, count(proc(threaded, "main"), Branch.class));
+        // the second b == null, which is true after the first one was
+        assertEquals(10, count(proc(unthreaded, "A-get"), Branch.class));
+        assertEquals(9, count(proc(threaded, "A-get"), Branch.class));
+    }
+
+    @Test
+    public void optimizationLevels() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "int i; int s; int[] a; i = 0; s = 0; a = new int[10];\n"
+                + "while (i < a.length) { a[i] = i * i; s = s + a[i] / (i + 1); i = i + 1; }\n"
+                + "System.out.println(s); System.out.println(new F().fib(12));\n}}\n"
+                + "class F { int fib(int n) { int r; if (n < 2) { r = n; } else { r = this.fib(n - 1) + this.fib(n - 2); } return r; } }\n";
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            TranslationTestHelper.testLLVMTranslation("Test.java", input, level);
+        }
+    }
+
+    @Test
+    public void sharedAnalyses() throws Exception {
+        String input = "class Main { public static void main(String[] args) {\n"
+                + "int i; int s; int[] a; i = 0; s = 0; a = new int[10];\n"
+                + "while (i < a.length) { a[i] = i * 3; s = s + a[i] + a.length; i = i + 1; }\n"
+                + "System.out.println(s);\n}}\n";
+        MiniJavaCompiler compiler = new MiniJavaCompiler();
+        compiler.setOptimizationLevel(OptimizationLevel.O0);
+        compiler.compileString("Test.java", input);
+        Prog prog = compiler.getLlvmProg();
+        new PassManager().add(Passes.ssa()).run(prog);
+
+        // these passes only change instructions, so the dominators and loops are computed once
+        PassManager pm = new PassManager().add(Passes.globalValueNumbering()).add(Passes.loadElimination())
+                .add(Passes.loopInvariantCodeMotion()).add(Passes.strengthReduction())
+                .add(Passes.deadCodeElimination());
+        pm.run(prog);
+        new Checks().checkProgram(prog);
+        assertTrue(pm.getChanges().containsKey("strength-reduction"));
+        assertEquals(2, pm.getAnalyses().getComputations());
+        assertTrue(pm.getAnalyses().getHits() >= 4);
+    }
+
+    /** compiles the program without optimizations and runs the given passes on it */
+    private static Prog optimize(String input, Pass... passes) throws Exception {
+        MiniJavaCompiler compiler = new MiniJavaCompiler();
+        compiler.setOptimizationLevel(OptimizationLevel.O0);
+        compiler.compileString("Test.java", input);
+        Prog prog = compiler.getLlvmProg();
+        PassManager pm = new PassManager();
+        for (Pass pass : passes) {
+            pm.add(pass);
+        }
+        pm.run(prog);
+        new Checks().checkProgram(prog);
+        return prog;
+    }
+
+    private static Proc proc(Prog prog, String name) {
+        for (Proc proc : prog.getProcedures()) {
+            if (proc.getName().equals(name)) {
+                return proc;
+            }
+        }
+        throw new AssertionError("no procedure " + name);
+    }
+
+    /** the number of instructions of the given kind in the procedure */
+    private static int count(Proc proc, Class<? extends Instruction> kind) {
+        int result = 0;
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                if (kind.isInstance(instr)) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** the number of binary operations with the given operator in the procedure */
+    private static int countOperations(Proc proc, Class<? extends Operator> operator) {
+        int result = 0;
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                if (instr instanceof BinaryOperation && operator.isInstance(((BinaryOperation) instr).getOperator())) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** the number of error exits with the given message in the procedure */
+    private static int countHalts(Proc proc, String message) {
+        int result = 0;
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                if (instr instanceof HaltWithError && ((HaltWithError) instr).getMsg().equals(message)) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** the names of the procedures called by the procedure */
+    private static Set<String> calledProcedures(Proc proc) {
+        Set<String> result = new TreeSet<>();
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                if (instr instanceof Call && ((Call) instr).getFunction() instanceof ProcedureRef) {
+                    result.add(((ProcedureRef) ((Call) instr).getFunction()).getProcedure().getName());
+                }
+            }
+        }
+        return result;
+    }
+
+    /** the number of instructions of the given kind in the loops of the procedure */
+    private static int countInLoops(Proc proc, Class<? extends Instruction> kind) {
+        Loops loops = new Loops(proc);
+        int result = 0;
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            if (loops.getLoopFor(block) == null) {
+                continue;
+            }
+            for (Instruction instr : block) {
+                if (kind.isInstance(instr)) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** checks whether some block jumps back to a block dominating it */
+    private static boolean hasLoop(Proc proc) {
+        Dominators dominators = new Dominators(proc);
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (BasicBlock successor : block.getSuccessors()) {
+                if (dominators.dominates(successor, block)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void testStatements(String... inputLines) throws Exception {
+        TranslationTestHelper.testLLVMTranslation("Test.java", statements(inputLines));
+    }
+
+    /** a program with the given statements in its main method */
+    private static String statements(String... inputLines) {
+        return "class Main { public static void main(String[] args) {\n" + String.join("\n", inputLines) + "\n}}\n";
     }
 
 }
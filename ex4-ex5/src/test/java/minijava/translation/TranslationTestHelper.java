@@ -4,6 +4,7 @@ import main.MiniJavaCompiler;
 import minijava.ast.MJProgram;
 import minillvm.analysis.Checks;
 import minillvm.ast.Prog;
+import minillvm.passes.OptimizationLevel;
 import org.junit.Assert;
 
 import javax.tools.JavaCompiler;
@@ -52,8 +53,16 @@ public class TranslationTestHelper {
 	}
 
 
-	public static void testLLVMTranslation(String inputName, String miniJavaProgram) throws Exception {
+	public static Prog testLLVMTranslation(String inputName, String miniJavaProgram) throws Exception {
+		return testLLVMTranslation(inputName, miniJavaProgram, OptimizationLevel.O2);
+	}
+
+	/**
+	 * @return the translated program, for checking what the optimizations did with it
+	 */
+	public static Prog testLLVMTranslation(String inputName, String miniJavaProgram, OptimizationLevel level) throws Exception {
 		MiniJavaCompiler compiler = new MiniJavaCompiler();
+		compiler.setOptimizationLevel(level);
 		compiler.compileString(inputName, miniJavaProgram);
 		assertEquals(Collections.emptyList(), compiler.getSyntaxErrors());
 		assertEquals(Collections.emptyList(), compiler.getTypeErrors());
@@ -98,7 +107,7 @@ public class TranslationTestHelper {
 				throw e;
 			}
 		}
-
+		return llvmProg;
 	}
 
     private static String randomInput() {
@@ -0,0 +1,193 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The dataflow analyses on a loop, whose body joins two branches and whose latch writes
+ * to memory, and a block which is not reachable:
+ *
+ * entry -> header -> body -> left/right -> latch -> header, header -> exit, dead -> exit
+ */
+public class DataflowTests {
+
+    private final Parameter p = Ast.Parameter(Ast.TypeBool(), "p");
+    private final Parameter a = Ast.Parameter(Ast.TypeInt(), "a");
+    private final BasicBlock entry = block("entry");
+    private final BasicBlock header = block("header");
+    private final BasicBlock body = block("body");
+    private final BasicBlock left = block("left");
+    private final BasicBlock right = block("right");
+    private final BasicBlock latch = block("latch");
+    private final BasicBlock exit = block("exit");
+    private final BasicBlock dead = block("dead");
+
+    @Test
+    public void reachingDefinitions() {
+        TemporaryVar x = Ast.TemporaryVar("x");
+        TemporaryVar y = Ast.TemporaryVar("y");
+        TemporaryVar lx = Ast.TemporaryVar("lx");
+        TemporaryVar c = Ast.TemporaryVar("c");
+        TemporaryVar lz = Ast.TemporaryVar("lz");
+        TemporaryVar lx2 = Ast.TemporaryVar("lx2");
+        TemporaryVar next = Ast.TemporaryVar("next");
+        TemporaryVar ly = Ast.TemporaryVar("ly");
+        Store s0 = Ast.Store(Ast.VarRef(x), Ast.ConstInt(0));
+        Store s1 = Ast.Store(Ast.VarRef(y), Ast.ConstInt(1));
+        Store s2 = Ast.Store(Ast.VarRef(x), Ast.ConstInt(2));
+        Store s3 = Ast.Store(Ast.VarRef(y), Ast.ConstInt(3));
+        Store s4 = Ast.Store(Ast.VarRef(x), Ast.VarRef(next));
+        Store s5 = Ast.Store(Ast.VarRef(y), Ast.ConstInt(5));
+        Load headerLoad = Ast.Load(lx, Ast.VarRef(x));
+        Load leftLoad = Ast.Load(lz, Ast.VarRef(x));
+        Load latchLoad = Ast.Load(lx2, Ast.VarRef(x));
+        Load exitLoad = Ast.Load(ly, Ast.VarRef(y));
+        fill(entry, Ast.Alloca(x, Ast.TypeInt()), Ast.Alloca(y, Ast.TypeInt()), s0, s1, Ast.Jump(header));
+        fill(header, headerLoad, Ast.BinaryOperation(c, Ast.VarRef(lx), Ast.Slt(), Ast.VarRef(a)),
+                Ast.Branch(Ast.VarRef(c), body, exit));
+        fill(body, Ast.Branch(Ast.VarRef(p), left, right));
+        fill(left, s2, leftLoad, Ast.Jump(latch));
+        fill(right, s3, Ast.Jump(latch));
+        fill(latch, latchLoad, Ast.BinaryOperation(next, Ast.VarRef(lx2), Ast.Add(), Ast.ConstInt(1)), s4,
+                Ast.Jump(header));
+        fill(exit, exitLoad, Ast.ReturnExpr(Ast.VarRef(ly)));
+        fill(dead, s5, Ast.Jump(exit));
+
+        // the stores are numbered in the order of the blocks
+        ReachingDefinitions rd = new ReachingDefinitions(proc());
+        assertEquals(bits(6), rd.getIn(entry));
+        assertEquals(bits(6, 0, 1), rd.getOut(entry));
+        assertEquals(bits(6, 0, 1, 3, 4), rd.getIn(header));
+        assertEquals(bits(6, 0, 1, 3, 4), rd.getIn(body));
+        assertEquals(bits(6, 1, 2, 3), rd.getOut(left));
+        assertEquals(bits(6, 0, 3, 4), rd.getOut(right));
+        assertEquals(bits(6, 0, 1, 2, 3, 4), rd.getIn(latch));
+        assertEquals(bits(6, 1, 3, 4), rd.getOut(latch));
+        assertEquals(bits(6, 0, 1, 3, 4), rd.getIn(exit));
+        assertNull(rd.getIn(dead));
+        assertNull(rd.getOut(dead));
+
+        assertEquals(Arrays.asList(s0, s4), rd.getReachingStores(headerLoad));
+        assertEquals(Collections.singletonList(s2), rd.getReachingStores(leftLoad));
+        assertEquals(Arrays.asList(s0, s2, s4), rd.getReachingStores(latchLoad));
+        assertEquals(Arrays.asList(s1, s3), rd.getReachingStores(exitLoad));
+        assertEquals(Collections.emptyList(), rd.getReachingStores(dead));
+    }
+
+    @Test
+    public void availableExpressions() {
+        TemporaryVar m = Ast.TemporaryVar("m");
+        TemporaryVar t1 = Ast.TemporaryVar("t1");
+        TemporaryVar t2 = Ast.TemporaryVar("t2");
+        TemporaryVar l = Ast.TemporaryVar("l");
+        TemporaryVar t3 = Ast.TemporaryVar("t3");
+        TemporaryVar t4 = Ast.TemporaryVar("t4");
+        Assign add = Ast.BinaryOperation(t1, Ast.VarRef(a), Ast.Add(), Ast.ConstInt(1));
+        Assign sameAdd = Ast.BinaryOperation(t2, Ast.VarRef(a), Ast.Add(), Ast.ConstInt(1));
+        Assign load = Ast.Load(l, Ast.VarRef(m));
+        Assign mul = Ast.BinaryOperation(t3, Ast.VarRef(a), Ast.Mul(), Ast.ConstInt(2));
+        Assign div = Ast.BinaryOperation(t4, Ast.VarRef(a), Ast.Sdiv(), Ast.ConstInt(3));
+        fill(entry, Ast.Alloca(m, Ast.TypeInt()), Ast.Store(Ast.VarRef(m), Ast.ConstInt(0)), add, Ast.Jump(header));
+        fill(header, sameAdd, load, Ast.Branch(Ast.VarRef(p), body, exit));
+        fill(body, Ast.Branch(Ast.VarRef(p), left, right));
+        fill(left, mul, Ast.Jump(latch));
+        fill(right, Ast.Jump(latch));
+        fill(latch, Ast.Store(Ast.VarRef(m), Ast.VarRef(t2)), Ast.Jump(header));
+        fill(exit, Ast.ReturnExpr(Ast.VarRef(l)));
+        fill(dead, div, Ast.Jump(exit));
+
+        // a + 1 is 0, the load is 1, a * 2 is 2 and a / 3 is 3
+        Proc proc = proc();
+        AvailableExpressions available = new AvailableExpressions(proc, new AliasAnalysis(prog(proc)));
+        assertEquals(bits(4), available.getIn(entry));
+        assertEquals(bits(4, 0), available.getOut(entry));
+        assertEquals(bits(4, 0), available.getIn(header));
+        assertEquals(bits(4, 0, 1), available.getOut(header));
+        assertEquals(bits(4, 0, 1, 2), available.getOut(left));
+        assertEquals(bits(4, 0, 1), available.getIn(latch));
+        assertEquals(bits(4, 0), available.getOut(latch));
+        // the unreachable predecessor does not make the intersection empty
+        assertEquals(bits(4, 0, 1), available.getIn(exit));
+        assertNull(available.getIn(dead));
+
+        assertTrue(available.isAvailable(header, sameAdd));
+        assertFalse(available.isAvailable(header, load));
+        assertTrue(available.isAvailable(exit, load));
+        assertFalse(available.isAvailable(latch, mul));
+        assertFalse(available.isAvailable(exit, div));
+        assertEquals(Arrays.asList(add, load), available.getAvailable(latch));
+    }
+
+    @Test
+    public void liveness() {
+        TemporaryVar i = Ast.TemporaryVar("i");
+        TemporaryVar c = Ast.TemporaryVar("c");
+        TemporaryVar d = Ast.TemporaryVar("d");
+        TemporaryVar i2 = Ast.TemporaryVar("i2");
+        TemporaryVar e = Ast.TemporaryVar("e");
+        fill(entry, Ast.Jump(header));
+        fill(header, Ast.PhiNode(i, Ast.TypeInt(), Ast.PhiNodeChoiceList(Ast.PhiNodeChoice(entry, Ast.ConstInt(0)),
+                Ast.PhiNodeChoice(latch, Ast.VarRef(i2)))),
+                Ast.BinaryOperation(c, Ast.VarRef(i), Ast.Slt(), Ast.VarRef(a)), Ast.Branch(Ast.VarRef(c), body, exit));
+        fill(body, Ast.Branch(Ast.VarRef(p), left, right));
+        fill(left, Ast.BinaryOperation(d, Ast.VarRef(i), Ast.Mul(), Ast.ConstInt(2)), Ast.Jump(latch));
+        fill(right, Ast.Jump(latch));
+        fill(latch, Ast.BinaryOperation(i2, Ast.VarRef(i), Ast.Add(), Ast.ConstInt(1)), Ast.Jump(header));
+        fill(exit, Ast.ReturnExpr(Ast.VarRef(i)));
+        fill(dead, Ast.BinaryOperation(e, Ast.VarRef(a), Ast.Add(), Ast.ConstInt(1)), Ast.Jump(exit));
+
+        // the phi node uses i2 at the end of the latch, not at the start of the header
+        Liveness liveness = new Liveness(proc());
+        assertEquals(vars(p, a), liveness.getLiveOut(entry));
+        assertEquals(vars(p, a), liveness.getLiveIn(header));
+        assertEquals(vars(p, a, i), liveness.getLiveIn(body));
+        assertEquals(vars(p, a, i), liveness.getLiveIn(left));
+        assertEquals(vars(p, a, i), liveness.getLiveOut(left));
+        assertEquals(vars(p, a, i), liveness.getLiveIn(latch));
+        assertEquals(vars(p, a, i2), liveness.getLiveOut(latch));
+        assertEquals(vars(i), liveness.getLiveIn(exit));
+        assertEquals(vars(), liveness.getLiveOut(exit));
+        assertFalse(liveness.isLiveOut(left, d));
+        assertFalse(liveness.isLiveIn(dead, a));
+    }
+
+    private static BasicBlock block(String name) {
+        BasicBlock block = Ast.BasicBlock();
+        block.setName(name);
+        return block;
+    }
+
+    private static void fill(BasicBlock block, Instruction... instructions) {
+        block.addAll(Arrays.asList(instructions));
+    }
+
+    private Proc proc() {
+        return Ast.Proc("test", Ast.TypeInt(), Ast.ParameterList(p, a),
+                Ast.BasicBlockList(entry, header, body, left, right, latch, exit, dead));
+    }
+
+    private static Prog prog(Proc proc) {
+        return Ast.Prog(Ast.TypeStructList(), Ast.GlobalList(), Ast.ProcList(proc));
+    }
+
+    private static BitVector bits(int size, int... set) {
+        BitVector result = new BitVector(size);
+        for (int i : set) {
+            result.set(i);
+        }
+        return result;
+    }
+
+    private static HashSet<Variable> vars(Variable... vars) {
+        return new HashSet<>(Arrays.asList(vars));
+    }
+}
@@ -0,0 +1,235 @@
+package minillvm.analysis;
+
+import minillvm.analysis.Loops.Loop;
+import minillvm.ast.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Dominators, post-dominators and loops of hand-built control flow graphs.
+ */
+public class DominatorsTests {
+
+    @Test
+    public void diamond() {
+        BasicBlock entry = block("entry");
+        BasicBlock then = block("then");
+        BasicBlock otherwise = block("otherwise");
+        BasicBlock join = block("join");
+        branch(entry, then, otherwise);
+        jump(then, join);
+        jump(otherwise, join);
+        ret(join);
+        List<BasicBlock> blocks = Arrays.asList(entry, then, otherwise, join);
+
+        Dominators dominators = new Dominators(blocks);
+        assertNull(dominators.getIdom(entry));
+        assertSame(entry, dominators.getIdom(then));
+        assertSame(entry, dominators.getIdom(otherwise));
+        assertSame(entry, dominators.getIdom(join));
+        assertEquals(set(then, otherwise, join), set(dominators.getChildren(entry)));
+        assertFalse(dominators.dominates(then, join));
+        assertEquals(set(join), dominators.getDominanceFrontier(then));
+        assertEquals(set(join), dominators.getDominanceFrontier(otherwise));
+        assertEquals(set(), dominators.getDominanceFrontier(entry));
+        assertEquals(set(), dominators.getDominanceFrontier(join));
+
+        PostDominators postDominators = new PostDominators(blocks);
+        assertSame(join, postDominators.getIpdom(entry));
+        assertSame(join, postDominators.getIpdom(then));
+        assertSame(join, postDominators.getIpdom(otherwise));
+        assertNull(postDominators.getIpdom(join));
+        assertTrue(postDominators.postDominates(join, entry));
+        assertFalse(postDominators.postDominates(then, entry));
+        assertEquals(set(entry, then, otherwise), set(postDominators.getChildren(join)));
+        assertEquals(set(entry), postDominators.getPostDominanceFrontier(then));
+        assertEquals(set(), postDominators.getPostDominanceFrontier(join));
+
+        assertTrue(new Loops(dominators).getLoops().isEmpty());
+    }
+
+    @Test
+    public void nestedLoops() {
+        BasicBlock entry = block("entry");
+        BasicBlock outer = block("outer");
+        BasicBlock inner = block("inner");
+        BasicBlock innerBody = block("innerBody");
+        BasicBlock outerLatch = block("outerLatch");
+        BasicBlock exit = block("exit");
+        jump(entry, outer);
+        branch(outer, inner, exit);
+        branch(inner, innerBody, outerLatch);
+        jump(innerBody, inner);
+        jump(outerLatch, outer);
+        ret(exit);
+        List<BasicBlock> blocks = Arrays.asList(entry, outer, inner, innerBody, outerLatch, exit);
+
+        Dominators dominators = new Dominators(blocks);
+        assertEquals(blocks.size(), dominators.getReversePostorder().size());
+        assertSame(entry, dominators.getReversePostorder().get(0));
+        assertSame(entry, dominators.getIdom(outer));
+        assertSame(outer, dominators.getIdom(inner));
+        assertSame(inner, dominators.getIdom(innerBody));
+        assertSame(inner, dominators.getIdom(outerLatch));
+        assertSame(outer, dominators.getIdom(exit));
+        assertEquals(set(inner), dominators.getDominanceFrontier(innerBody));
+        assertEquals(set(inner, outer), dominators.getDominanceFrontier(inner));
+        assertEquals(set(outer), dominators.getDominanceFrontier(outerLatch));
+        assertEquals(set(outer), dominators.getDominanceFrontier(outer));
+
+        PostDominators postDominators = new PostDominators(blocks);
+        assertSame(outer, postDominators.getIpdom(entry));
+        assertSame(exit, postDominators.getIpdom(outer));
+        assertSame(outerLatch, postDominators.getIpdom(inner));
+        assertSame(inner, postDominators.getIpdom(innerBody));
+        assertSame(outer, postDominators.getIpdom(outerLatch));
+        assertEquals(set(inner), postDominators.getPostDominanceFrontier(innerBody));
+        assertEquals(set(inner, outer), postDominators.getPostDominanceFrontier(inner));
+        assertEquals(set(outer), postDominators.getPostDominanceFrontier(outerLatch));
+
+        Loops loops = new Loops(dominators);
+        assertEquals(2, loops.getLoops().size());
+        Loop outerLoop = loops.getLoops().get(0);
+        Loop innerLoop = loops.getLoops().get(1);
+        assertSame(outer, outerLoop.getHeader());
+        assertEquals(set(outer, inner, innerBody, outerLatch), outerLoop.getBlocks());
+        assertEquals(Arrays.asList(outerLatch), outerLoop.getLatches());
+        assertSame(entry, outerLoop.getPreheader());
+        assertEquals(set(exit), outerLoop.getExitBlocks());
+        assertEquals(1, outerLoop.getDepth());
+        assertSame(inner, innerLoop.getHeader());
+        assertEquals(set(inner, innerBody), innerLoop.getBlocks());
+        assertSame(outerLoop, innerLoop.getParent());
+        assertEquals(2, innerLoop.getDepth());
+        // the only block outside jumping to the header also branches to the exit
+        assertNull(innerLoop.getPreheader());
+        assertSame(innerLoop, loops.getLoopsInnermostFirst().get(0));
+        assertSame(innerLoop, loops.getLoopFor(innerBody));
+        assertSame(outerLoop, loops.getLoopFor(outerLatch));
+        assertEquals(2, loops.getLoopDepth(innerBody));
+        assertEquals(0, loops.getLoopDepth(exit));
+    }
+
+    @Test
+    public void multipleExits() {
+        BasicBlock entry = block("entry");
+        BasicBlock a = block("a");
+        BasicBlock returnA = block("returnA");
+        BasicBlock error = block("error");
+        BasicBlock b = block("b");
+        BasicBlock returnB = block("returnB");
+        BasicBlock spin = block("spin");
+        BasicBlock dead = block("dead");
+        branch(entry, a, b);
+        branch(a, returnA, error);
+        ret(returnA);
+        error.add(Ast.HaltWithError("error"));
+        branch(b, returnB, spin);
+        ret(returnB);
+        jump(spin, spin);
+        jump(dead, returnA);
+        List<BasicBlock> blocks = Arrays.asList(entry, a, returnA, error, b, returnB, spin, dead);
+
+        Dominators dominators = new Dominators(blocks);
+        assertEquals(blocks.size(), dominators.size());
+        assertFalse(dominators.isReachable(dead));
+        assertNull(dominators.getIdom(dead));
+        assertFalse(dominators.dominates(entry, dead));
+        assertSame(a, dominators.getIdom(returnA));
+        assertSame(a, dominators.getIdom(error));
+        assertSame(b, dominators.getIdom(spin));
+        assertEquals(set(spin), dominators.getDominanceFrontier(spin));
+        // the unreachable predecessor is listed, but does not change the dominance frontiers
+        assertEquals(Arrays.asList(a, dead), dominators.getPredecessors(returnA));
+        assertEquals(set(), dominators.getDominanceFrontier(a));
+
+        // the returns and the error are connected to the virtual exit, the infinite loop is not
+        PostDominators postDominators = new PostDominators(blocks);
+        assertNull(postDominators.getIpdom(entry));
+        assertNull(postDominators.getIpdom(a));
+        assertNull(postDominators.getIpdom(returnA));
+        assertNull(postDominators.getIpdom(error));
+        assertFalse(postDominators.reachesExit(spin));
+        assertNull(postDominators.getIpdom(spin));
+        assertSame(returnB, postDominators.getIpdom(b));
+        assertSame(returnA, postDominators.getIpdom(dead));
+        assertFalse(postDominators.postDominates(returnA, entry));
+        assertEquals(set(a), postDominators.getPostDominanceFrontier(returnA));
+        assertEquals(set(a), postDominators.getPostDominanceFrontier(error));
+        assertEquals(set(entry), postDominators.getPostDominanceFrontier(a));
+
+        Loops loops = new Loops(dominators);
+        assertEquals(1, loops.getLoops().size());
+        assertEquals(set(spin), loops.getLoops().get(0).getBlocks());
+        assertTrue(loops.getLoops().get(0).getExitingBlocks().isEmpty());
+    }
+
+    @Test
+    public void longLoop() {
+        // the analyses must not recurse along the blocks
+        int n = 50000;
+        List<BasicBlock> blocks = new ArrayList<>();
+        for (int i = 0; i <= n; i++) {
+            blocks.add(block("b" + i));
+        }
+        BasicBlock exit = block("exit");
+        for (int i = 0; i < n - 1; i++) {
+            jump(blocks.get(i), blocks.get(i + 1));
+        }
+        branch(blocks.get(n - 1), blocks.get(1), blocks.get(n));
+        jump(blocks.get(n), exit);
+        ret(exit);
+        blocks.add(exit);
+
+        Dominators dominators = new Dominators(blocks);
+        assertSame(blocks.get(n - 2), dominators.getIdom(blocks.get(n - 1)));
+        assertTrue(dominators.dominates(blocks.get(1), exit));
+        assertEquals(set(blocks.get(1)), dominators.getDominanceFrontier(blocks.get(n / 2)));
+
+        PostDominators postDominators = new PostDominators(blocks);
+        assertSame(blocks.get(2), postDominators.getIpdom(blocks.get(1)));
+        assertTrue(postDominators.postDominates(blocks.get(n - 1), blocks.get(1)));
+
+        Loops loops = new Loops(dominators);
+        assertEquals(1, loops.getLoops().size());
+        assertEquals(n - 1, loops.getLoops().get(0).getBlocks().size());
+        assertSame(blocks.get(0), loops.getLoops().get(0).getPreheader());
+    }
+
+    private static BasicBlock block(String name) {
+        BasicBlock block = Ast.BasicBlock();
+        block.setName(name);
+        return block;
+    }
+
+    private static void jump(BasicBlock from, BasicBlock to) {
+        from.add(Ast.Jump(to));
+    }
+
+    private static void branch(BasicBlock from, BasicBlock ifTrue, BasicBlock ifFalse) {
+        from.add(Ast.Branch(Ast.ConstBool(true), ifTrue, ifFalse));
+    }
+
+    private static void ret(BasicBlock block) {
+        block.add(Ast.ReturnVoid());
+    }
+
+    private static Set<BasicBlock> set(BasicBlock... blocks) {
+        return new HashSet<>(Arrays.asList(blocks));
+    }
+
+    private static Set<BasicBlock> set(List<BasicBlock> blocks) {
+        return new HashSet<>(blocks);
+    }
+}